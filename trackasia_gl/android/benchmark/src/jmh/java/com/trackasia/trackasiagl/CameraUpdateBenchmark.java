@@ -0,0 +1,61 @@
+package com.trackasia.trackasiagl;
+
+import com.trackasia.android.camera.CameraUpdate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Decoding of the camera updates sent with {@code camera#move} and {@code camera#animate}. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CameraUpdateBenchmark {
+  private static final float DENSITY = 2.75f;
+
+  private List<Object> newCameraPosition;
+  private List<Object> newLatLngBounds;
+  private List<Object> newLatLngZoom;
+
+  @Setup
+  public void setUp() {
+    final Map<String, Object> position = new HashMap<>();
+    position.put("bearing", 30.0);
+    position.put("target", Arrays.asList(10.7769, 106.7009));
+    position.put("tilt", 45.0);
+    position.put("zoom", 15.5);
+    newCameraPosition = Arrays.asList("newCameraPosition", position);
+    newLatLngBounds =
+        Arrays.asList(
+            "newLatLngBounds",
+            Arrays.asList(Arrays.asList(10.70, 106.60), Arrays.asList(10.85, 106.80)),
+            16,
+            16,
+            16,
+            16);
+    newLatLngZoom = Arrays.asList("newLatLngZoom", Arrays.asList(21.0285, 105.8542), 12.0);
+  }
+
+  @Benchmark
+  public CameraUpdate newCameraPosition() {
+    return Convert.toCameraUpdate(newCameraPosition, null, DENSITY);
+  }
+
+  @Benchmark
+  public CameraUpdate newLatLngBounds() {
+    return Convert.toCameraUpdate(newLatLngBounds, null, DENSITY);
+  }
+
+  @Benchmark
+  public CameraUpdate newLatLngZoom() {
+    return Convert.toCameraUpdate(newLatLngZoom, null, DENSITY);
+  }
+}
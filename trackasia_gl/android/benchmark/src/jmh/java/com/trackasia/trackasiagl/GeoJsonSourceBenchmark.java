@@ -0,0 +1,109 @@
+package com.trackasia.trackasiagl;
+
+import com.google.gson.Gson;
+import com.trackasia.android.style.sources.GeoJsonOptions;
+import com.trackasia.geojson.FeatureCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The Java side of building a GeoJSON source from the three payloads the plugin accepts: the
+ * decoded map of {@code style#addSource}, the JSON string of {@code source#setGeoJson} and the
+ * binary layout of {@code source#setGeoJson} with {@code geojsonBinary}. Creating the native source
+ * itself needs the map renderer and is not measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class GeoJsonSourceBenchmark {
+  @Param({"100", "10000"})
+  public int featureCount;
+
+  private Map<String, Object> sourceProperties;
+  private String json;
+  private Map<String, Object> binary;
+
+  @Setup
+  public void setUp() {
+    final List<Object> features = new ArrayList<>(featureCount);
+    final byte[] types = new byte[featureCount];
+    final int[] structure = new int[0];
+    final double[] coordinates = new double[featureCount * 2];
+    final List<Object> ids = new ArrayList<>(featureCount);
+    final List<Object> properties = new ArrayList<>(featureCount);
+    for (int i = 0; i < featureCount; i++) {
+      final double lng = 106.6 + (i % 100) * 0.002;
+      final double lat = 10.7 + (i / 100) * 0.002;
+
+      final Map<String, Object> geometry = new HashMap<>();
+      geometry.put("type", "Point");
+      geometry.put("coordinates", Arrays.asList(lng, lat));
+      final Map<String, Object> featureProperties = new HashMap<>();
+      featureProperties.put("name", "poi " + i);
+      featureProperties.put("rank", i % 10);
+      final Map<String, Object> feature = new HashMap<>();
+      feature.put("type", "Feature");
+      feature.put("id", String.valueOf(i));
+      feature.put("geometry", geometry);
+      feature.put("properties", featureProperties);
+      features.add(feature);
+
+      types[i] = 1;
+      coordinates[i * 2] = lng;
+      coordinates[i * 2 + 1] = lat;
+      ids.add(String.valueOf(i));
+      properties.add(Arrays.asList(0, "poi " + i, 1, i % 10));
+    }
+
+    final Map<String, Object> data = new HashMap<>();
+    data.put("type", "FeatureCollection");
+    data.put("features", features);
+    sourceProperties = new HashMap<>();
+    sourceProperties.put("data", data);
+    sourceProperties.put("cluster", true);
+    sourceProperties.put("clusterRadius", 50);
+    sourceProperties.put("clusterMaxZoom", 14);
+    json = new Gson().toJson(data);
+
+    binary = new HashMap<>();
+    binary.put("types", types);
+    binary.put("structure", structure);
+    binary.put("coordinates", coordinates);
+    binary.put("ids", ids);
+    binary.put("keys", Arrays.asList("name", "rank"));
+    binary.put("properties", properties);
+  }
+
+  @Benchmark
+  public GeoJsonOptions options() {
+    return SourcePropertyConverter.buildGeojsonOptions(sourceProperties);
+  }
+
+  /** The conversion {@code SourcePropertyConverter.buildGeojsonSource} runs for map data. */
+  @Benchmark
+  public FeatureCollection fromMap() {
+    return FeatureCollection.fromJson(new Gson().toJson(sourceProperties.get("data")));
+  }
+
+  @Benchmark
+  public FeatureCollection fromJsonString() {
+    return FeatureCollection.fromJson(json);
+  }
+
+  @Benchmark
+  public FeatureCollection fromBinary() {
+    return GeoJsonBinaryDecoder.decode(binary);
+  }
+}
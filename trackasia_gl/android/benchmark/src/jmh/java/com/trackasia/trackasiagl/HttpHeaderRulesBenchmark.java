@@ -0,0 +1,43 @@
+package com.trackasia.trackasiagl;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Request;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Headers set by the interceptor of the map SDK client on every tile request. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class HttpHeaderRulesBenchmark {
+  private HttpHeaderRules rules;
+  private Request tileRequest;
+
+  @Setup
+  public void setUp() {
+    final Map<String, String> headers = new HashMap<>();
+    headers.put("User-Agent", "trackasia-gl-benchmark");
+    headers.put("X-Client", "flutter");
+    final Map<String, String> trackAsiaHeaders = new HashMap<>();
+    trackAsiaHeaders.put("Authorization", "Bearer token");
+    final Map<String, Map<String, String>> hostHeaders = new HashMap<>();
+    hostHeaders.put("*.track-asia.com", trackAsiaHeaders);
+    rules = HttpHeaderRules.compile(headers, hostHeaders);
+    tileRequest =
+        new Request.Builder()
+            .url("https://maps.track-asia.com/tiles/v3/14/13000/7600.pbf")
+            .build();
+  }
+
+  @Benchmark
+  public Request applyTileRequest() {
+    return rules.forHost(tileRequest.url().host()).apply(tileRequest);
+  }
+}
@@ -0,0 +1,76 @@
+package com.trackasia.trackasiagl;
+
+import com.trackasia.android.style.layers.PropertyValue;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Interpretation of the layer properties sent with {@code symbolLayer#add} and {@code
+ * lineLayer#add}, with the expression cache warm as for repeated style updates and cold as for the
+ * first time a style is applied.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LayerPropertyBenchmark {
+  private Map<String, String> symbolProperties;
+  private Map<String, String> lineProperties;
+
+  @Setup
+  public void setUp() {
+    symbolProperties = new HashMap<>();
+    symbolProperties.put("icon-image", "[\"get\",\"icon\"]");
+    symbolProperties.put(
+        "icon-size", "[\"interpolate\",[\"linear\"],[\"zoom\"],10,0.5,16,1.2]");
+    symbolProperties.put("icon-offset", "[0,-12]");
+    symbolProperties.put("icon-allow-overlap", "true");
+    symbolProperties.put("text-field", "[\"get\",\"name\"]");
+    symbolProperties.put("text-font", "[\"literal\",[\"Noto Sans Regular\"]]");
+    symbolProperties.put("text-size", "14");
+    symbolProperties.put("text-offset", "[0,1.5]");
+    symbolProperties.put("text-anchor", "\"top\"");
+    symbolProperties.put("text-color", "\"#202020\"");
+    symbolProperties.put("text-halo-color", "\"#ffffff\"");
+    symbolProperties.put("text-halo-width", "1.5");
+    symbolProperties.put("visibility", "\"visible\"");
+
+    lineProperties = new HashMap<>();
+    lineProperties.put("line-color", "[\"match\",[\"get\",\"class\"],\"primary\",\"#f5a623\",\"#888888\"]");
+    lineProperties.put(
+        "line-width", "[\"interpolate\",[\"exponential\",1.5],[\"zoom\"],5,0.75,18,32]");
+    lineProperties.put("line-opacity", "0.9");
+    lineProperties.put("line-join", "\"round\"");
+    lineProperties.put("line-cap", "\"round\"");
+    lineProperties.put("line-dasharray", "[2,1]");
+  }
+
+  @Benchmark
+  public PropertyValue[] symbolLayerWarm() {
+    return LayerPropertyConverter.interpretSymbolLayerProperties(symbolProperties);
+  }
+
+  @Benchmark
+  public PropertyValue[] symbolLayerCold() {
+    ExpressionCache.clear();
+    return LayerPropertyConverter.interpretSymbolLayerProperties(symbolProperties);
+  }
+
+  @Benchmark
+  public PropertyValue[] lineLayerWarm() {
+    return LayerPropertyConverter.interpretLineLayerProperties(lineProperties);
+  }
+
+  @Benchmark
+  public PropertyValue[] lineLayerCold() {
+    ExpressionCache.clear();
+    return LayerPropertyConverter.interpretLineLayerProperties(lineProperties);
+  }
+}
@@ -0,0 +1,38 @@
+package com.trackasia.trackasiagl;
+
+import com.trackasia.android.offline.OfflineRegionDefinition;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Conversion of the region definition sent with {@code downloadOfflineRegion}. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RegionDefinitionBenchmark {
+  private Map<String, Object> definition;
+
+  @Setup
+  public void setUp() {
+    definition = new HashMap<>();
+    definition.put(
+        "bounds", Arrays.asList(Arrays.asList(10.70, 106.60), Arrays.asList(10.85, 106.80)));
+    definition.put("mapStyleUrl", "https://maps.track-asia.com/styles/v1/streets.json");
+    definition.put("minZoom", 10.0);
+    definition.put("maxZoom", 16.0);
+    definition.put("includeIdeographs", false);
+  }
+
+  @Benchmark
+  public OfflineRegionDefinition mapToRegionDefinition() {
+    return OfflineManagerUtils.mapToRegionDefinition(definition, 2.75f);
+  }
+}
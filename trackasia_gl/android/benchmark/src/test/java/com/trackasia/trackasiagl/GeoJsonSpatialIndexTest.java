@@ -0,0 +1,353 @@
+package com.trackasia.trackasiagl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.trackasia.geojson.Feature;
+import com.trackasia.geojson.Geometry;
+import com.trackasia.geojson.LineString;
+import com.trackasia.geojson.MultiPoint;
+import com.trackasia.geojson.Point;
+import com.trackasia.geojson.Polygon;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+
+public class GeoJsonSpatialIndexTest {
+  private static final double METERS_PER_DEGREE = 6371008.8 * Math.PI / 180;
+
+  private final Random random = new Random(42);
+
+  @Test
+  public void queryBBoxMatchesBruteForce() {
+    final List<Feature> features = randomFeatures(2000, -10, 10);
+    final GeoJsonSpatialIndex index = GeoJsonSpatialIndex.build(features);
+
+    for (int i = 0; i < 200; i++) {
+      final double[] box = randomBox(-11, 11, 3);
+      assertSameFeatures(
+          bruteBBox(features, box),
+          index.queryBBox(box[0], box[1], box[2], box[3], Integer.MAX_VALUE));
+    }
+  }
+
+  @Test
+  public void queryBBoxStopsAtLimit() {
+    final List<Feature> features = randomFeatures(1000, -5, 5);
+    final GeoJsonSpatialIndex index = GeoJsonSpatialIndex.build(features);
+
+    for (int limit : new int[] {1, 7, 50}) {
+      final double[] box = {-3, -3, 3, 3};
+      final List<Feature> expected = bruteBBox(features, box);
+      final List<Feature> actual = index.queryBBox(box[0], box[1], box[2], box[3], limit);
+
+      assertEquals(Math.min(limit, expected.size()), actual.size());
+      assertTrue(identities(expected).containsAll(actual));
+      assertEquals(actual.size(), identities(actual).size());
+    }
+  }
+
+  @Test
+  public void nearestMatchesBruteForce() {
+    final List<Feature> features = randomFeatures(2000, -10, 10);
+    final GeoJsonSpatialIndex index = GeoJsonSpatialIndex.build(features);
+
+    for (int i = 0; i < 200; i++) {
+      final double lng = -11 + random.nextDouble() * 22;
+      final double lat = -11 + random.nextDouble() * 22;
+      final int limit = 1 + random.nextInt(10);
+      assertNearest(features, index, lng, lat, limit, Double.POSITIVE_INFINITY);
+    }
+  }
+
+  @Test
+  public void nearestIgnoresFeaturesBeyondMaxDistance() {
+    final List<Feature> features = randomFeatures(2000, -10, 10);
+    final GeoJsonSpatialIndex index = GeoJsonSpatialIndex.build(features);
+
+    for (int i = 0; i < 100; i++) {
+      final double lng = -10 + random.nextDouble() * 20;
+      final double lat = -10 + random.nextDouble() * 20;
+      final double maxDistance = random.nextDouble() * 50000;
+      final List<Feature> actual = index.nearest(lng, lat, Integer.MAX_VALUE, maxDistance);
+      for (Feature feature : actual) {
+        assertTrue(distance(feature.geometry(), lng, lat) <= maxDistance);
+      }
+      assertNearest(features, index, lng, lat, Integer.MAX_VALUE, maxDistance);
+    }
+  }
+
+  @Test
+  public void insertAndRemoveBeforeAndAfterRebuild() {
+    final List<Feature> live = randomFeatures(200, -5, 5);
+    final GeoJsonSpatialIndex index = GeoJsonSpatialIndex.build(live);
+
+    // A few changes stay in the overflow and the removed set.
+    final List<Feature> added = randomFeatures(10, -5, 5);
+    for (Feature feature : added) {
+      index.insert(feature);
+    }
+    live.addAll(added);
+    for (int i = 0; i < 10; i++) {
+      index.remove(live.remove(random.nextInt(200 - i)));
+    }
+    assertFalse(index.needsRebuild());
+    assertMatchesBruteForce(live, index);
+
+    // Replacing a feature with an equal copy removes the old one by identity.
+    for (int i = 0; i < 50; i++) {
+      final int position = random.nextInt(live.size());
+      final Feature old = live.get(position);
+      final Feature copy = Feature.fromGeometry(old.geometry());
+      index.remove(old);
+      index.insert(copy);
+      live.set(position, copy);
+    }
+    assertTrue(index.needsRebuild());
+    assertMatchesBruteForce(live, index);
+
+    final GeoJsonSpatialIndex rebuilt = GeoJsonSpatialIndex.build(live);
+    assertFalse(rebuilt.needsRebuild());
+    assertMatchesBruteForce(live, rebuilt);
+  }
+
+  @Test
+  public void queryBBoxAcrossTheAntimeridian() {
+    final List<Feature> features = new ArrayList<>(randomFeatures(300, 170, 180));
+    features.addAll(randomFeatures(300, -180, -170));
+    // Indexed by a box spanning nearly all longitudes, found on both sides but returned once.
+    final Feature spanning =
+        Feature.fromGeometry(
+            LineString.fromLngLats(
+                Arrays.asList(Point.fromLngLat(-179.5, 0), Point.fromLngLat(179.5, 0))));
+    features.add(spanning);
+    final GeoJsonSpatialIndex index = GeoJsonSpatialIndex.build(features);
+
+    final double[] east = {175, -5, 180, 5};
+    final double[] west = {-180, -5, -175, 5};
+    final List<Feature> expected = bruteBBox(features, east);
+    for (Feature feature : bruteBBox(features, west)) {
+      if (!identities(expected).contains(feature)) {
+        expected.add(feature);
+      }
+    }
+    final List<Feature> actual = index.queryBBox(175, -5, -175, 5, Integer.MAX_VALUE);
+    assertSameFeatures(expected, actual);
+    assertTrue(identities(actual).contains(spanning));
+
+    final List<Feature> limited = index.queryBBox(175, -5, -175, 5, 20);
+    assertEquals(20, limited.size());
+    assertEquals(20, identities(limited).size());
+    assertTrue(identities(expected).containsAll(limited));
+  }
+
+  @Test
+  public void emptyIndexFindsNothing() {
+    final GeoJsonSpatialIndex index = GeoJsonSpatialIndex.build(Collections.<Feature>emptyList());
+
+    assertTrue(index.queryBBox(-180, -90, 180, 90, Integer.MAX_VALUE).isEmpty());
+    assertTrue(index.nearest(0, 0, 10, Double.POSITIVE_INFINITY).isEmpty());
+
+    final Feature feature = Feature.fromGeometry(Point.fromLngLat(1, 1));
+    index.insert(feature);
+    assertEquals(Collections.singletonList(feature), index.queryBBox(0, 0, 2, 2, 10));
+    assertEquals(
+        Collections.singletonList(feature), index.nearest(0, 0, 10, Double.POSITIVE_INFINITY));
+  }
+
+  private void assertMatchesBruteForce(List<Feature> live, GeoJsonSpatialIndex index) {
+    for (int i = 0; i < 50; i++) {
+      final double[] box = randomBox(-6, 6, 2);
+      assertSameFeatures(
+          bruteBBox(live, box), index.queryBBox(box[0], box[1], box[2], box[3], Integer.MAX_VALUE));
+      final double lng = -6 + random.nextDouble() * 12;
+      final double lat = -6 + random.nextDouble() * 12;
+      assertNearest(live, index, lng, lat, 5, Double.POSITIVE_INFINITY);
+    }
+  }
+
+  /** Checks the distances in order, since features at the same distance may come in any order. */
+  private static void assertNearest(
+      List<Feature> features,
+      GeoJsonSpatialIndex index,
+      double lng,
+      double lat,
+      int limit,
+      double maxDistance) {
+    final List<Double> expected = new ArrayList<>();
+    for (Feature feature : features) {
+      final double distance = distance(feature.geometry(), lng, lat);
+      if (distance <= maxDistance) {
+        expected.add(distance);
+      }
+    }
+    Collections.sort(expected);
+
+    final List<Feature> actual = index.nearest(lng, lat, limit, maxDistance);
+    assertEquals(Math.min(limit, expected.size()), actual.size());
+    assertTrue(identities(features).containsAll(actual));
+    assertEquals(actual.size(), identities(actual).size());
+    for (int i = 0; i < actual.size(); i++) {
+      assertEquals(expected.get(i), distance(actual.get(i).geometry(), lng, lat), 1e-6);
+    }
+  }
+
+  private static void assertSameFeatures(List<Feature> expected, List<Feature> actual) {
+    assertEquals(expected.size(), actual.size());
+    assertEquals(identities(expected), identities(actual));
+  }
+
+  private static Set<Feature> identities(List<Feature> features) {
+    final Set<Feature> set = Collections.newSetFromMap(new IdentityHashMap<>());
+    set.addAll(features);
+    return set;
+  }
+
+  private static List<Feature> bruteBBox(List<Feature> features, double[] box) {
+    final List<Feature> result = new ArrayList<>();
+    for (Feature feature : features) {
+      final double[] bounds = GeoJsonSpatialIndex.bounds(feature.geometry());
+      if (bounds[0] <= box[2]
+          && bounds[1] <= box[3]
+          && bounds[2] >= box[0]
+          && bounds[3] >= box[1]) {
+        result.add(feature);
+      }
+    }
+    return result;
+  }
+
+  private double[] randomBox(double min, double max, double maxSize) {
+    final double west = min + random.nextDouble() * (max - min);
+    final double south = min + random.nextDouble() * (max - min);
+    return new double[] {
+      west, south, west + random.nextDouble() * maxSize, south + random.nextDouble() * maxSize
+    };
+  }
+
+  /** Points, multi-points, lines and polygons, some with a hole, within the given longitudes. */
+  private List<Feature> randomFeatures(int count, double minLng, double maxLng) {
+    final List<Feature> features = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      final double lng = minLng + 0.5 + random.nextDouble() * (maxLng - minLng - 1);
+      final double lat = -9.5 + random.nextDouble() * 19;
+      final Geometry geometry;
+      switch (i % 4) {
+        case 0:
+          geometry = Point.fromLngLat(lng, lat);
+          break;
+        case 1:
+          geometry = MultiPoint.fromLngLats(randomPoints(lng, lat, 3));
+          break;
+        case 2:
+          geometry = LineString.fromLngLats(randomPoints(lng, lat, 2 + random.nextInt(4)));
+          break;
+        default:
+          final double size = 0.05 + random.nextDouble() * 0.4;
+          final List<List<Point>> rings = new ArrayList<>();
+          rings.add(square(lng, lat, size));
+          if (random.nextBoolean()) {
+            rings.add(square(lng, lat, size / 2));
+          }
+          geometry = Polygon.fromLngLats(rings);
+          break;
+      }
+      features.add(Feature.fromGeometry(geometry));
+    }
+    return features;
+  }
+
+  private List<Point> randomPoints(double lng, double lat, int count) {
+    final List<Point> points = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      points.add(
+          Point.fromLngLat(
+              lng + (random.nextDouble() - 0.5), lat + (random.nextDouble() - 0.5)));
+    }
+    return points;
+  }
+
+  private static List<Point> square(double lng, double lat, double halfSize) {
+    return Arrays.asList(
+        Point.fromLngLat(lng - halfSize, lat - halfSize),
+        Point.fromLngLat(lng + halfSize, lat - halfSize),
+        Point.fromLngLat(lng + halfSize, lat + halfSize),
+        Point.fromLngLat(lng - halfSize, lat + halfSize),
+        Point.fromLngLat(lng - halfSize, lat - halfSize));
+  }
+
+  /** Distance in the equirectangular projection around the query point, as the index measures. */
+  private static double distance(Geometry geometry, double lng, double lat) {
+    final double scaleX = Math.cos(Math.toRadians(lat)) * METERS_PER_DEGREE;
+    if (geometry instanceof Point) {
+      return segmentDistance((Point) geometry, (Point) geometry, lng, lat, scaleX);
+    } else if (geometry instanceof MultiPoint) {
+      double min = Double.POSITIVE_INFINITY;
+      for (Point point : ((MultiPoint) geometry).coordinates()) {
+        min = Math.min(min, segmentDistance(point, point, lng, lat, scaleX));
+      }
+      return min;
+    } else if (geometry instanceof LineString) {
+      return pathDistance(((LineString) geometry).coordinates(), lng, lat, scaleX);
+    }
+    final List<List<Point>> rings = ((Polygon) geometry).coordinates();
+    boolean inside = windingInside(rings.get(0), lng, lat);
+    for (int i = 1; i < rings.size(); i++) {
+      inside &= !windingInside(rings.get(i), lng, lat);
+    }
+    if (inside) {
+      return 0;
+    }
+    double min = Double.POSITIVE_INFINITY;
+    for (List<Point> ring : rings) {
+      min = Math.min(min, pathDistance(ring, lng, lat, scaleX));
+    }
+    return min;
+  }
+
+  private static double pathDistance(List<Point> path, double lng, double lat, double scaleX) {
+    double min = Double.POSITIVE_INFINITY;
+    for (int i = 1; i < path.size(); i++) {
+      min = Math.min(min, segmentDistance(path.get(i - 1), path.get(i), lng, lat, scaleX));
+    }
+    return min;
+  }
+
+  private static double segmentDistance(
+      Point a, Point b, double lng, double lat, double scaleX) {
+    final double ax = (a.longitude() - lng) * scaleX;
+    final double ay = (a.latitude() - lat) * METERS_PER_DEGREE;
+    final double dx = (b.longitude() - a.longitude()) * scaleX;
+    final double dy = (b.latitude() - a.latitude()) * METERS_PER_DEGREE;
+    final double lengthSquared = dx * dx + dy * dy;
+    double t = lengthSquared > 0 ? -(ax * dx + ay * dy) / lengthSquared : 0;
+    t = Math.max(0, Math.min(1, t));
+    return Math.hypot(ax + t * dx, ay + t * dy);
+  }
+
+  /** Non-zero winding test, so it does not share the crossing test of the index. */
+  private static boolean windingInside(List<Point> ring, double lng, double lat) {
+    int winding = 0;
+    for (int i = 1; i < ring.size(); i++) {
+      final Point a = ring.get(i - 1);
+      final Point b = ring.get(i);
+      final double cross =
+          (b.longitude() - a.longitude()) * (lat - a.latitude())
+              - (lng - a.longitude()) * (b.latitude() - a.latitude());
+      if (a.latitude() <= lat) {
+        if (b.latitude() > lat && cross > 0) {
+          winding++;
+        }
+      } else if (b.latitude() <= lat && cross < 0) {
+        winding--;
+      }
+    }
+    return winding != 0;
+  }
+}
@@ -0,0 +1,181 @@
+package com.trackasia.trackasiagl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+
+public class OfflineGeometryCoverTest {
+  private static final double INSET = 0.01;
+
+  @Test
+  public void squareCoversItsTiles() {
+    final OfflineGeometryCover.Cover cover =
+        OfflineGeometryCover.polygons(polygon(tileRing(2, 3, 6, 7, INSET, 4)), 4);
+
+    assertEquals(16, cover.tileCount());
+    assertEquals(tiles(2, 3, 6, 7), tiles(cover));
+  }
+
+  @Test
+  public void holeIsLeftOut() {
+    final int zoom = 5;
+    // The hole runs through the middle of tiles 12 and 17, which stay in the cover.
+    final List<double[]> rings =
+        Arrays.asList(tileRing(10, 10, 20, 20, INSET, zoom), tileRing(12, 12, 18, 18, 0.5, zoom));
+    final OfflineGeometryCover.Cover cover =
+        OfflineGeometryCover.polygons(Collections.singletonList(rings), zoom);
+
+    final Set<Long> expected = tiles(10, 10, 20, 20);
+    expected.removeAll(tiles(13, 13, 17, 17));
+    assertEquals(84, cover.tileCount());
+    assertEquals(expected, tiles(cover));
+  }
+
+  @Test
+  public void diagonalCorridorIsNarrowerThanItsBoundingBox() {
+    final int zoom = 16;
+    final double[] line = {105.80, 21.00, 105.95, 20.85};
+    final double bufferMeters = 100;
+    final OfflineGeometryCover.Cover cover =
+        OfflineGeometryCover.corridor(Collections.singletonList(line), bufferMeters, zoom);
+
+    final double[] projected = OfflineGeometryCover.project(line, zoom);
+    final long boxTiles =
+        (long) (Math.abs(Math.floor(projected[2]) - Math.floor(projected[0])) + 1)
+            * (long) (Math.abs(Math.floor(projected[3]) - Math.floor(projected[1])) + 1);
+    assertTrue(cover.tileCount() * 4 < boxTiles);
+
+    // Every tile the line passes through is in the cover.
+    final Set<Long> tiles = tiles(cover);
+    for (int i = 0; i <= 1000; i++) {
+      final double t = i / 1000.0;
+      final long x = (long) Math.floor(projected[0] + t * (projected[2] - projected[0]));
+      final long y = (long) Math.floor(projected[1] + t * (projected[3] - projected[1]));
+      assertTrue("Missing tile " + x + "/" + y, tiles.contains(key(x, y)));
+    }
+  }
+
+  @Test
+  public void corridorCoversTheBufferAcrossTheLine() {
+    final int zoom = 14;
+    // A horizontal line along the middle of tile row y, buffered by more than half a tile.
+    final double y = 7000.5;
+    final double latitude = OfflineGeometryCover.unprojectY(y, zoom);
+    final double[] line = {
+      OfflineGeometryCover.unprojectX(9000.5, zoom),
+      latitude,
+      OfflineGeometryCover.unprojectX(9010.5, zoom),
+      latitude
+    };
+    final double tileMeters =
+        40075016.686 / Math.pow(2, zoom) * Math.cos(Math.toRadians(latitude));
+    final OfflineGeometryCover.Cover cover =
+        OfflineGeometryCover.corridor(Collections.singletonList(line), tileMeters * 0.75, zoom);
+
+    final Set<Long> tiles = tiles(cover);
+    for (long x = 9000; x <= 9010; x++) {
+      assertTrue(tiles.contains(key(x, 6999)));
+      assertTrue(tiles.contains(key(x, 7000)));
+      assertTrue(tiles.contains(key(x, 7001)));
+    }
+    assertFalse(tiles.contains(key(9005, 6998)));
+    assertFalse(tiles.contains(key(9005, 7002)));
+  }
+
+  @Test
+  public void rectanglesCoverExactlyTheCover() {
+    final int zoom = 5;
+    final List<double[]> rings =
+        Arrays.asList(tileRing(10, 10, 20, 20, INSET, zoom), tileRing(12, 12, 18, 18, 0.5, zoom));
+    final OfflineGeometryCover.Cover cover =
+        OfflineGeometryCover.polygons(Collections.singletonList(rings), zoom);
+
+    final Set<Long> fromRectangles = new HashSet<>();
+    for (double[] rectangle : cover.rectangles()) {
+      final double[] ring = {
+        rectangle[0], rectangle[1],
+        rectangle[2], rectangle[1],
+        rectangle[2], rectangle[3],
+        rectangle[0], rectangle[3]
+      };
+      fromRectangles.addAll(tiles(OfflineGeometryCover.polygons(polygon(ring), zoom)));
+    }
+    assertEquals(tiles(cover), fromRectangles);
+  }
+
+  @Test
+  public void sharedTilesMatchTheTileSets() {
+    final int zoom = 12;
+    final double[] first = {105.80, 21.00, 105.95, 20.85};
+    final double[] second = {105.80, 20.85, 105.95, 21.00};
+    final OfflineGeometryCover.Cover a =
+        OfflineGeometryCover.corridor(Collections.singletonList(first), 300, zoom);
+    final OfflineGeometryCover.Cover b =
+        OfflineGeometryCover.corridor(Collections.singletonList(second), 300, zoom);
+
+    final Set<Long> shared = tiles(a);
+    shared.retainAll(tiles(b));
+    assertTrue(shared.size() > 0);
+    assertEquals(shared.size(), a.sharedTileCount(b));
+    assertEquals(shared.size(), b.sharedTileCount(a));
+    assertEquals(a.tileCount(), a.sharedTileCount(a));
+
+    // The crossing corridors meet in the middle of the first one's tiles.
+    final long minX = a.starts[a.rows.length / 2] - 1;
+    final long maxX = a.ends[a.rows.length / 2] + 1;
+    final long minY = a.rows[a.rows.length / 2] - 1;
+    final long maxY = a.rows[a.rows.length / 2] + 1;
+    final Set<Long> window = tiles(minX, minY, maxX + 1, maxY + 1);
+    window.retainAll(tiles(a));
+    assertEquals(window.size(), a.tileCount(minX, maxX, minY, maxY));
+  }
+
+  /** Returns the ring around tiles {@code [minX, maxX) x [minY, maxY)}, inset by {@code inset}. */
+  private static double[] tileRing(
+      double minX, double minY, double maxX, double maxY, double inset, int zoom) {
+    final double west = OfflineGeometryCover.unprojectX(minX + inset, zoom);
+    final double east = OfflineGeometryCover.unprojectX(maxX - inset, zoom);
+    final double north = OfflineGeometryCover.unprojectY(minY + inset, zoom);
+    final double south = OfflineGeometryCover.unprojectY(maxY - inset, zoom);
+    return new double[] {west, north, east, north, east, south, west, south};
+  }
+
+  private static List<List<double[]>> polygon(double[] ring) {
+    return Collections.singletonList(Collections.singletonList(ring));
+  }
+
+  /** Returns the tiles {@code [minX, maxX) x [minY, maxY)}. */
+  private static Set<Long> tiles(long minX, long minY, long maxX, long maxY) {
+    final Set<Long> tiles = new HashSet<>();
+    for (long y = minY; y < maxY; y++) {
+      for (long x = minX; x < maxX; x++) {
+        tiles.add(key(x, y));
+      }
+    }
+    return tiles;
+  }
+
+  private static Set<Long> tiles(OfflineGeometryCover.Cover cover) {
+    final List<Long> tiles = new ArrayList<>();
+    for (int i = 0; i < cover.rows.length; i++) {
+      for (long x = cover.starts[i]; x <= cover.ends[i]; x++) {
+        tiles.add(key(x, cover.rows[i]));
+      }
+    }
+    final Set<Long> unique = new HashSet<>(tiles);
+    assertEquals("The runs overlap", tiles.size(), unique.size());
+    return unique;
+  }
+
+  private static long key(long x, long y) {
+    return (y << 32) | x;
+  }
+}
@@ -0,0 +1,211 @@
+package com.trackasia.trackasiagl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.net.ssl.SSLSocketFactory;
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.tls.HandshakeCertificates;
+import okhttp3.tls.HeldCertificate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Cold-start connection reuse of the shared client, against a local HTTPS server. */
+public class TrackAsiaHttpClientFactoryTest {
+  private static final int CALLS = 6;
+
+  private final MockWebServer server = new MockWebServer();
+  private HandshakeCertificates clientCertificates;
+  // One factory, as connections are only shared by clients with the same one.
+  private SSLSocketFactory sslSocketFactory;
+  private File cacheDir;
+  private Context context;
+
+  @Before
+  public void setUp() throws IOException {
+    final HeldCertificate localhost =
+        new HeldCertificate.Builder().addSubjectAlternativeName("localhost").build();
+    final HandshakeCertificates serverCertificates =
+        new HandshakeCertificates.Builder().heldCertificate(localhost).build();
+    clientCertificates =
+        new HandshakeCertificates.Builder()
+            .addTrustedCertificate(localhost.certificate())
+            .build();
+    sslSocketFactory = clientCertificates.sslSocketFactory();
+    server.useHttps(serverCertificates.sslSocketFactory(), false);
+    server.setProtocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1));
+    server.start();
+
+    cacheDir = Files.createTempDirectory("trackasia_gl_http_test").toFile();
+    context =
+        new ContextWrapper(null) {
+          @Override
+          public Context getApplicationContext() {
+            return this;
+          }
+
+          @Override
+          public File getCacheDir() {
+            return cacheDir;
+          }
+        };
+    configure(true, 0);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    server.shutdown();
+    configure(true, TrackAsiaHttpClientFactory.DEFAULT_CACHE_SIZE);
+  }
+
+  @Test
+  public void clientsDerivedFromTheSharedOneReuseItsConnection() throws IOException {
+    final ConnectionCounter counter = new ConnectionCounter();
+    final OkHttpClient shared = TrackAsiaHttpClientFactory.client(context);
+    // Like the clients of the map SDK and of navigation.
+    final OkHttpClient map = trusting(shared.newBuilder(), counter).build();
+    final OkHttpClient navigation = trusting(shared.newBuilder(), counter).build();
+
+    for (int i = 0; i < CALLS; i++) {
+      get(i % 2 == 0 ? map : navigation);
+    }
+
+    assertEquals(1, counter.connects.get());
+    assertEquals(1, counter.handshakes.get());
+  }
+
+  @Test
+  public void independentClientsHandshakeEach() throws IOException {
+    final ConnectionCounter counter = new ConnectionCounter();
+    for (int i = 0; i < CALLS; i++) {
+      get(trusting(new OkHttpClient.Builder(), counter).build());
+    }
+
+    assertEquals(CALLS, counter.connects.get());
+    assertEquals(CALLS, counter.handshakes.get());
+  }
+
+  @Test
+  public void http2CanBeTurnedOff() throws IOException {
+    final ConnectionCounter counter = new ConnectionCounter();
+    assertEquals(
+        Protocol.HTTP_2,
+        get(trusting(TrackAsiaHttpClientFactory.client(context).newBuilder(), counter).build()));
+
+    configure(false, 0);
+    assertEquals(
+        Protocol.HTTP_1_1,
+        get(trusting(TrackAsiaHttpClientFactory.client(context).newBuilder(), counter).build()));
+  }
+
+  @Test
+  public void cacheOfReplacedClientOutlivesItsCalls() throws Exception {
+    configure(true, 1024 * 1024);
+    final OkHttpClient previous =
+        trusting(TrackAsiaHttpClientFactory.client(context).newBuilder(), new ConnectionCounter())
+            .build();
+    final File previousDirectory = previous.cache().directory();
+    final CountDownLatch responding = new CountDownLatch(1);
+    final CountDownLatch resized = new CountDownLatch(1);
+    server.setDispatcher(
+        new Dispatcher() {
+          @Override
+          public MockResponse dispatch(RecordedRequest request)
+              throws InterruptedException {
+            responding.countDown();
+            resized.await(5, TimeUnit.SECONDS);
+            return new MockResponse().setHeader("Cache-Control", "max-age=60").setBody("style");
+          }
+        });
+    final Call call =
+        previous.newCall(new Request.Builder().url(server.url("/style.json")).build());
+    final String[] body = new String[1];
+    final Thread thread =
+        new Thread(
+            () -> {
+              try (Response response = call.execute()) {
+                body[0] = response.body().string();
+              } catch (IOException e) {
+                body[0] = e.toString();
+              }
+            });
+    thread.start();
+    assertTrue(responding.await(5, TimeUnit.SECONDS));
+
+    configure(true, 2 * 1024 * 1024);
+    final File directory = TrackAsiaHttpClientFactory.client(context).cache().directory();
+    resized.countDown();
+    thread.join(5000);
+
+    assertEquals("style", body[0]);
+    assertNotEquals(previousDirectory, directory);
+    // Deleted once the dispatcher of the previous client is idle.
+    final long deadline = System.currentTimeMillis() + 5000;
+    while (previousDirectory.exists() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(20);
+    }
+    assertFalse(previousDirectory.exists());
+  }
+
+  private void configure(boolean http2, long cacheSize) {
+    TrackAsiaHttpClientFactory.configure(
+        TrackAsiaHttpClientFactory.DEFAULT_MAX_IDLE_CONNECTIONS,
+        TrackAsiaHttpClientFactory.DEFAULT_MAX_REQUESTS,
+        TrackAsiaHttpClientFactory.DEFAULT_MAX_REQUESTS_PER_HOST,
+        http2,
+        cacheSize);
+  }
+
+  private OkHttpClient.Builder trusting(OkHttpClient.Builder builder, EventListener listener) {
+    return builder
+        .sslSocketFactory(sslSocketFactory, clientCertificates.trustManager())
+        .eventListener(listener);
+  }
+
+  private Protocol get(OkHttpClient client) throws IOException {
+    server.enqueue(new MockResponse().setBody("{}"));
+    try (Response response =
+        client.newCall(new Request.Builder().url(server.url("/tiles.json")).build()).execute()) {
+      assertEquals("{}", response.body().string());
+      return response.protocol();
+    }
+  }
+
+  private static final class ConnectionCounter extends EventListener {
+    final AtomicInteger connects = new AtomicInteger();
+    final AtomicInteger handshakes = new AtomicInteger();
+
+    @Override
+    public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+      connects.incrementAndGet();
+    }
+
+    @Override
+    public void secureConnectStart(Call call) {
+      handshakes.incrementAndGet();
+    }
+  }
+}
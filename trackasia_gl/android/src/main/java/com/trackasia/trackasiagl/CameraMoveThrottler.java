@@ -0,0 +1,185 @@
+package com.trackasia.trackasiagl;
+
+import android.os.SystemClock;
+import android.view.Choreographer;
+import com.trackasia.android.camera.CameraPosition;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decides which camera moves are forwarded to Dart as {@code camera#onMove} events.
+ *
+ * <p>Moves reported within the same frame are coalesced into one event when frame coalescing is
+ * enabled. An event is dropped if it arrives sooner than the configured maximum rate allows or if
+ * the camera moved less than all configured deltas since the last event that was sent. The final
+ * position of a move is always delivered by {@code camera#onIdle}, so dropped events never leave
+ * Dart with a stale camera.
+ *
+ * <p>Events are sent as a {@code double[]} of {@code [lat, lng, zoom, bearing, tilt]}. The array is
+ * reused, which is safe because the method channel encodes the arguments synchronously.
+ */
+final class CameraMoveThrottler {
+  /** Receives the camera moves that passed the filter. */
+  interface Sink {
+    CameraPosition getCameraPosition();
+
+    void onCameraMove(double[] position);
+  }
+
+  // Width of the world in density independent pixels at zoom 0.
+  private static final double WORLD_SIZE = 512;
+
+  private final Sink sink;
+  private final double[] payload = new double[5];
+  private final double[] lastSent = new double[5];
+  private boolean hasLastSent = false;
+
+  private long minIntervalMillis = 0;
+  private double minZoomDelta = 0;
+  private double minBearingDelta = 0;
+  private double minTargetDeltaPixels = 0;
+  private boolean coalesceToFrame = true;
+
+  private long lastSentMillis = 0;
+  private long sentCount = 0;
+  private long droppedCount = 0;
+  private boolean frameScheduled = false;
+
+  private final Choreographer.FrameCallback frameCallback =
+      new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+          frameScheduled = false;
+          dispatch();
+        }
+      };
+
+  CameraMoveThrottler(Sink sink) {
+    this.sink = sink;
+  }
+
+  /**
+   * Applies the event options sent from Dart. {@code maxEventsPerSecond} of 0 disables the rate
+   * limit, deltas of 0 forward every change. Tilt changes are always forwarded.
+   */
+  void setOptions(
+      int maxEventsPerSecond,
+      double minZoomDelta,
+      double minBearingDelta,
+      double minTargetDeltaPixels,
+      boolean coalesceToFrame) {
+    this.minIntervalMillis = maxEventsPerSecond > 0 ? 1000 / maxEventsPerSecond : 0;
+    this.minZoomDelta = minZoomDelta;
+    this.minBearingDelta = minBearingDelta;
+    this.minTargetDeltaPixels = minTargetDeltaPixels;
+    this.coalesceToFrame = coalesceToFrame;
+    if (!coalesceToFrame) {
+      cancel();
+    }
+  }
+
+  /** Called for every camera move reported by the map. */
+  void onCameraMove() {
+    if (!coalesceToFrame) {
+      dispatch();
+      return;
+    }
+    if (frameScheduled) {
+      droppedCount++;
+      return;
+    }
+    frameScheduled = true;
+    Choreographer.getInstance().postFrameCallback(frameCallback);
+  }
+
+  /** Called when the camera came to rest; the idle event carries the final position. */
+  void onCameraIdle(CameraPosition position) {
+    cancel();
+    if (position != null) {
+      write(position, lastSent);
+      hasLastSent = true;
+    }
+  }
+
+  void cancel() {
+    if (frameScheduled) {
+      frameScheduled = false;
+      Choreographer.getInstance().removeFrameCallback(frameCallback);
+    }
+  }
+
+  Map<String, Object> getStats() {
+    final Map<String, Object> stats = new HashMap<>(2);
+    stats.put("sent", sentCount);
+    stats.put("dropped", droppedCount);
+    return stats;
+  }
+
+  void resetStats() {
+    sentCount = 0;
+    droppedCount = 0;
+  }
+
+  private void dispatch() {
+    final long now = SystemClock.uptimeMillis();
+    if (minIntervalMillis > 0 && now - lastSentMillis < minIntervalMillis) {
+      droppedCount++;
+      return;
+    }
+    final CameraPosition position = sink.getCameraPosition();
+    if (position == null || position.target == null) {
+      return;
+    }
+    write(position, payload);
+    if (hasLastSent && !movedEnough()) {
+      droppedCount++;
+      return;
+    }
+    System.arraycopy(payload, 0, lastSent, 0, payload.length);
+    hasLastSent = true;
+    lastSentMillis = now;
+    sentCount++;
+    sink.onCameraMove(payload);
+  }
+
+  private boolean movedEnough() {
+    final double zoomDelta = Math.abs(payload[2] - lastSent[2]);
+    final double bearingDelta = Math.abs(payload[3] - lastSent[3]);
+    final double tiltDelta = Math.abs(payload[4] - lastSent[4]);
+    if (zoomDelta == 0
+        && bearingDelta == 0
+        && tiltDelta == 0
+        && payload[0] == lastSent[0]
+        && payload[1] == lastSent[1]) {
+      return false;
+    }
+    if (minZoomDelta <= 0 && minBearingDelta <= 0 && minTargetDeltaPixels <= 0) {
+      return true;
+    }
+    return (minZoomDelta > 0 && zoomDelta >= minZoomDelta)
+        || (minBearingDelta > 0 && Math.min(bearingDelta, 360 - bearingDelta) >= minBearingDelta)
+        || (minTargetDeltaPixels > 0 && targetDeltaPixels() >= minTargetDeltaPixels)
+        || tiltDelta > 0;
+  }
+
+  /** Distance between the current and the last sent target in pixels at the current zoom. */
+  private double targetDeltaPixels() {
+    final double worldSize = WORLD_SIZE * Math.pow(2, payload[2]);
+    final double dx = (payload[1] - lastSent[1]) / 360 * worldSize;
+    final double dy = (mercatorY(payload[0]) - mercatorY(lastSent[0])) * worldSize;
+    return Math.sqrt(dx * dx + dy * dy);
+  }
+
+  private static double mercatorY(double lat) {
+    final double sin = Math.sin(Math.toRadians(lat));
+    return 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+  }
+
+  private static void write(CameraPosition position, double[] target) {
+    target[0] = position.target.getLatitude();
+    target[1] = position.target.getLongitude();
+    target[2] = position.zoom;
+    target[3] = position.bearing;
+    target[4] = position.tilt;
+  }
+}
@@ -0,0 +1,107 @@
+package com.trackasia.trackasiagl;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.trackasia.android.style.expressions.Expression;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache from the raw JSON of a layer property or filter to its parsed and converted
+ * form. It is shared by all map controllers, so data-driven styles that re-send the same
+ * expressions skip the JSON parse and the expression conversion.
+ *
+ * <p>Cached values are never mutated after they have been created.
+ */
+final class ExpressionCache {
+  private static final int MAX_ENTRIES = 256;
+
+  private static final LinkedHashMap<String, Entry> entries =
+      new LinkedHashMap<String, Entry>(MAX_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+          return size() > MAX_ENTRIES;
+        }
+      };
+  private static long hits = 0;
+  private static long misses = 0;
+
+  private ExpressionCache() {}
+
+  /** The parsed forms of one raw JSON value. */
+  static final class Entry {
+    final JsonElement jsonElement;
+    final Expression expression;
+    private final Float[] floatArray;
+
+    private Entry(JsonElement jsonElement) {
+      this.jsonElement = jsonElement;
+      this.expression = Expression.Converter.convert(jsonElement);
+      this.floatArray = jsonElement.isJsonArray() ? convertJsonToFloatArray(jsonElement) : null;
+    }
+
+    /** The value as a literal float array, or null if it is not an array of numbers. */
+    Float[] floatArray() {
+      return floatArray;
+    }
+
+    /** The value as a literal string, or null if it is not a JSON string. */
+    String stringLiteral() {
+      return jsonElement.isJsonPrimitive() && jsonElement.getAsJsonPrimitive().isString()
+          ? jsonElement.getAsString()
+          : null;
+    }
+  }
+
+  static Entry get(String json) {
+    synchronized (entries) {
+      final Entry entry = entries.get(json);
+      if (entry != null) {
+        hits++;
+        return entry;
+      }
+      misses++;
+    }
+    // Parse outside of the lock, a concurrent miss for the same key only costs a duplicate parse.
+    final Entry entry = new Entry(new JsonParser().parse(json));
+    synchronized (entries) {
+      entries.put(json, entry);
+    }
+    return entry;
+  }
+
+  static Map<String, Object> getStats() {
+    final Map<String, Object> stats = new HashMap<>(4);
+    synchronized (entries) {
+      stats.put("hits", hits);
+      stats.put("misses", misses);
+      stats.put("size", entries.size());
+      stats.put("maxSize", MAX_ENTRIES);
+    }
+    return stats;
+  }
+
+  static void clear() {
+    synchronized (entries) {
+      entries.clear();
+      hits = 0;
+      misses = 0;
+    }
+  }
+
+  private static Float[] convertJsonToFloatArray(JsonElement jsonElement) {
+    final JsonArray jsonArray = jsonElement.getAsJsonArray();
+    Float[] floatArray = new Float[jsonArray.size()];
+
+    for (int i = 0; i < jsonArray.size(); i++) {
+      if (jsonArray.get(i).isJsonPrimitive() && jsonArray.get(i).getAsJsonPrimitive().isNumber()) {
+        floatArray[i] = jsonArray.get(i).getAsFloat();
+      } else {
+        return null;
+      }
+    }
+    return floatArray;
+  }
+}
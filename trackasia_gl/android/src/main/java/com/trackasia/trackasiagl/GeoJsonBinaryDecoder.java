@@ -0,0 +1,134 @@
+package com.trackasia.trackasiagl;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.trackasia.geojson.Feature;
+import com.trackasia.geojson.FeatureCollection;
+import com.trackasia.geojson.Geometry;
+import com.trackasia.geojson.LineString;
+import com.trackasia.geojson.MultiLineString;
+import com.trackasia.geojson.MultiPoint;
+import com.trackasia.geojson.MultiPolygon;
+import com.trackasia.geojson.Point;
+import com.trackasia.geojson.Polygon;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes the columnar GeoJSON layout produced by {@code encodeGeoJsonBinary} on the Dart side
+ * directly into {@link Feature} objects, skipping the JSON round trip of {@link
+ * FeatureCollection#fromJson(String)}.
+ */
+final class GeoJsonBinaryDecoder {
+  private static final int GEOMETRY_NONE = 0;
+  private static final int GEOMETRY_POINT = 1;
+  private static final int GEOMETRY_LINE_STRING = 2;
+  private static final int GEOMETRY_POLYGON = 3;
+  private static final int GEOMETRY_MULTI_POINT = 4;
+  private static final int GEOMETRY_MULTI_LINE_STRING = 5;
+  private static final int GEOMETRY_MULTI_POLYGON = 6;
+
+  private final byte[] types;
+  private final int[] structure;
+  private final double[] coordinates;
+  private int structureIndex;
+  private int coordinateIndex;
+
+  private GeoJsonBinaryDecoder(byte[] types, int[] structure, double[] coordinates) {
+    this.types = types;
+    this.structure = structure;
+    this.coordinates = coordinates;
+  }
+
+  static FeatureCollection decode(Map<?, ?> data) {
+    final byte[] types = (byte[]) data.get("types");
+    final List<?> ids = Convert.toList(data.get("ids"));
+    final List<?> keys = Convert.toList(data.get("keys"));
+    final List<?> properties = Convert.toList(data.get("properties"));
+    final GeoJsonBinaryDecoder decoder =
+        new GeoJsonBinaryDecoder(
+            types, (int[]) data.get("structure"), (double[]) data.get("coordinates"));
+    final Gson gson = new Gson();
+
+    final List<Feature> features = new ArrayList<>(types.length);
+    for (int i = 0; i < types.length; i++) {
+      final Geometry geometry = decoder.readGeometry(types[i]);
+      final JsonObject featureProperties = new JsonObject();
+      final List<?> flat = Convert.toList(properties.get(i));
+      for (int j = 0; j + 1 < flat.size(); j += 2) {
+        final String key = Convert.toString(keys.get(Convert.toInt(flat.get(j))));
+        addProperty(featureProperties, gson, key, flat.get(j + 1));
+      }
+      final Object id = ids.get(i);
+      features.add(
+          Feature.fromGeometry(geometry, featureProperties, id == null ? null : id.toString()));
+    }
+    return FeatureCollection.fromFeatures(features);
+  }
+
+  private static void addProperty(JsonObject target, Gson gson, String key, Object value) {
+    if (value == null) {
+      target.add(key, JsonNull.INSTANCE);
+    } else if (value instanceof String) {
+      target.addProperty(key, (String) value);
+    } else if (value instanceof Number) {
+      target.addProperty(key, (Number) value);
+    } else if (value instanceof Boolean) {
+      target.addProperty(key, (Boolean) value);
+    } else {
+      target.add(key, gson.toJsonTree(value));
+    }
+  }
+
+  private Geometry readGeometry(int type) {
+    switch (type) {
+      case GEOMETRY_NONE:
+        return null;
+      case GEOMETRY_POINT:
+        return readPoint();
+      case GEOMETRY_LINE_STRING:
+        return LineString.fromLngLats(readPoints());
+      case GEOMETRY_MULTI_POINT:
+        return MultiPoint.fromLngLats(readPoints());
+      case GEOMETRY_POLYGON:
+        return Polygon.fromLngLats(readRings());
+      case GEOMETRY_MULTI_LINE_STRING:
+        return MultiLineString.fromLngLats(readRings());
+      case GEOMETRY_MULTI_POLYGON:
+        final int polygonCount = structure[structureIndex++];
+        final List<List<List<Point>>> polygons = new ArrayList<>(polygonCount);
+        for (int i = 0; i < polygonCount; i++) {
+          polygons.add(readRings());
+        }
+        return MultiPolygon.fromLngLats(polygons);
+      default:
+        throw new IllegalArgumentException("Unknown binary geometry type " + type);
+    }
+  }
+
+  private Point readPoint() {
+    final double lng = coordinates[coordinateIndex++];
+    final double lat = coordinates[coordinateIndex++];
+    return Point.fromLngLat(lng, lat);
+  }
+
+  private List<Point> readPoints() {
+    final int count = structure[structureIndex++];
+    final List<Point> points = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      points.add(readPoint());
+    }
+    return points;
+  }
+
+  private List<List<Point>> readRings() {
+    final int count = structure[structureIndex++];
+    final List<List<Point>> rings = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      rings.add(readPoints());
+    }
+    return rings;
+  }
+}
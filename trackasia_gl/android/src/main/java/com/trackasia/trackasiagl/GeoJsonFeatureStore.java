@@ -0,0 +1,129 @@
+package com.trackasia.trackasiagl;
+
+import com.trackasia.geojson.Feature;
+import com.trackasia.geojson.FeatureCollection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The features last pushed to a GeoJSON source, indexed by feature id so that single features can
+ * be added, replaced or removed without scanning the whole collection.
+ *
+ * <p>Removals leave a hole that is compacted the next time the collection is uploaded, which keeps
+ * the draw order of the remaining features stable.
+ *
+ * <p>A {@link GeoJsonSpatialIndex} over the features is built on the first spatial query and kept
+ * up to date incrementally afterwards.
+ */
+final class GeoJsonFeatureStore {
+  private final List<Feature> features;
+  private final Map<String, Integer> indexById;
+  private int removedCount = 0;
+  private GeoJsonSpatialIndex spatialIndex;
+
+  GeoJsonFeatureStore(FeatureCollection featureCollection) {
+    final List<Feature> source = featureCollection.features();
+    this.features = source != null ? new ArrayList<>(source) : new ArrayList<>();
+    this.indexById = new HashMap<>(features.size() * 2);
+    reindex();
+  }
+
+  /** Adds the feature, replacing an existing feature with the same id. */
+  void add(Feature feature) {
+    final String id = feature.id();
+    final Integer index = id != null ? indexById.get(id) : null;
+    if (index != null) {
+      replaceInIndex(features.set(index, feature), feature);
+      return;
+    }
+    replaceInIndex(null, feature);
+    features.add(feature);
+    if (id != null) {
+      indexById.put(id, features.size() - 1);
+    }
+  }
+
+  /** Replaces the feature with the same id. Returns false if there is no such feature. */
+  boolean update(Feature feature) {
+    final String id = feature.id();
+    final Integer index = id != null ? indexById.get(id) : null;
+    if (index == null) {
+      return false;
+    }
+    replaceInIndex(features.set(index, feature), feature);
+    return true;
+  }
+
+  /** Removes the feature with the given id. Returns false if there is no such feature. */
+  boolean remove(String id) {
+    final Integer index = indexById.remove(id);
+    if (index == null) {
+      return false;
+    }
+    replaceInIndex(features.set(index, null), null);
+    removedCount++;
+    return true;
+  }
+
+  Feature get(String id) {
+    final Integer index = indexById.get(id);
+    return index != null ? features.get(index) : null;
+  }
+
+  List<Feature> features() {
+    compact();
+    return features;
+  }
+
+  FeatureCollection toFeatureCollection() {
+    return FeatureCollection.fromFeatures(new ArrayList<>(features()));
+  }
+
+  /** Returns the spatial index over the features, building or rebuilding it if needed. */
+  GeoJsonSpatialIndex spatialIndex() {
+    if (spatialIndex == null || spatialIndex.needsRebuild()) {
+      spatialIndex = GeoJsonSpatialIndex.build(features());
+    }
+    return spatialIndex;
+  }
+
+  private void replaceInIndex(Feature oldFeature, Feature newFeature) {
+    if (spatialIndex == null) {
+      return;
+    }
+    if (oldFeature != null) {
+      spatialIndex.remove(oldFeature);
+    }
+    if (newFeature != null) {
+      spatialIndex.insert(newFeature);
+    }
+  }
+
+  private void compact() {
+    if (removedCount == 0) {
+      return;
+    }
+    int write = 0;
+    for (int read = 0; read < features.size(); read++) {
+      final Feature feature = features.get(read);
+      if (feature != null) {
+        features.set(write++, feature);
+      }
+    }
+    features.subList(write, features.size()).clear();
+    removedCount = 0;
+    reindex();
+  }
+
+  private void reindex() {
+    indexById.clear();
+    for (int i = 0; i < features.size(); i++) {
+      final String id = features.get(i).id();
+      if (id != null) {
+        indexById.put(id, i);
+      }
+    }
+  }
+}
@@ -0,0 +1,499 @@
+package com.trackasia.trackasiagl;
+
+import com.trackasia.geojson.Feature;
+import com.trackasia.geojson.Geometry;
+import com.trackasia.geojson.GeometryCollection;
+import com.trackasia.geojson.LineString;
+import com.trackasia.geojson.MultiLineString;
+import com.trackasia.geojson.MultiPoint;
+import com.trackasia.geojson.MultiPolygon;
+import com.trackasia.geojson.Point;
+import com.trackasia.geojson.Polygon;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Packed Hilbert R-tree over the bounding boxes of the features of a GeoJSON source.
+ *
+ * <p>The tree is built once from a snapshot of the features and never modified. Features added or
+ * replaced afterwards go to an overflow list that is scanned linearly, and removed or replaced
+ * features are skipped by identity. {@link #needsRebuild()} tells the owner when the overflow has
+ * grown large enough that rebuilding is cheaper than scanning it.
+ *
+ * <p>Coordinates are longitude and latitude. Features crossing the antimeridian are indexed by the
+ * box spanning their minimum and maximum longitude. Nearest-neighbour distances use an
+ * equirectangular projection around the query point, which is accurate at the distances a tap or a
+ * nearby lookup covers.
+ */
+final class GeoJsonSpatialIndex {
+  private static final int NODE_SIZE = 16;
+  private static final int MIN_OVERFLOW_BEFORE_REBUILD = 64;
+  private static final int HILBERT_MAX = (1 << 15) - 1;
+  private static final double METERS_PER_DEGREE = 6371008.8 * Math.PI / 180;
+
+  private final Feature[] items;
+  private final double[] boxes;
+  private final int[] indices;
+  private final int[] levelBounds;
+
+  private final List<Feature> overflow = new ArrayList<>();
+  private final List<double[]> overflowBoxes = new ArrayList<>();
+  private final Set<Feature> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+
+  private GeoJsonSpatialIndex(Feature[] items, double[] boxes, int[] indices, int[] levelBounds) {
+    this.items = items;
+    this.boxes = boxes;
+    this.indices = indices;
+    this.levelBounds = levelBounds;
+  }
+
+  static GeoJsonSpatialIndex build(List<Feature> features) {
+    final List<Feature> indexed = new ArrayList<>(features.size());
+    final List<double[]> itemBoxes = new ArrayList<>(features.size());
+    for (Feature feature : features) {
+      final double[] box = feature != null ? bounds(feature.geometry()) : null;
+      if (box != null) {
+        indexed.add(feature);
+        itemBoxes.add(box);
+      }
+    }
+    final int numItems = indexed.size();
+    if (numItems == 0) {
+      return new GeoJsonSpatialIndex(new Feature[0], new double[0], new int[0], new int[0]);
+    }
+
+    final List<Integer> bounds = new ArrayList<>();
+    int count = numItems;
+    int numNodes = numItems;
+    bounds.add(numNodes);
+    do {
+      count = (count + NODE_SIZE - 1) / NODE_SIZE;
+      numNodes += count;
+      bounds.add(numNodes);
+    } while (count != 1);
+
+    double minX = Double.POSITIVE_INFINITY;
+    double minY = Double.POSITIVE_INFINITY;
+    double maxX = Double.NEGATIVE_INFINITY;
+    double maxY = Double.NEGATIVE_INFINITY;
+    for (double[] box : itemBoxes) {
+      minX = Math.min(minX, box[0]);
+      minY = Math.min(minY, box[1]);
+      maxX = Math.max(maxX, box[2]);
+      maxY = Math.max(maxY, box[3]);
+    }
+    final double width = maxX - minX > 0 ? maxX - minX : 1;
+    final double height = maxY - minY > 0 ? maxY - minY : 1;
+
+    // Sort the items along the Hilbert curve through their centers, packing value and index.
+    final long[] order = new long[numItems];
+    for (int i = 0; i < numItems; i++) {
+      final double[] box = itemBoxes.get(i);
+      final int x = (int) (HILBERT_MAX * ((box[0] + box[2]) / 2 - minX) / width);
+      final int y = (int) (HILBERT_MAX * ((box[1] + box[3]) / 2 - minY) / height);
+      order[i] = (hilbert(x, y) << 32) | i;
+    }
+    Arrays.sort(order);
+
+    final Feature[] items = new Feature[numItems];
+    final double[] boxes = new double[numNodes * 4];
+    final int[] indices = new int[numNodes];
+    for (int pos = 0; pos < numItems; pos++) {
+      final int item = (int) order[pos];
+      items[pos] = indexed.get(item);
+      System.arraycopy(itemBoxes.get(item), 0, boxes, pos * 4, 4);
+      indices[pos] = pos;
+    }
+
+    // Build each level from the one below, every parent covering up to NODE_SIZE children.
+    int pos = 0;
+    int write = numItems;
+    for (int level = 0; level < bounds.size() - 1; level++) {
+      final int end = bounds.get(level);
+      while (pos < end) {
+        final int childStart = pos;
+        double nodeMinX = Double.POSITIVE_INFINITY;
+        double nodeMinY = Double.POSITIVE_INFINITY;
+        double nodeMaxX = Double.NEGATIVE_INFINITY;
+        double nodeMaxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < NODE_SIZE && pos < end; i++, pos++) {
+          nodeMinX = Math.min(nodeMinX, boxes[pos * 4]);
+          nodeMinY = Math.min(nodeMinY, boxes[pos * 4 + 1]);
+          nodeMaxX = Math.max(nodeMaxX, boxes[pos * 4 + 2]);
+          nodeMaxY = Math.max(nodeMaxY, boxes[pos * 4 + 3]);
+        }
+        boxes[write * 4] = nodeMinX;
+        boxes[write * 4 + 1] = nodeMinY;
+        boxes[write * 4 + 2] = nodeMaxX;
+        boxes[write * 4 + 3] = nodeMaxY;
+        indices[write] = childStart;
+        write++;
+      }
+    }
+
+    final int[] levelBounds = new int[bounds.size()];
+    for (int i = 0; i < levelBounds.length; i++) {
+      levelBounds[i] = bounds.get(i);
+    }
+    return new GeoJsonSpatialIndex(items, boxes, indices, levelBounds);
+  }
+
+  /** Makes {@code feature} findable. Call {@link #remove(Feature)} for the feature it replaces. */
+  void insert(Feature feature) {
+    final double[] box = bounds(feature.geometry());
+    if (box != null) {
+      overflow.add(feature);
+      overflowBoxes.add(box);
+    }
+  }
+
+  void remove(Feature feature) {
+    removed.add(feature);
+  }
+
+  boolean needsRebuild() {
+    final int pending = overflow.size() + removed.size();
+    return pending > Math.max(MIN_OVERFLOW_BEFORE_REBUILD, items.length / 4);
+  }
+
+  /**
+   * Returns up to {@code limit} features whose bounding box intersects the given box. A box whose
+   * west is east of its east crosses the antimeridian.
+   */
+  List<Feature> queryBBox(double west, double south, double east, double north, int limit) {
+    if (west > east) {
+      final List<Feature> result = queryBBox(west, south, 180, north, limit);
+      if (result.size() < limit) {
+        // A feature spanning the whole longitude range is found on both sides.
+        final Set<Feature> found = Collections.newSetFromMap(new IdentityHashMap<>());
+        found.addAll(result);
+        for (Feature feature : queryBBox(-180, south, east, north, limit)) {
+          if (result.size() >= limit) {
+            break;
+          }
+          if (found.add(feature)) {
+            result.add(feature);
+          }
+        }
+      }
+      return result;
+    }
+    final List<Feature> result = new ArrayList<>();
+    if (items.length > 0) {
+      final int[] stack = new int[levelBounds.length * NODE_SIZE];
+      int stackSize = 0;
+      int nodeStart = indices.length - 1;
+      while (true) {
+        final int end = Math.min(nodeStart + NODE_SIZE, upperBound(nodeStart));
+        for (int pos = nodeStart; pos < end; pos++) {
+          if (!intersects(boxes, pos * 4, west, south, east, north)) {
+            continue;
+          }
+          if (nodeStart < items.length) {
+            final Feature feature = items[pos];
+            if (!removed.contains(feature)) {
+              result.add(feature);
+              if (result.size() >= limit) {
+                return result;
+              }
+            }
+          } else {
+            stack[stackSize++] = indices[pos];
+          }
+        }
+        if (stackSize == 0) {
+          break;
+        }
+        nodeStart = stack[--stackSize];
+      }
+    }
+    for (int i = 0; i < overflow.size() && result.size() < limit; i++) {
+      final Feature feature = overflow.get(i);
+      if (!removed.contains(feature)
+          && intersects(overflowBoxes.get(i), 0, west, south, east, north)) {
+        result.add(feature);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns up to {@code limit} features closest to the given point, nearest first, ignoring
+   * features further away than {@code maxDistanceMeters}.
+   */
+  List<Feature> nearest(double lng, double lat, int limit, double maxDistanceMeters) {
+    final double scaleX = Math.cos(Math.toRadians(lat)) * METERS_PER_DEGREE;
+    final PriorityQueue<Candidate> queue = new PriorityQueue<>();
+    if (items.length > 0) {
+      queue.add(new Candidate(0, indices.length - 1, Candidate.NODE, null));
+    }
+    for (int i = 0; i < overflow.size(); i++) {
+      final Feature feature = overflow.get(i);
+      if (!removed.contains(feature)) {
+        final double distance = boxDistance(overflowBoxes.get(i), 0, lng, lat, scaleX);
+        queue.add(new Candidate(distance, -1, Candidate.BOX, feature));
+      }
+    }
+
+    final List<Feature> result = new ArrayList<>();
+    while (!queue.isEmpty() && result.size() < limit) {
+      final Candidate candidate = queue.poll();
+      if (candidate.distance > maxDistanceMeters) {
+        break;
+      }
+      if (candidate.kind == Candidate.EXACT) {
+        result.add(candidate.feature);
+      } else if (candidate.kind == Candidate.BOX) {
+        // The box distance is a lower bound, queue the feature again with its real distance.
+        final double distance =
+            geometryDistance(candidate.feature.geometry(), lng, lat, scaleX);
+        queue.add(new Candidate(distance, -1, Candidate.EXACT, candidate.feature));
+      } else {
+        final int nodeStart = candidate.position;
+        final int end = Math.min(nodeStart + NODE_SIZE, upperBound(nodeStart));
+        for (int pos = nodeStart; pos < end; pos++) {
+          final double distance = boxDistance(boxes, pos * 4, lng, lat, scaleX);
+          if (distance > maxDistanceMeters) {
+            continue;
+          }
+          if (nodeStart < items.length) {
+            if (!removed.contains(items[pos])) {
+              queue.add(new Candidate(distance, pos, Candidate.BOX, items[pos]));
+            }
+          } else {
+            queue.add(new Candidate(distance, indices[pos], Candidate.NODE, null));
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  private int upperBound(int position) {
+    for (int bound : levelBounds) {
+      if (bound > position) {
+        return bound;
+      }
+    }
+    return levelBounds[levelBounds.length - 1];
+  }
+
+  private static final class Candidate implements Comparable<Candidate> {
+    static final int NODE = 0;
+    static final int BOX = 1;
+    static final int EXACT = 2;
+
+    final double distance;
+    final int position;
+    final int kind;
+    final Feature feature;
+
+    Candidate(double distance, int position, int kind, Feature feature) {
+      this.distance = distance;
+      this.position = position;
+      this.kind = kind;
+      this.feature = feature;
+    }
+
+    @Override
+    public int compareTo(Candidate other) {
+      final int byDistance = Double.compare(distance, other.distance);
+      // On ties resolve exact distances first so that results are emitted as early as possible.
+      return byDistance != 0 ? byDistance : Integer.compare(other.kind, kind);
+    }
+  }
+
+  private static boolean intersects(
+      double[] box, int offset, double west, double south, double east, double north) {
+    return box[offset] <= east
+        && box[offset + 1] <= north
+        && box[offset + 2] >= west
+        && box[offset + 3] >= south;
+  }
+
+  private static double boxDistance(
+      double[] box, int offset, double lng, double lat, double scaleX) {
+    final double dx = Math.max(0, Math.max(box[offset] - lng, lng - box[offset + 2])) * scaleX;
+    final double dy =
+        Math.max(0, Math.max(box[offset + 1] - lat, lat - box[offset + 3])) * METERS_PER_DEGREE;
+    return Math.sqrt(dx * dx + dy * dy);
+  }
+
+  private static double geometryDistance(Geometry geometry, double lng, double lat, double scaleX) {
+    if (geometry instanceof Point) {
+      return pointDistance((Point) geometry, lng, lat, scaleX);
+    } else if (geometry instanceof MultiPoint) {
+      double min = Double.POSITIVE_INFINITY;
+      for (Point point : ((MultiPoint) geometry).coordinates()) {
+        min = Math.min(min, pointDistance(point, lng, lat, scaleX));
+      }
+      return min;
+    } else if (geometry instanceof LineString) {
+      return lineDistance(((LineString) geometry).coordinates(), lng, lat, scaleX);
+    } else if (geometry instanceof MultiLineString) {
+      double min = Double.POSITIVE_INFINITY;
+      for (List<Point> line : ((MultiLineString) geometry).coordinates()) {
+        min = Math.min(min, lineDistance(line, lng, lat, scaleX));
+      }
+      return min;
+    } else if (geometry instanceof Polygon) {
+      return polygonDistance(((Polygon) geometry).coordinates(), lng, lat, scaleX);
+    } else if (geometry instanceof MultiPolygon) {
+      double min = Double.POSITIVE_INFINITY;
+      for (List<List<Point>> polygon : ((MultiPolygon) geometry).coordinates()) {
+        min = Math.min(min, polygonDistance(polygon, lng, lat, scaleX));
+      }
+      return min;
+    } else if (geometry instanceof GeometryCollection) {
+      double min = Double.POSITIVE_INFINITY;
+      for (Geometry child : ((GeometryCollection) geometry).geometries()) {
+        min = Math.min(min, geometryDistance(child, lng, lat, scaleX));
+      }
+      return min;
+    }
+    return Double.POSITIVE_INFINITY;
+  }
+
+  private static double pointDistance(Point point, double lng, double lat, double scaleX) {
+    final double dx = (point.longitude() - lng) * scaleX;
+    final double dy = (point.latitude() - lat) * METERS_PER_DEGREE;
+    return Math.sqrt(dx * dx + dy * dy);
+  }
+
+  private static double lineDistance(List<Point> line, double lng, double lat, double scaleX) {
+    if (line.size() == 1) {
+      return pointDistance(line.get(0), lng, lat, scaleX);
+    }
+    double min = Double.POSITIVE_INFINITY;
+    for (int i = 1; i < line.size(); i++) {
+      final Point a = line.get(i - 1);
+      final Point b = line.get(i);
+      final double ax = (a.longitude() - lng) * scaleX;
+      final double ay = (a.latitude() - lat) * METERS_PER_DEGREE;
+      final double bx = (b.longitude() - lng) * scaleX;
+      final double by = (b.latitude() - lat) * METERS_PER_DEGREE;
+      final double abx = bx - ax;
+      final double aby = by - ay;
+      final double lengthSquared = abx * abx + aby * aby;
+      final double t =
+          lengthSquared > 0 ? Math.max(0, Math.min(1, -(ax * abx + ay * aby) / lengthSquared)) : 0;
+      final double x = ax + t * abx;
+      final double y = ay + t * aby;
+      min = Math.min(min, Math.sqrt(x * x + y * y));
+    }
+    return min;
+  }
+
+  private static double polygonDistance(
+      List<List<Point>> rings, double lng, double lat, double scaleX) {
+    if (rings.isEmpty()) {
+      return Double.POSITIVE_INFINITY;
+    }
+    boolean inside = contains(rings.get(0), lng, lat);
+    for (int i = 1; inside && i < rings.size(); i++) {
+      inside = !contains(rings.get(i), lng, lat);
+    }
+    if (inside) {
+      return 0;
+    }
+    double min = Double.POSITIVE_INFINITY;
+    for (List<Point> ring : rings) {
+      min = Math.min(min, lineDistance(ring, lng, lat, scaleX));
+    }
+    return min;
+  }
+
+  private static boolean contains(List<Point> ring, double lng, double lat) {
+    boolean inside = false;
+    for (int i = 0, j = ring.size() - 1; i < ring.size(); j = i++) {
+      final double xi = ring.get(i).longitude();
+      final double yi = ring.get(i).latitude();
+      final double xj = ring.get(j).longitude();
+      final double yj = ring.get(j).latitude();
+      if ((yi > lat) != (yj > lat) && lng < (xj - xi) * (lat - yi) / (yj - yi) + xi) {
+        inside = !inside;
+      }
+    }
+    return inside;
+  }
+
+  /** Returns {@code [west, south, east, north]} of the geometry, or null if it has no points. */
+  static double[] bounds(Geometry geometry) {
+    final double[] box = {
+      Double.POSITIVE_INFINITY,
+      Double.POSITIVE_INFINITY,
+      Double.NEGATIVE_INFINITY,
+      Double.NEGATIVE_INFINITY
+    };
+    extend(box, geometry);
+    return box[0] <= box[2] ? box : null;
+  }
+
+  private static void extend(double[] box, Geometry geometry) {
+    if (geometry instanceof Point) {
+      extend(box, (Point) geometry);
+    } else if (geometry instanceof MultiPoint) {
+      extendPoints(box, ((MultiPoint) geometry).coordinates());
+    } else if (geometry instanceof LineString) {
+      extendPoints(box, ((LineString) geometry).coordinates());
+    } else if (geometry instanceof MultiLineString) {
+      for (List<Point> line : ((MultiLineString) geometry).coordinates()) {
+        extendPoints(box, line);
+      }
+    } else if (geometry instanceof Polygon) {
+      // The outer ring bounds the holes.
+      final List<List<Point>> rings = ((Polygon) geometry).coordinates();
+      if (!rings.isEmpty()) {
+        extendPoints(box, rings.get(0));
+      }
+    } else if (geometry instanceof MultiPolygon) {
+      for (List<List<Point>> polygon : ((MultiPolygon) geometry).coordinates()) {
+        if (!polygon.isEmpty()) {
+          extendPoints(box, polygon.get(0));
+        }
+      }
+    } else if (geometry instanceof GeometryCollection) {
+      for (Geometry child : ((GeometryCollection) geometry).geometries()) {
+        extend(box, child);
+      }
+    }
+  }
+
+  private static void extendPoints(double[] box, List<Point> points) {
+    for (Point point : points) {
+      extend(box, point);
+    }
+  }
+
+  private static void extend(double[] box, Point point) {
+    box[0] = Math.min(box[0], point.longitude());
+    box[1] = Math.min(box[1], point.latitude());
+    box[2] = Math.max(box[2], point.longitude());
+    box[3] = Math.max(box[3], point.latitude());
+  }
+
+  /** Position of {@code (x, y)} along a Hilbert curve filling a 2^15 by 2^15 grid. */
+  private static long hilbert(int x, int y) {
+    long d = 0;
+    for (int s = 1 << 14; s > 0; s >>= 1) {
+      final int rx = (x & s) > 0 ? 1 : 0;
+      final int ry = (y & s) > 0 ? 1 : 0;
+      d += (long) s * s * ((3 * rx) ^ ry);
+      if (ry == 0) {
+        if (rx == 1) {
+          x = HILBERT_MAX - x;
+          y = HILBERT_MAX - y;
+        }
+        final int t = x;
+        x = y;
+        y = t;
+      }
+    }
+    return d;
+  }
+}
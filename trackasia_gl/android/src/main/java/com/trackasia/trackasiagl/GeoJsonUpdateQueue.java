@@ -0,0 +1,219 @@
+package com.trackasia.trackasiagl;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import io.flutter.plugin.common.MethodChannel;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Parses GeoJSON source updates on worker threads and applies them on the main thread.
+ *
+ * <p>Updates of one source are parsed and applied in the order they were submitted. Updates of
+ * different sources run independently. Once an update that replaces the whole source has been
+ * submitted, every older update of that source is dropped without being parsed or applied, since
+ * its result would be overwritten anyway, except the one creating the source, which the update
+ * replacing its data needs. All pending updates of a source that is removed are dropped.
+ */
+final class GeoJsonUpdateQueue {
+  private static final String TAG = "GeoJsonUpdateQueue";
+  private static final int WORKER_THREADS = 2;
+  private static final ExecutorService worker =
+      Executors.newFixedThreadPool(
+          WORKER_THREADS,
+          runnable -> {
+            Thread thread = new Thread(runnable, "trackasia-geojson");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  /** A source update split into the expensive conversion and the cheap main-thread apply. */
+  abstract static class Update {
+    /** Runs on a worker thread. Must not touch the style. */
+    abstract void parse() throws Exception;
+
+    /** Runs on the main thread after {@link #parse()} completed. */
+    abstract void apply();
+  }
+
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  // Entries are removed once a source has no pending updates left.
+  private final Map<String, SerialQueue> queues = new HashMap<>();
+  private final Map<String, Long> supersededBefore = new ConcurrentHashMap<>();
+  private final Map<String, Long> canceledBefore = new ConcurrentHashMap<>();
+  private long nextSequence = 0;
+  private volatile boolean closed = false;
+
+  /**
+   * Schedules {@code update} for {@code sourceId}. Must be called on the main thread. The {@code
+   * result} is completed on the main thread once the update has been applied or dropped.
+   */
+  void submit(
+      String sourceId, boolean replacesSource, Update update, MethodChannel.Result result) {
+    final long sequence = nextSequence++;
+    if (replacesSource) {
+      supersededBefore.put(sourceId, sequence);
+    }
+    enqueue(sourceId, sequence, true, update, result);
+  }
+
+  /**
+   * Schedules {@code update} creating the source {@code sourceId}, which later updates replacing
+   * the source do not drop. Must be called on the main thread. The {@code result} is completed on
+   * the main thread once the source has been created, so that layers can be added for it.
+   */
+  void submitCreate(String sourceId, Update update, MethodChannel.Result result) {
+    enqueue(sourceId, nextSequence++, false, update, result);
+  }
+
+  private void enqueue(
+      String sourceId,
+      long sequence,
+      boolean supersedable,
+      Update update,
+      MethodChannel.Result result) {
+    SerialQueue created = queues.get(sourceId);
+    if (created == null) {
+      created = new SerialQueue();
+      queues.put(sourceId, created);
+    }
+    final SerialQueue queue = created;
+    queue.pending++;
+    queue.execute(
+        () -> {
+          if (isDropped(sourceId, sequence, supersedable)) {
+            mainHandler.post(
+                () -> {
+                  result.success(null);
+                  finished(sourceId, queue);
+                });
+            return;
+          }
+          try {
+            update.parse();
+          } catch (Exception e) {
+            Log.e(TAG, "Failed to parse update for source " + sourceId, e);
+            mainHandler.post(
+                () -> {
+                  result.error("GEOJSON_PARSE_ERROR", e.getMessage(), null);
+                  finished(sourceId, queue);
+                });
+            return;
+          }
+          mainHandler.post(
+              () -> {
+                apply(sourceId, sequence, supersedable, update, result);
+                finished(sourceId, queue);
+              });
+        });
+  }
+
+  /**
+   * Parses and applies {@code update} synchronously on the calling main thread, for callers that
+   * need the source to be up to date when this returns.
+   */
+  void applyNow(
+      String sourceId, boolean replacesSource, Update update, MethodChannel.Result result) {
+    final long sequence = nextSequence++;
+    if (replacesSource && queues.containsKey(sourceId)) {
+      supersededBefore.put(sourceId, sequence);
+    }
+    try {
+      update.parse();
+    } catch (Exception e) {
+      Log.e(TAG, "Failed to parse update for source " + sourceId, e);
+      result.error("GEOJSON_PARSE_ERROR", e.getMessage(), null);
+      return;
+    }
+    apply(sourceId, sequence, true, update, result);
+  }
+
+  /**
+   * Drops the updates of {@code sourceId} that have not been applied yet, e.g. because the source
+   * was removed. Must be called on the main thread.
+   */
+  void cancel(String sourceId) {
+    if (queues.containsKey(sourceId)) {
+      canceledBefore.put(sourceId, nextSequence);
+    }
+  }
+
+  /** Drops all updates that have not been applied yet. */
+  void close() {
+    closed = true;
+  }
+
+  private void apply(
+      String sourceId,
+      long sequence,
+      boolean supersedable,
+      Update update,
+      MethodChannel.Result result) {
+    if (closed || isDropped(sourceId, sequence, supersedable)) {
+      result.success(null);
+      return;
+    }
+    try {
+      update.apply();
+    } catch (RuntimeException e) {
+      Log.e(TAG, "Failed to apply update for source " + sourceId, e);
+      result.error("GEOJSON_APPLY_ERROR", e.getMessage(), null);
+      return;
+    }
+    result.success(null);
+  }
+
+  /** Forgets the source once its last pending update has completed. Runs on the main thread. */
+  private void finished(String sourceId, SerialQueue queue) {
+    if (--queue.pending == 0 && queues.get(sourceId) == queue) {
+      queues.remove(sourceId);
+      supersededBefore.remove(sourceId);
+      canceledBefore.remove(sourceId);
+    }
+  }
+
+  private boolean isDropped(String sourceId, long sequence, boolean supersedable) {
+    return isBefore(canceledBefore, sourceId, sequence)
+        || (supersedable && isBefore(supersededBefore, sourceId, sequence));
+  }
+
+  private static boolean isBefore(Map<String, Long> before, String sourceId, long sequence) {
+    final Long at = before.get(sourceId);
+    return at != null && sequence < at;
+  }
+
+  /** Runs tasks one after another on the shared worker pool. */
+  private static final class SerialQueue {
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private boolean running = false;
+    // Submitted updates whose result has not been completed yet, counted on the main thread.
+    private int pending = 0;
+
+    synchronized void execute(Runnable task) {
+      tasks.add(task);
+      if (!running) {
+        running = true;
+        worker.execute(this::drain);
+      }
+    }
+
+    private void drain() {
+      while (true) {
+        final Runnable task;
+        synchronized (this) {
+          task = tasks.poll();
+          if (task == null) {
+            running = false;
+            return;
+          }
+        }
+        task.run();
+      }
+    }
+  }
+}
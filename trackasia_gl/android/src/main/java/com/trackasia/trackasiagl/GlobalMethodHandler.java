@@ -1,7 +1,6 @@
 package com.trackasia.trackasiagl;
 
 import android.content.Context;
-import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import com.trackasia.android.net.ConnectivityReceiver;
@@ -10,73 +9,42 @@ import io.flutter.plugin.common.BinaryMessenger;
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
 import io.flutter.plugin.common.PluginRegistry;
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.util.Map;
 
 class GlobalMethodHandler implements MethodChannel.MethodCallHandler {
   private static final String TAG = GlobalMethodHandler.class.getSimpleName();
-  private static final String DATABASE_NAME = "mbgl-offline.db";
-  private static final int BUFFER_SIZE = 1024 * 2;
   @NonNull private final Context context;
   @NonNull private final BinaryMessenger messenger;
   @Nullable private FlutterPlugin.FlutterAssets flutterAssets;
   @Nullable private OfflineChannelHandlerImpl downloadOfflineRegionChannelHandler;
   @Nullable private NavigationMethodHandler navigationMethodHandler;
+  @NonNull private final OfflineDownloadScheduler offlineDownloadScheduler;
+  @NonNull private final OfflineTilesInstaller offlineTilesInstaller;
 
 
   GlobalMethodHandler(@NonNull FlutterPlugin.FlutterPluginBinding binding) {
     this.context = binding.getApplicationContext();
     this.flutterAssets = binding.getFlutterAssets();
     this.messenger = binding.getBinaryMessenger();
-    this.navigationMethodHandler = new NavigationMethodHandler(context);
+    this.offlineDownloadScheduler = new OfflineDownloadScheduler(context, messenger);
+    this.navigationMethodHandler = new NavigationMethodHandler(context, offlineDownloadScheduler);
+    this.offlineTilesInstaller = new OfflineTilesInstaller(context, messenger, flutterAssets);
+    new NetworkMetrics.StatsStream(messenger);
+    TrackAsiaHttpRequestUtil.install(context);
   }
 
   public NavigationMethodHandler getNavigationMethodHandler() {
     return navigationMethodHandler;
   }
 
-  private static void copy(InputStream input, OutputStream output) throws IOException {
-    final byte[] buffer = new byte[BUFFER_SIZE];
-    final BufferedInputStream in = new BufferedInputStream(input, BUFFER_SIZE);
-    final BufferedOutputStream out = new BufferedOutputStream(output, BUFFER_SIZE);
-    int count = 0;
-    int n = 0;
-    try {
-      while ((n = in.read(buffer, 0, BUFFER_SIZE)) != -1) {
-        out.write(buffer, 0, n);
-        count += n;
-      }
-      out.flush();
-    } finally {
-      try {
-        out.close();
-      } catch (IOException e) {
-        Log.e(TAG, e.getMessage(), e);
-      }
-      try {
-        in.close();
-      } catch (IOException e) {
-        Log.e(TAG, e.getMessage(), e);
-      }
-    }
-  }
-
   @Override
   public void onMethodCall(MethodCall methodCall, MethodChannel.Result result) {
     TrackAsiaUtils.getTrackAsia(context);
 
     switch (methodCall.method) {
       case "installOfflineMapTiles":
-        String tilesDb = methodCall.argument("tilesdb");
-        installOfflineMapTiles(tilesDb);
-        result.success(null);
+        offlineTilesInstaller.install(
+            result, methodCall.argument("tilesdb"), methodCall.argument("sha256"));
         break;
       case "setOffline":
         boolean offline = methodCall.argument("offline");
@@ -92,7 +60,38 @@ class GlobalMethodHandler implements MethodChannel.MethodCallHandler {
         break;
       case "setHttpHeaders":
         Map<String, String> headers = (Map<String, String>) methodCall.argument("headers");
-        TrackAsiaHttpRequestUtil.setHttpHeaders(headers, result);
+        TrackAsiaHttpRequestUtil.setHttpHeaders(
+            context,
+            headers,
+            (Map<String, Map<String, String>>) methodCall.argument("hostHeaders"),
+            result);
+        break;
+      case "http#configureClient":
+        TrackAsiaHttpClientFactory.configure(
+            methodCall.<Integer>argument("maxIdleConnections"),
+            methodCall.<Integer>argument("maxRequests"),
+            methodCall.<Integer>argument("maxRequestsPerHost"),
+            methodCall.<Boolean>argument("http2"),
+            methodCall.<Number>argument("cacheSize").longValue());
+        TrackAsiaHttpRequestUtil.install(context);
+        result.success(null);
+        break;
+      case "debug#getNetworkStats":
+        result.success(NetworkMetrics.getStats());
+        if (Boolean.TRUE.equals(methodCall.argument("reset"))) {
+          NetworkMetrics.reset();
+        }
+        break;
+      case "styleCache#clear":
+        StyleCache.clear(context);
+        result.success(null);
+        break;
+      case "expressionCache#getStats":
+        result.success(ExpressionCache.getStats());
+        break;
+      case "expressionCache#clear":
+        ExpressionCache.clear();
+        result.success(null);
         break;
       case "downloadOfflineRegion#setup":
         String channelName = methodCall.argument("channelName");
@@ -118,9 +117,93 @@ class GlobalMethodHandler implements MethodChannel.MethodCallHandler {
             result, context, definitionMap, metadataMap, downloadOfflineRegionChannelHandler);
         downloadOfflineRegionChannelHandler = null;
         break;
+      case "offline#refreshRegion":
+        if (downloadOfflineRegionChannelHandler == null) {
+          result.error(
+              "downloadOfflineRegion#setup NOT CALLED",
+              "The setup has not been called, please call downloadOfflineRegion#setup before",
+              null);
+          break;
+        }
+        OfflineManagerUtils.refreshRegion(
+            result,
+            context,
+            methodCall.<Number>argument("id").longValue(),
+            downloadOfflineRegionChannelHandler);
+        downloadOfflineRegionChannelHandler = null;
+        break;
+      case "offline#enqueueRegion":
+        offlineDownloadScheduler.enqueue(
+            result,
+            (Map<String, Object>) methodCall.argument("definition"),
+            (Map<String, Object>) methodCall.argument("metadata"),
+            methodCall.argument("priority") != null ? methodCall.<Integer>argument("priority") : 0);
+        break;
+      case "offline#setMaxConcurrentDownloads":
+        offlineDownloadScheduler.setMaxActive(methodCall.<Integer>argument("count"));
+        result.success(null);
+        break;
+      case "offline#pauseDownload":
+        replyDownloadFound(
+            result, offlineDownloadScheduler.pause(methodCall.<Number>argument("id").longValue()));
+        break;
+      case "offline#resumeDownload":
+        replyDownloadFound(
+            result, offlineDownloadScheduler.resume(methodCall.<Number>argument("id").longValue()));
+        break;
+      case "offline#setDownloadPriority":
+        replyDownloadFound(
+            result,
+            offlineDownloadScheduler.setPriority(
+                methodCall.<Number>argument("id").longValue(),
+                methodCall.<Integer>argument("priority")));
+        break;
+      case "offline#cancelDownload":
+        offlineDownloadScheduler.cancel(
+            result,
+            methodCall.<Number>argument("id").longValue(),
+            !Boolean.FALSE.equals(methodCall.argument("delete")));
+        break;
+      case "offline#setProgressThrottle":
+        OfflineProgressTracker.setThrottle(
+            methodCall.<Number>argument("intervalMillis").longValue(),
+            methodCall.<Number>argument("percentStep").doubleValue());
+        result.success(null);
+        break;
+      case "offline#estimateRegion":
+        OfflineRegionEstimator.estimate(
+            result, context, (Map<String, Object>) methodCall.argument("definition"));
+        break;
+      case "offline#setCacheBudget":
+        OfflineCacheManager.setCacheBudget(
+            result,
+            context,
+            methodCall.argument("maximumAmbientCacheSize") != null
+                ? methodCall.<Number>argument("maximumAmbientCacheSize").longValue()
+                : null,
+            methodCall.argument("storageBudget") != null
+                ? methodCall.<Number>argument("storageBudget").longValue()
+                : -1);
+        break;
+      case "offline#getStats":
+        OfflineStorageStats.collect(result, context);
+        break;
+      case "offline#getDownloadQueue":
+        result.success(offlineDownloadScheduler.getQueue());
+        break;
       case "getListOfRegions":
         OfflineManagerUtils.regionsList(result, context);
         break;
+      case "offline#listRegions":
+        OfflineManagerUtils.regionsPage(
+            result,
+            context,
+            (Map<String, Object>) methodCall.argument("metadataFilter"),
+            methodCall.argument("offset") != null ? methodCall.<Integer>argument("offset") : 0,
+            methodCall.argument("limit") != null
+                ? methodCall.<Integer>argument("limit")
+                : Integer.MAX_VALUE);
+        break;
       case "updateOfflineRegionMetadata":
         // Get download region arguments from caller
         Map<String, Object> metadata = (Map<String, Object>) methodCall.argument("metadata");
@@ -138,6 +221,8 @@ class GlobalMethodHandler implements MethodChannel.MethodCallHandler {
       case "navigation#resume":
       case "navigation#isActive":
       case "navigation#getProgress":
+      case "navigation#prefetchRoute":
+      case "navigation#getPrefetchStatus":
       // NavigationMapRoute methods
       case "navigationMapRoute#addRoute":
       case "navigationMapRoute#addRoutes":
@@ -157,27 +242,11 @@ class GlobalMethodHandler implements MethodChannel.MethodCallHandler {
     }
   }
 
-  private void installOfflineMapTiles(String tilesDb) {
-    final File dest = new File(context.getFilesDir(), DATABASE_NAME);
-    try (InputStream input = openTilesDbFile(tilesDb);
-        OutputStream output = new FileOutputStream(dest)) {
-      copy(input, output);
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
-  }
-
-  private InputStream openTilesDbFile(String tilesDb) throws IOException {
-    if (tilesDb.startsWith("/")) { // Absolute path.
-      return new FileInputStream(new File(tilesDb));
+  private static void replyDownloadFound(MethodChannel.Result result, boolean found) {
+    if (found) {
+      result.success(null);
     } else {
-      String assetKey;
-      if (flutterAssets != null) {
-        assetKey = flutterAssets.getAssetFilePathByName(tilesDb);
-      } else {
-        throw new IllegalStateException();
-      }
-      return context.getAssets().open(assetKey);
+      result.error("DownloadNotFound", "There is no queued download for this region", null);
     }
   }
 }
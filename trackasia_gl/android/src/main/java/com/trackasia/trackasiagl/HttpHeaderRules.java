@@ -0,0 +1,149 @@
+package com.trackasia.trackasiagl;
+
+import androidx.annotation.Nullable;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import okhttp3.Headers;
+import okhttp3.Request;
+
+/**
+ * Headers to set on requests, compiled once per call of {@code setHttpHeaders}.
+ *
+ * <p>The default headers apply to every host. Host patterns are either a host name, or {@code
+ * *.example.com} for all subdomains of {@code example.com}; their headers are merged over the
+ * default ones, an empty value removing the header. An exact host wins over wildcards, and a
+ * longer wildcard over a shorter one. The rule of each host is resolved once, so applying the
+ * rules to a request is a single map lookup.
+ */
+final class HttpHeaderRules {
+  static final HttpHeaderRules EMPTY =
+      new HttpHeaderRules(Rule.EMPTY, Collections.emptyMap(), Collections.emptyList());
+  // Bounds the resolved hosts in case the map requests from many hosts.
+  private static final int MAX_RESOLVED_HOSTS = 256;
+
+  /** The precompiled headers of one host pattern. */
+  static final class Rule {
+    static final Rule EMPTY = new Rule(Headers.of(), new String[0]);
+
+    private final Headers headers;
+    private final String[] removed;
+
+    private Rule(Headers headers, String[] removed) {
+      this.headers = headers;
+      this.removed = removed;
+    }
+
+    Request apply(Request request) {
+      if (this == EMPTY) {
+        return request;
+      }
+      final Request.Builder builder = request.newBuilder();
+      for (String name : removed) {
+        builder.removeHeader(name);
+      }
+      for (int i = 0; i < headers.size(); i++) {
+        builder.header(headers.name(i), headers.value(i));
+      }
+      return builder.build();
+    }
+  }
+
+  private final Rule defaultRule;
+  private final Map<String, Rule> hosts;
+  // Subdomain suffixes such as ".example.com", longest first.
+  private final List<Map.Entry<String, Rule>> wildcards;
+  private final Map<String, Rule> resolved = new ConcurrentHashMap<>();
+
+  private HttpHeaderRules(
+      Rule defaultRule, Map<String, Rule> hosts, List<Map.Entry<String, Rule>> wildcards) {
+    this.defaultRule = defaultRule;
+    this.hosts = hosts;
+    this.wildcards = wildcards;
+  }
+
+  /**
+   * Compiles the rules. Throws {@link IllegalArgumentException} for header names or values that
+   * are not valid in HTTP.
+   */
+  static HttpHeaderRules compile(
+      Map<String, String> headers, @Nullable Map<String, Map<String, String>> hostHeaders) {
+    final Map<String, String> defaults = merge(Collections.emptyMap(), headers);
+    final Map<String, Rule> hosts = new HashMap<>();
+    final List<Map.Entry<String, Rule>> wildcards = new ArrayList<>();
+    if (hostHeaders != null) {
+      for (Map.Entry<String, Map<String, String>> entry : hostHeaders.entrySet()) {
+        final String pattern = entry.getKey().trim().toLowerCase(Locale.ROOT);
+        final Rule rule = toRule(merge(defaults, entry.getValue()));
+        if (pattern.startsWith("*.")) {
+          wildcards.add(new AbstractMap.SimpleImmutableEntry<>(pattern.substring(1), rule));
+        } else {
+          hosts.put(pattern, rule);
+        }
+      }
+    }
+    Collections.sort(wildcards, (a, b) -> b.getKey().length() - a.getKey().length());
+    return new HttpHeaderRules(toRule(defaults), hosts, wildcards);
+  }
+
+  Rule forHost(String host) {
+    Rule rule = resolved.get(host);
+    if (rule == null) {
+      rule = resolve(host);
+      if (resolved.size() < MAX_RESOLVED_HOSTS) {
+        resolved.put(host, rule);
+      }
+    }
+    return rule;
+  }
+
+  private Rule resolve(String host) {
+    final Rule rule = hosts.get(host);
+    if (rule != null) {
+      return rule;
+    }
+    for (Map.Entry<String, Rule> wildcard : wildcards) {
+      if (host.endsWith(wildcard.getKey())) {
+        return wildcard.getValue();
+      }
+    }
+    return defaultRule;
+  }
+
+  /** Returns {@code base} overridden by {@code headers}, empty values marking removals. */
+  private static Map<String, String> merge(Map<String, String> base, Map<String, String> headers) {
+    // Header names are case insensitive, so a host can override or remove a default header.
+    final Map<String, String> merged = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    merged.putAll(base);
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      if (header.getKey() == null || header.getKey().trim().isEmpty()) {
+        continue;
+      }
+      final String value = header.getValue() == null ? "" : header.getValue().trim();
+      merged.put(header.getKey().trim(), value);
+    }
+    return merged;
+  }
+
+  private static Rule toRule(Map<String, String> merged) {
+    final Headers.Builder headers = new Headers.Builder();
+    final List<String> removed = new ArrayList<>();
+    for (Map.Entry<String, String> header : merged.entrySet()) {
+      if (header.getValue().isEmpty()) {
+        removed.add(header.getKey());
+      } else {
+        headers.add(header.getKey(), header.getValue());
+      }
+    }
+    if (removed.isEmpty() && headers.build().size() == 0) {
+      return Rule.EMPTY;
+    }
+    return new Rule(headers.build(), removed.toArray(new String[0]));
+  }
+}
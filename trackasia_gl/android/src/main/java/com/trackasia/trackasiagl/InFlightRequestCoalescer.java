@@ -0,0 +1,134 @@
+package com.trackasia.trackasiagl;
+
+import androidx.annotation.Nullable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Joins identical GET requests in flight, such as the same tile requested by several maps.
+ *
+ * <p>The first request goes to the network and its body is buffered; requests with the same URL
+ * and validators arriving meanwhile wait for it and get a copy of its response. A waiting request
+ * that is canceled stops waiting. If the first request fails because it was canceled, the waiting
+ * requests are sent on their own, as they may still be needed.
+ */
+final class InFlightRequestCoalescer implements Interceptor {
+  private static final long POLL_MILLIS = 50;
+  private static final AtomicLong coalesced = new AtomicLong();
+
+  private final Map<String, InFlight> inFlight = new ConcurrentHashMap<>();
+
+  /** Returns the number of requests answered with the response of an identical request. */
+  static long coalescedCount() {
+    return coalesced.get();
+  }
+
+  static void resetCount() {
+    coalesced.set(0);
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    final Request request = chain.request();
+    if (!"GET".equals(request.method()) || request.header("Range") != null) {
+      return chain.proceed(request);
+    }
+    final String key =
+        request.url()
+            + "\n"
+            + request.header("If-None-Match")
+            + "\n"
+            + request.header("If-Modified-Since");
+    final InFlight created = new InFlight();
+    final InFlight existing = inFlight.putIfAbsent(key, created);
+    if (existing != null) {
+      final Response shared = existing.await(chain);
+      if (shared != null) {
+        coalesced.incrementAndGet();
+        return shared
+            .newBuilder()
+            .request(request)
+            .body(ResponseBody.create(existing.body, existing.contentType))
+            .build();
+      }
+      // The first request was canceled.
+      return chain.proceed(request);
+    }
+
+    try {
+      final Response response = chain.proceed(request);
+      final ResponseBody body = response.body();
+      if (body == null) {
+        created.complete(response, new byte[0], null);
+        return response;
+      }
+      final byte[] bytes = body.bytes();
+      final MediaType contentType = body.contentType();
+      created.complete(response, bytes, contentType);
+      return response.newBuilder().body(ResponseBody.create(bytes, contentType)).build();
+    } catch (IOException | RuntimeException e) {
+      created.fail(e, chain.call().isCanceled());
+      throw e;
+    } finally {
+      inFlight.remove(key, created);
+    }
+  }
+
+  private static final class InFlight {
+    private final CountDownLatch done = new CountDownLatch(1);
+    @Nullable private Response response;
+    private byte[] body;
+    @Nullable private MediaType contentType;
+    @Nullable private Exception error;
+    private boolean canceled;
+
+    void complete(Response response, byte[] body, @Nullable MediaType contentType) {
+      this.response = response;
+      this.body = body;
+      this.contentType = contentType;
+      done.countDown();
+    }
+
+    void fail(Exception error, boolean canceled) {
+      this.error = error;
+      this.canceled = canceled;
+      done.countDown();
+    }
+
+    /**
+     * Waits for the first request and returns its response, or null if it was canceled. Throws
+     * if the first request failed otherwise, or if the waiting call is canceled.
+     */
+    @Nullable
+    Response await(Chain chain) throws IOException {
+      try {
+        while (!done.await(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+          if (chain.call().isCanceled()) {
+            throw new IOException("Canceled");
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for an identical request", e);
+      }
+      if (error == null) {
+        return response;
+      }
+      if (canceled) {
+        return null;
+      }
+      throw error instanceof IOException
+          ? new IOException(error.getMessage(), error)
+          : new IOException(error);
+    }
+  }
+}
@@ -0,0 +1,169 @@
+package com.trackasia.trackasiagl;
+
+import android.graphics.RectF;
+import android.os.SystemClock;
+import android.util.Pair;
+import com.trackasia.android.maps.Style;
+import com.trackasia.android.maps.TrackAsiaMap;
+import com.trackasia.android.style.layers.Layer;
+import com.trackasia.geojson.Feature;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the top-most feature of the interactive layers under a screen rectangle.
+ *
+ * <p>The interactive layer ids are kept in rendering order, top-most first, and only recomputed
+ * after an interactive layer was added or removed or a new style was loaded. A hit test queries all
+ * interactive layers at once. The top-most feature belongs to the top-most layer that can hold it:
+ * layers on a GeoJSON source added by the plugin are skipped if the source has no feature with its
+ * id. Only if several layers remain, e.g. layers with different filters on one source, are they
+ * queried one by one, all but the last.
+ */
+final class InteractiveLayerHitTester {
+  private static final String[] NO_LAYERS = new String[0];
+
+  private final Set<String> layerIds = new HashSet<>();
+  private final Map<String, String> sourceIds = new HashMap<>();
+  private String[] orderedLayerIds = NO_LAYERS;
+  private boolean orderValid = false;
+
+  private long hitTestCount = 0;
+  private long hitCount = 0;
+  private long totalHitTestNanos = 0;
+  private long maxHitTestNanos = 0;
+  private long callbackCount = 0;
+  private long totalCallbackNanos = 0;
+  private long maxCallbackNanos = 0;
+
+  void add(String layerId, String sourceId) {
+    layerIds.add(layerId);
+    sourceIds.put(layerId, sourceId);
+    orderValid = false;
+  }
+
+  void remove(String layerId) {
+    sourceIds.remove(layerId);
+    if (layerIds.remove(layerId)) {
+      orderValid = false;
+    }
+  }
+
+  /** Forgets the cached layer order, e.g. because the style was replaced. */
+  void invalidate() {
+    orderValid = false;
+  }
+
+  /**
+   * Returns the top-most feature under {@code in} and its layer. {@code featureStores} holds the
+   * features of the GeoJSON sources by source id.
+   */
+  Pair<Feature, String> firstFeature(
+      TrackAsiaMap map,
+      Style style,
+      Map<String, GeoJsonFeatureStore> featureStores,
+      RectF in) {
+    final long start = SystemClock.elapsedRealtimeNanos();
+    final Pair<Feature, String> hit = query(map, style, featureStores, in);
+    final long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+    hitTestCount++;
+    if (hit != null) {
+      hitCount++;
+    }
+    totalHitTestNanos += elapsed;
+    maxHitTestNanos = Math.max(maxHitTestNanos, elapsed);
+    return hit;
+  }
+
+  /**
+   * Records the time between the start of a tap handling at {@code startNanos} and the dispatch of
+   * its callback to Dart.
+   */
+  void recordCallback(long startNanos) {
+    final long elapsed = SystemClock.elapsedRealtimeNanos() - startNanos;
+    callbackCount++;
+    totalCallbackNanos += elapsed;
+    maxCallbackNanos = Math.max(maxCallbackNanos, elapsed);
+  }
+
+  Map<String, Object> getStats() {
+    final Map<String, Object> stats = new HashMap<>(8);
+    stats.put("interactiveLayerCount", layerIds.size());
+    stats.put("hitTestCount", hitTestCount);
+    stats.put("hitCount", hitCount);
+    stats.put("averageHitTestMicros", hitTestCount > 0 ? totalHitTestNanos / hitTestCount / 1000 : 0);
+    stats.put("maxHitTestMicros", maxHitTestNanos / 1000);
+    stats.put("callbackCount", callbackCount);
+    stats.put(
+        "averageCallbackMicros", callbackCount > 0 ? totalCallbackNanos / callbackCount / 1000 : 0);
+    stats.put("maxCallbackMicros", maxCallbackNanos / 1000);
+    return stats;
+  }
+
+  private Pair<Feature, String> query(
+      TrackAsiaMap map,
+      Style style,
+      Map<String, GeoJsonFeatureStore> featureStores,
+      RectF in) {
+    if (style == null || layerIds.isEmpty()) {
+      return null;
+    }
+    final String[] ordered = orderedLayerIds(style);
+    if (ordered.length == 0) {
+      return null;
+    }
+    final List<Feature> all = map.queryRenderedFeatures(in, ordered);
+    if (all.isEmpty()) {
+      return null;
+    }
+    final Feature top = all.get(0);
+    final List<String> candidates = new ArrayList<>(ordered.length);
+    for (String id : ordered) {
+      if (canHold(id, top, featureStores)) {
+        candidates.add(id);
+      }
+    }
+    if (candidates.isEmpty()) {
+      // The feature stores are behind the renderer, e.g. while an update is pending.
+      candidates.addAll(Arrays.asList(ordered));
+    }
+    for (int i = 0; i < candidates.size() - 1; i++) {
+      final List<Feature> features = map.queryRenderedFeatures(in, candidates.get(i));
+      if (!features.isEmpty()) {
+        return new Pair<>(features.get(0), candidates.get(i));
+      }
+    }
+    return new Pair<>(top, candidates.get(candidates.size() - 1));
+  }
+
+  /**
+   * Returns whether {@code feature} may belong to the layer. Only features of GeoJSON sources with
+   * known contents and features with an id can be ruled out.
+   */
+  private boolean canHold(
+      String layerId, Feature feature, Map<String, GeoJsonFeatureStore> featureStores) {
+    final GeoJsonFeatureStore store = featureStores.get(sourceIds.get(layerId));
+    return store == null || feature.id() == null || store.get(feature.id()) != null;
+  }
+
+  private String[] orderedLayerIds(Style style) {
+    if (!orderValid) {
+      final List<Layer> layers = style.getLayers();
+      final List<String> ordered = new ArrayList<>(layerIds.size());
+      for (int i = layers.size() - 1; i >= 0; i--) {
+        final String id = layers.get(i).getId();
+        if (layerIds.contains(id)) {
+          ordered.add(id);
+        }
+      }
+      orderedLayerIds = ordered.toArray(NO_LAYERS);
+      orderValid = true;
+    }
+    return orderedLayerIds;
+  }
+}
@@ -11,9 +11,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
-import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
-import com.google.gson.JsonParser;
 import com.google.gson.JsonPrimitive;
 
 import static com.trackasia.trackasiagl.Convert.toMap;
@@ -22,11 +20,11 @@ class LayerPropertyConverter {
   static PropertyValue[] interpretSymbolLayerProperties(Object o) {
     final Map<String, String> data = (Map<String, String>) toMap(o);
     final List<PropertyValue> properties = new LinkedList();
-    final JsonParser parser = new JsonParser();
 
     for (Map.Entry<String, String> entry : data.entrySet()) {
-      final JsonElement jsonElement = parser.parse(entry.getValue());
-      Expression expression = Expression.Converter.convert(jsonElement);
+      final ExpressionCache.Entry cached = ExpressionCache.get(entry.getValue());
+      final JsonElement jsonElement = cached.jsonElement;
+      Expression expression = cached.expression;
       switch (entry.getKey()) {
         case "icon-opacity":
           properties.add(PropertyFactory.iconOpacity(expression));
@@ -45,7 +43,7 @@ class LayerPropertyConverter {
           break;
         case "icon-translate":
           if (jsonElement.isJsonArray()) {
-            final Float[] floatArray = convertJsonToFloatArray(jsonElement);
+            final Float[] floatArray = cached.floatArray();
             if (floatArray != null) {
               properties.add(PropertyFactory.iconTranslate(floatArray));
             } else {
@@ -75,7 +73,7 @@ class LayerPropertyConverter {
           break;
         case "text-translate":
           if (jsonElement.isJsonArray()) {
-            final Float[] floatArray = convertJsonToFloatArray(jsonElement);
+            final Float[] floatArray = cached.floatArray();
             if (floatArray != null) {
               properties.add(PropertyFactory.textTranslate(floatArray));
             } else {
@@ -123,7 +121,7 @@ class LayerPropertyConverter {
           break;
         case "icon-text-fit-padding":
           if (jsonElement.isJsonArray()) {
-            final Float[] floatArray = convertJsonToFloatArray(jsonElement);
+            final Float[] floatArray = cached.floatArray();
             if (floatArray != null) {
               properties.add(PropertyFactory.iconTextFitPadding(floatArray));
             } else {
@@ -134,8 +132,8 @@ class LayerPropertyConverter {
           }
           break;
         case "icon-image":
-          if (jsonElement.isJsonPrimitive() && jsonElement.getAsJsonPrimitive().isString()) {
-            properties.add(PropertyFactory.iconImage(jsonElement.getAsString()));
+          if (cached.stringLiteral() != null) {
+            properties.add(PropertyFactory.iconImage(cached.stringLiteral()));
           } else {
             properties.add(PropertyFactory.iconImage(expression));
           }
@@ -151,7 +149,7 @@ class LayerPropertyConverter {
           break;
         case "icon-offset":
           if (jsonElement.isJsonArray()) {
-            final Float[] floatArray = convertJsonToFloatArray(jsonElement);
+            final Float[] floatArray = cached.floatArray();
             if (floatArray != null) {
               properties.add(PropertyFactory.iconOffset(floatArray));
             } else {
@@ -223,7 +221,7 @@ class LayerPropertyConverter {
           break;
         case "text-offset":
           if (jsonElement.isJsonArray()) {
-            final Float[] floatArray = convertJsonToFloatArray(jsonElement);
+            final Float[] floatArray = cached.floatArray();
             if (floatArray != null) {
               properties.add(PropertyFactory.textOffset(floatArray));
             } else {
@@ -256,11 +254,11 @@ class LayerPropertyConverter {
   static PropertyValue[] interpretCircleLayerProperties(Object o) {
     final Map<String, String> data = (Map<String, String>) toMap(o);
     final List<PropertyValue> properties = new LinkedList();
-    final JsonParser parser = new JsonParser();
 
     for (Map.Entry<String, String> entry : data.entrySet()) {
-      final JsonElement jsonElement = parser.parse(entry.getValue());
-      Expression expression = Expression.Converter.convert(jsonElement);
+      final ExpressionCache.Entry cached = ExpressionCache.get(entry.getValue());
+      final JsonElement jsonElement = cached.jsonElement;
+      Expression expression = cached.expression;
       switch (entry.getKey()) {
         case "circle-radius":
           properties.add(PropertyFactory.circleRadius(expression));
@@ -276,7 +274,7 @@ class LayerPropertyConverter {
           break;
         case "circle-translate":
           if (jsonElement.isJsonArray()) {
-            final Float[] floatArray = convertJsonToFloatArray(jsonElement);
+            final Float[] floatArray = cached.floatArray();
             if (floatArray != null) {
               properties.add(PropertyFactory.circleTranslate(floatArray));
             } else {
@@ -321,11 +319,11 @@ class LayerPropertyConverter {
   static PropertyValue[] interpretLineLayerProperties(Object o) {
     final Map<String, String> data = (Map<String, String>) toMap(o);
     final List<PropertyValue> properties = new LinkedList();
-    final JsonParser parser = new JsonParser();
 
     for (Map.Entry<String, String> entry : data.entrySet()) {
-      final JsonElement jsonElement = parser.parse(entry.getValue());
-      Expression expression = Expression.Converter.convert(jsonElement);
+      final ExpressionCache.Entry cached = ExpressionCache.get(entry.getValue());
+      final JsonElement jsonElement = cached.jsonElement;
+      Expression expression = cached.expression;
       switch (entry.getKey()) {
         case "line-opacity":
           properties.add(PropertyFactory.lineOpacity(expression));
@@ -335,7 +333,7 @@ class LayerPropertyConverter {
           break;
         case "line-translate":
           if (jsonElement.isJsonArray()) {
-            final Float[] floatArray = convertJsonToFloatArray(jsonElement);
+            final Float[] floatArray = cached.floatArray();
             if (floatArray != null) {
               properties.add(PropertyFactory.lineTranslate(floatArray));
             } else {
@@ -362,7 +360,7 @@ class LayerPropertyConverter {
           break;
         case "line-dasharray":
           if (jsonElement.isJsonArray()) {
-            final Float[] floatArray = convertJsonToFloatArray(jsonElement);
+            final Float[] floatArray = cached.floatArray();
             if (floatArray != null) {
               properties.add(PropertyFactory.lineDasharray(floatArray));
             } else {
@@ -407,11 +405,11 @@ class LayerPropertyConverter {
   static PropertyValue[] interpretFillLayerProperties(Object o) {
     final Map<String, String> data = (Map<String, String>) toMap(o);
     final List<PropertyValue> properties = new LinkedList();
-    final JsonParser parser = new JsonParser();
 
     for (Map.Entry<String, String> entry : data.entrySet()) {
-      final JsonElement jsonElement = parser.parse(entry.getValue());
-      Expression expression = Expression.Converter.convert(jsonElement);
+      final ExpressionCache.Entry cached = ExpressionCache.get(entry.getValue());
+      final JsonElement jsonElement = cached.jsonElement;
+      Expression expression = cached.expression;
       switch (entry.getKey()) {
         case "fill-antialias":
           properties.add(PropertyFactory.fillAntialias(expression));
@@ -427,7 +425,7 @@ class LayerPropertyConverter {
           break;
         case "fill-translate":
           if (jsonElement.isJsonArray()) {
-            final Float[] floatArray = convertJsonToFloatArray(jsonElement);
+            final Float[] floatArray = cached.floatArray();
             if (floatArray != null) {
               properties.add(PropertyFactory.fillTranslate(floatArray));
             } else {
@@ -460,11 +458,11 @@ class LayerPropertyConverter {
   static PropertyValue[] interpretFillExtrusionLayerProperties(Object o) {
     final Map<String, String> data = (Map<String, String>) toMap(o);
     final List<PropertyValue> properties = new LinkedList();
-    final JsonParser parser = new JsonParser();
 
     for (Map.Entry<String, String> entry : data.entrySet()) {
-      final JsonElement jsonElement = parser.parse(entry.getValue());
-      Expression expression = Expression.Converter.convert(jsonElement);
+      final ExpressionCache.Entry cached = ExpressionCache.get(entry.getValue());
+      final JsonElement jsonElement = cached.jsonElement;
+      Expression expression = cached.expression;
       switch (entry.getKey()) {
         case "fill-extrusion-opacity":
           properties.add(PropertyFactory.fillExtrusionOpacity(expression));
@@ -474,7 +472,7 @@ class LayerPropertyConverter {
           break;
         case "fill-extrusion-translate":
           if (jsonElement.isJsonArray()) {
-            final Float[] floatArray = convertJsonToFloatArray(jsonElement);
+            final Float[] floatArray = cached.floatArray();
             if (floatArray != null) {
               properties.add(PropertyFactory.fillExtrusionTranslate(floatArray));
             } else {
@@ -513,11 +511,11 @@ class LayerPropertyConverter {
   static PropertyValue[] interpretRasterLayerProperties(Object o) {
     final Map<String, String> data = (Map<String, String>) toMap(o);
     final List<PropertyValue> properties = new LinkedList();
-    final JsonParser parser = new JsonParser();
 
     for (Map.Entry<String, String> entry : data.entrySet()) {
-      final JsonElement jsonElement = parser.parse(entry.getValue());
-      Expression expression = Expression.Converter.convert(jsonElement);
+      final ExpressionCache.Entry cached = ExpressionCache.get(entry.getValue());
+      final JsonElement jsonElement = cached.jsonElement;
+      Expression expression = cached.expression;
       switch (entry.getKey()) {
         case "raster-opacity":
           properties.add(PropertyFactory.rasterOpacity(expression));
@@ -557,11 +555,11 @@ class LayerPropertyConverter {
   static PropertyValue[] interpretHillshadeLayerProperties(Object o) {
     final Map<String, String> data = (Map<String, String>) toMap(o);
     final List<PropertyValue> properties = new LinkedList();
-    final JsonParser parser = new JsonParser();
 
     for (Map.Entry<String, String> entry : data.entrySet()) {
-      final JsonElement jsonElement = parser.parse(entry.getValue());
-      Expression expression = Expression.Converter.convert(jsonElement);
+      final ExpressionCache.Entry cached = ExpressionCache.get(entry.getValue());
+      final JsonElement jsonElement = cached.jsonElement;
+      Expression expression = cached.expression;
       switch (entry.getKey()) {
         case "hillshade-illumination-direction":
           properties.add(PropertyFactory.hillshadeIlluminationDirection(expression));
@@ -595,11 +593,11 @@ class LayerPropertyConverter {
   static PropertyValue[] interpretHeatmapLayerProperties(Object o) {
     final Map<String, String> data = (Map<String, String>) toMap(o);
     final List<PropertyValue> properties = new LinkedList();
-    final JsonParser parser = new JsonParser();
 
     for (Map.Entry<String, String> entry : data.entrySet()) {
-      final JsonElement jsonElement = parser.parse(entry.getValue());
-      Expression expression = Expression.Converter.convert(jsonElement);
+      final ExpressionCache.Entry cached = ExpressionCache.get(entry.getValue());
+      final JsonElement jsonElement = cached.jsonElement;
+      Expression expression = cached.expression;
       switch (entry.getKey()) {
         case "heatmap-radius":
           properties.add(PropertyFactory.heatmapRadius(expression));
@@ -630,18 +628,4 @@ class LayerPropertyConverter {
   private static boolean isNumber(JsonElement element) {
     return element.isJsonPrimitive() && element.getAsJsonPrimitive().isNumber();
   }
-
-  private static Float[] convertJsonToFloatArray(JsonElement jsonElement) {
-    final JsonArray jsonArray = jsonElement.getAsJsonArray();
-    Float[] floatArray = new Float[jsonArray.size()];
-
-    for (int i = 0; i < jsonArray.size(); i++) {
-      if (jsonArray.get(i).isJsonPrimitive() && jsonArray.get(i).getAsJsonPrimitive().isNumber()) {
-        floatArray[i] = jsonArray.get(i).getAsFloat();
-      } else {
-        return null;
-      }
-    }
-    return floatArray;
-  }
 }
\ No newline at end of file
@@ -13,6 +13,7 @@ import com.trackasia.navigation.android.navigation.ui.v5.route.NavigationMapRout
 import com.trackasia.navigation.core.navigation.TrackAsiaNavigation
 import com.trackasia.navigation.core.routeprogress.ProgressChangeListener
 import com.trackasia.navigation.core.routeprogress.RouteProgress
+import com.trackasia.geojson.LineString
 import com.trackasia.geojson.Point
 import com.trackasia.navigation.core.models.DirectionsResponse
 import com.trackasia.navigation.core.models.DirectionsRoute
@@ -20,7 +21,8 @@ import com.trackasia.navigation.core.models.RouteOptions
 import com.trackasia.navigation.core.models.RouteLeg
 import com.trackasia.android.maps.MapView
 import com.trackasia.android.maps.TrackAsiaMap
-import okhttp3.OkHttpClient
+import com.trackasia.android.offline.OfflineRegion
+import com.trackasia.android.offline.OfflineRegionStatus
 import okhttp3.Request
 import okhttp3.Callback
 import okhttp3.Call
@@ -29,10 +31,20 @@ import java.io.IOException
 import com.google.gson.Gson
 
 
-class NavigationMethodHandler(private val context: Context) : MethodChannel.MethodCallHandler {
+class NavigationMethodHandler(
+    private val context: Context,
+    private val offlineDownloadScheduler: OfflineDownloadScheduler? = null
+) : MethodChannel.MethodCallHandler {
     companion object {
         private const val TAG = "NavigationMethodHandler"
         private const val ACCESS_TOKEN = "public_key" // Default token, should be configurable
+
+        // Route prefetch defaults: the zoom levels a navigation camera uses, and a priority
+        // below the default of user requested downloads.
+        private const val PREFETCH_BUFFER_METERS = 500.0
+        private const val PREFETCH_MIN_ZOOM = 12.0
+        private const val PREFETCH_MAX_ZOOM = 16.0
+        private const val PREFETCH_PRIORITY = -1
     }
     
     private var trackasiaNavigation: TrackAsiaNavigation? = null
@@ -41,6 +53,9 @@ class NavigationMethodHandler(private val context: Context) : MethodChannel.Meth
     private var isNavigationActive = false
     private var mapView: com.trackasia.android.maps.MapView? = null
     private var trackasiaMap: com.trackasia.android.maps.TrackAsiaMap? = null
+    private var styleUri: String? = null
+    private var prefetchRegion: OfflineRegion? = null
+    private var prefetchTileCount = 0L
 
     override fun onMethodCall(call: MethodCall, result: MethodChannel.Result) {
         when (call.method) {
@@ -56,6 +71,8 @@ class NavigationMethodHandler(private val context: Context) : MethodChannel.Meth
             "isNavigationActive" -> result.success(isNavigationActive) // Keep backward compatibility
             "navigation#getProgress" -> getCurrentRoute(result)
             "getCurrentRoute" -> getCurrentRoute(result) // Keep backward compatibility
+            "navigation#prefetchRoute" -> prefetchRoute(call, result)
+            "navigation#getPrefetchStatus" -> getPrefetchStatus(result)
             // NavigationMapRoute methods
             "navigationMapRoute#addRoute" -> addNavigationRoute(call, result)
             "navigationMapRoute#addRoutes" -> addNavigationRoutes(call, result)
@@ -108,7 +125,7 @@ class NavigationMethodHandler(private val context: Context) : MethodChannel.Meth
             Log.d(TAG, "Requesting route: $url")
             
             // Make HTTP request
-            val client = OkHttpClient()
+            val client = TrackAsiaHttpClientFactory.client(context)
             val request = Request.Builder()
                 .header("User-Agent", "TrackAsia Flutter Navigation Plugin")
                 .url(url)
@@ -327,6 +344,123 @@ class NavigationMethodHandler(private val context: Context) : MethodChannel.Meth
         }
     }
 
+    /**
+     * Queues the tiles around the current route for offline use, as a low priority region of
+     * the offline download scheduler. The route line is buffered and covered with tiles at the
+     * zoom levels used while navigating, see OfflineManagerUtils.mapToRegionDefinition. A new
+     * prefetch replaces the region of the previous one.
+     */
+    private fun prefetchRoute(call: MethodCall, result: MethodChannel.Result) {
+        val route = currentRoute
+        if (route == null || route.geometry.isEmpty()) {
+            result.error("NO_ROUTE", "No route available. Please calculate a route first.", null)
+            return
+        }
+        val scheduler = offlineDownloadScheduler
+        if (scheduler == null) {
+            result.error("PREFETCH_UNAVAILABLE", "Offline downloads are not available", null)
+            return
+        }
+        val styleUrl = call.argument<String>("mapStyleUrl") ?: styleUri
+        if (styleUrl.isNullOrEmpty()) {
+            result.error("NO_STYLE", "No style URL given and no map style loaded", null)
+            return
+        }
+
+        val line = LineString.fromPolyline(route.geometry, 6)
+        val definitionMap = mapOf<String, Any>(
+            "mapStyleUrl" to styleUrl,
+            "minZoom" to (call.argument<Number>("minZoom")?.toDouble() ?: PREFETCH_MIN_ZOOM),
+            "maxZoom" to (call.argument<Number>("maxZoom")?.toDouble() ?: PREFETCH_MAX_ZOOM),
+            "includeIdeographs" to false,
+            "geometry" to mapOf(
+                "type" to "LineString",
+                "coordinates" to line.coordinates().map { listOf(it.longitude(), it.latitude()) }
+            ),
+            "bufferMeters" to
+                (call.argument<Number>("bufferMeters")?.toDouble() ?: PREFETCH_BUFFER_METERS)
+        )
+        val definition = try {
+            val pixelDensity = context.resources.displayMetrics.density
+            OfflineManagerUtils.mapToRegionDefinition(definitionMap, pixelDensity)
+        } catch (e: RuntimeException) {
+            result.error("mapboxInvalidRegionDefinition", e.message, null)
+            return
+        }
+        val metadata = mapOf<String, Any>(
+            "name" to "navigation-prefetch",
+            "routeDistance" to route.distance
+        )
+
+        prefetchRegion?.let { previous ->
+            OfflineCacheManager.unpin(previous.id)
+            scheduler.discard(previous.id)
+            OfflineManagerUtils.deleteRegion(null, context, previous.id)
+        }
+        prefetchRegion = null
+        scheduler.enqueue(
+            definition,
+            metadata,
+            call.argument<Int>("priority") ?: PREFETCH_PRIORITY,
+            object : OfflineDownloadScheduler.EnqueueCallback {
+                override fun onEnqueued(region: OfflineRegion) {
+                    OfflineRegionCatalog.put(region)
+                    // Kept by the cache budget while it is the current prefetch.
+                    OfflineCacheManager.pin(region.id)
+                    prefetchRegion = region
+                    prefetchTileCount = 0
+                    // Covering a long corridor takes too long for the main thread.
+                    OfflineRegionEstimator.tileCount(definition) { tileCount ->
+                        if (prefetchRegion === region) {
+                            prefetchTileCount = tileCount
+                        }
+                        result.success(prefetchStatus(region, null, tileCount))
+                    }
+                }
+
+                override fun onError(error: String) {
+                    result.error("mapboxInvalidRegionDefinition", error, null)
+                }
+            }
+        )
+    }
+
+    private fun getPrefetchStatus(result: MethodChannel.Result) {
+        val region = prefetchRegion
+        if (region == null) {
+            result.success(null)
+            return
+        }
+        region.getStatus(object : OfflineRegion.OfflineRegionStatusCallback {
+            override fun onStatus(status: OfflineRegionStatus?) {
+                result.success(prefetchStatus(region, status, prefetchTileCount))
+            }
+
+            override fun onError(error: String?) {
+                result.error("PREFETCH_STATUS_ERROR", error, null)
+            }
+        })
+    }
+
+    /**
+     * Coverage is the share of the required resources of the region that are in the offline
+     * database, as counted by the offline manager; it stays 0 until the download has started.
+     */
+    private fun prefetchStatus(
+        region: OfflineRegion,
+        status: OfflineRegionStatus?,
+        tileCount: Long
+    ): Map<String, Any> {
+        val required = status?.requiredResourceCount ?: 0L
+        val completed = status?.completedResourceCount ?: 0L
+        return mapOf(
+            "regionId" to region.id,
+            "tileCount" to tileCount,
+            "coverage" to if (required > 0) 100.0 * completed / required else 0.0,
+            "complete" to (status?.isComplete ?: false)
+        )
+    }
+
     // NavigationMapRoute methods
     private fun addNavigationRoute(call: MethodCall, result: MethodChannel.Result) {
         try {
@@ -746,8 +880,21 @@ class NavigationMethodHandler(private val context: Context) : MethodChannel.Meth
     }
     
     fun setTrackAsiaMap(trackasiaMap: com.trackasia.android.maps.TrackAsiaMap?) {
+        if (this.trackasiaMap !== trackasiaMap) {
+            styleUri = null
+        }
         this.trackasiaMap = trackasiaMap
     }
+
+    /**
+     * Sets the URI of the style [trackasiaMap] was asked to show, if it is the navigation map.
+     * Remote styles are shown from their cached JSON, so the map's own style has no URI.
+     */
+    fun setStyleUri(trackasiaMap: com.trackasia.android.maps.TrackAsiaMap?, styleUri: String?) {
+        if (this.trackasiaMap === trackasiaMap) {
+            this.styleUri = styleUri
+        }
+    }
     
     fun cleanup() {
         try {
@@ -758,6 +905,7 @@ class NavigationMethodHandler(private val context: Context) : MethodChannel.Meth
             trackasiaNavigation = null
             mapView = null
             trackasiaMap = null
+            styleUri = null
             Log.d(TAG, "Navigation resources cleaned up")
         } catch (e: Exception) {
             Log.e(TAG, "Error cleaning up navigation resources", e)
@@ -0,0 +1,371 @@
+package com.trackasia.trackasiagl;
+
+import android.os.Handler;
+import android.os.Looper;
+import androidx.annotation.Nullable;
+import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.EventChannel;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.HttpUrl;
+import okhttp3.Protocol;
+import okhttp3.Response;
+
+/**
+ * Metrics of the requests made through the shared HTTP client, collected by an OkHttp {@link
+ * EventListener}.
+ *
+ * <p>Latencies of DNS lookups, connects, TLS handshakes, time to first byte and whole calls are
+ * kept in histograms with fixed millisecond buckets. Requests, response bytes, HTTP cache hits,
+ * errors and canceled calls are counted per host and per resource class, which is guessed from
+ * the URL. Resources served from the ambient cache of the map SDK never reach the client.
+ */
+abstract class NetworkMetrics {
+  static final String CHANNEL_NAME = "plugins.flutter.io/trackasia_gl_network_stats";
+  static final EventListener.Factory FACTORY = call -> new CallListener(call.request().url());
+
+  private static final long[] BUCKET_BOUNDS_MILLIS = {
+    1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000
+  };
+  // Further hosts are counted as "other".
+  private static final int MAX_HOSTS = 64;
+  private static final String OTHER = "other";
+  private static final Pattern TILE = Pattern.compile(".*/\\d+/\\d+/\\d+(@\\d+x)?(\\.\\w+)?$");
+  private static final Pattern GLYPHS = Pattern.compile(".*/\\d+-\\d+\\.pbf$");
+
+  private static final Object lock = new Object();
+  private static final Map<String, Histogram> latency = new HashMap<>();
+  private static final Map<String, Traffic> hosts = new HashMap<>();
+  private static final Map<String, Traffic> resources = new HashMap<>();
+
+  static {
+    reset();
+  }
+
+  /** Returns a snapshot of the metrics as nested maps. */
+  static Map<String, Object> getStats() {
+    synchronized (lock) {
+      final Map<String, Object> stats = new HashMap<>(6);
+      final List<Long> bounds = new ArrayList<>(BUCKET_BOUNDS_MILLIS.length);
+      for (long bound : BUCKET_BOUNDS_MILLIS) {
+        bounds.add(bound);
+      }
+      stats.put("bucketBoundsMillis", bounds);
+      final Map<String, Object> latencyStats = new HashMap<>();
+      for (Map.Entry<String, Histogram> entry : latency.entrySet()) {
+        latencyStats.put(entry.getKey(), entry.getValue().toMap());
+      }
+      stats.put("latency", latencyStats);
+      stats.put("hosts", toMap(hosts));
+      stats.put("resources", toMap(resources));
+      stats.put("coalescedRequests", InFlightRequestCoalescer.coalescedCount());
+      stats.put("viewportCanceledRequests", ViewportRequestCanceller.canceledCount());
+      return stats;
+    }
+  }
+
+  static void reset() {
+    synchronized (lock) {
+      latency.clear();
+      for (String phase : new String[] {"dns", "connect", "tls", "ttfb", "total"}) {
+        latency.put(phase, new Histogram());
+      }
+      hosts.clear();
+      resources.clear();
+      InFlightRequestCoalescer.resetCount();
+      ViewportRequestCanceller.resetCount();
+    }
+  }
+
+  /** Returns the class of the resource at {@code url}: tiles, style, glyphs, sprites, ... */
+  static String resourceClass(HttpUrl url) {
+    final String path = url.encodedPath();
+    if (path.contains("/route/") || path.contains("/directions/")) {
+      return "directions";
+    }
+    if (GLYPHS.matcher(path).matches()) {
+      return "glyphs";
+    }
+    if (path.contains("sprite")) {
+      return "sprites";
+    }
+    if (TILE.matcher(path).matches()) {
+      return "tiles";
+    }
+    if (path.endsWith(".json") || path.contains("/styles/")) {
+      return "style";
+    }
+    return OTHER;
+  }
+
+  private static Map<String, Object> toMap(Map<String, Traffic> traffic) {
+    final Map<String, Object> map = new HashMap<>(traffic.size());
+    for (Map.Entry<String, Traffic> entry : traffic.entrySet()) {
+      map.put(entry.getKey(), entry.getValue().toMap());
+    }
+    return map;
+  }
+
+  private static void record(String phase, long startNanos, long endNanos) {
+    if (startNanos > 0 && endNanos >= startNanos) {
+      latency.get(phase).add((endNanos - startNanos) / 1000);
+    }
+  }
+
+  private static Traffic traffic(Map<String, Traffic> traffic, String key) {
+    Traffic counters = traffic.get(key);
+    if (counters == null) {
+      if (traffic == hosts && hosts.size() >= MAX_HOSTS && !OTHER.equals(key)) {
+        return traffic(traffic, OTHER);
+      }
+      counters = new Traffic();
+      traffic.put(key, counters);
+    }
+    return counters;
+  }
+
+  /** Latencies in microseconds, bucketed by {@link #BUCKET_BOUNDS_MILLIS}. */
+  private static final class Histogram {
+    final long[] buckets = new long[BUCKET_BOUNDS_MILLIS.length + 1];
+    long count;
+    long sumMicros;
+    long maxMicros;
+
+    void add(long micros) {
+      int bucket = 0;
+      while (bucket < BUCKET_BOUNDS_MILLIS.length
+          && micros > BUCKET_BOUNDS_MILLIS[bucket] * 1000) {
+        bucket++;
+      }
+      buckets[bucket]++;
+      count++;
+      sumMicros += micros;
+      maxMicros = Math.max(maxMicros, micros);
+    }
+
+    /** Returns the upper bound of the bucket containing the quantile, or the max if beyond. */
+    double quantileMillis(double quantile) {
+      final long rank = (long) Math.ceil(quantile * count);
+      long seen = 0;
+      for (int i = 0; i < BUCKET_BOUNDS_MILLIS.length; i++) {
+        seen += buckets[i];
+        if (seen >= rank) {
+          return Math.min(BUCKET_BOUNDS_MILLIS[i], maxMicros / 1000.0);
+        }
+      }
+      return maxMicros / 1000.0;
+    }
+
+    Map<String, Object> toMap() {
+      final Map<String, Object> map = new HashMap<>(6);
+      final List<Long> counts = new ArrayList<>(buckets.length);
+      for (long bucket : buckets) {
+        counts.add(bucket);
+      }
+      map.put("buckets", counts);
+      map.put("count", count);
+      map.put("sumMillis", sumMicros / 1000.0);
+      map.put("maxMillis", maxMicros / 1000.0);
+      map.put("p50Millis", count > 0 ? quantileMillis(0.5) : 0.0);
+      map.put("p95Millis", count > 0 ? quantileMillis(0.95) : 0.0);
+      return map;
+    }
+  }
+
+  private static final class Traffic {
+    long requests;
+    long bytes;
+    long cacheHits;
+    long errors;
+    long canceled;
+
+    Map<String, Object> toMap() {
+      final Map<String, Object> map = new HashMap<>(5);
+      map.put("requests", requests);
+      map.put("bytes", bytes);
+      map.put("cacheHits", cacheHits);
+      map.put("errors", errors);
+      map.put("canceled", canceled);
+      return map;
+    }
+  }
+
+  /** Times one call. OkHttp delivers the events of a call sequentially. */
+  private static final class CallListener extends EventListener {
+    private final String host;
+    private final String resourceClass;
+    private long callStart;
+    private long dnsStart;
+    private long connectStart;
+    private long secureConnectStart;
+    private long firstByte;
+    private long bytes;
+    private boolean cacheHit;
+    private boolean httpError;
+
+    CallListener(HttpUrl url) {
+      this.host = url.host();
+      this.resourceClass = resourceClass(url);
+    }
+
+    @Override
+    public void callStart(Call call) {
+      callStart = System.nanoTime();
+    }
+
+    @Override
+    public void dnsStart(Call call, String domainName) {
+      dnsStart = System.nanoTime();
+    }
+
+    @Override
+    public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+      final long now = System.nanoTime();
+      synchronized (lock) {
+        record("dns", dnsStart, now);
+      }
+    }
+
+    @Override
+    public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+      connectStart = System.nanoTime();
+    }
+
+    @Override
+    public void secureConnectStart(Call call) {
+      secureConnectStart = System.nanoTime();
+    }
+
+    @Override
+    public void secureConnectEnd(Call call, @Nullable Handshake handshake) {
+      final long now = System.nanoTime();
+      synchronized (lock) {
+        record("tls", secureConnectStart, now);
+      }
+    }
+
+    @Override
+    public void connectEnd(
+        Call call,
+        InetSocketAddress inetSocketAddress,
+        Proxy proxy,
+        @Nullable Protocol protocol) {
+      final long now = System.nanoTime();
+      synchronized (lock) {
+        record("connect", connectStart, now);
+      }
+    }
+
+    @Override
+    public void responseHeadersStart(Call call) {
+      if (firstByte == 0) {
+        firstByte = System.nanoTime();
+      }
+    }
+
+    @Override
+    public void responseHeadersEnd(Call call, Response response) {
+      httpError = response.code() >= 400;
+    }
+
+    @Override
+    public void responseBodyEnd(Call call, long byteCount) {
+      bytes += byteCount;
+    }
+
+    @Override
+    public void cacheHit(Call call, Response cachedResponse) {
+      cacheHit = true;
+    }
+
+    @Override
+    public void cacheConditionalHit(Call call, Response cachedResponseWithNullBody) {
+      cacheHit = true;
+    }
+
+    @Override
+    public void callEnd(Call call) {
+      finish(httpError, false);
+    }
+
+    @Override
+    public void callFailed(Call call, IOException ioe) {
+      finish(!call.isCanceled(), call.isCanceled());
+    }
+
+    private void finish(boolean error, boolean canceled) {
+      final long now = System.nanoTime();
+      synchronized (lock) {
+        record("ttfb", callStart, firstByte);
+        record("total", callStart, now);
+        for (Traffic counters :
+            new Traffic[] {traffic(hosts, host), traffic(resources, resourceClass)}) {
+          counters.requests++;
+          counters.bytes += bytes;
+          if (cacheHit) {
+            counters.cacheHits++;
+          }
+          if (error) {
+            counters.errors++;
+          }
+          if (canceled) {
+            counters.canceled++;
+          }
+        }
+      }
+    }
+  }
+
+  /** Sends a snapshot every {@code intervalMillis}, an argument of the listen call. */
+  static final class StatsStream implements EventChannel.StreamHandler {
+    private static final long DEFAULT_INTERVAL_MILLIS = 1000;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    @Nullable private Runnable tick;
+
+    StatsStream(BinaryMessenger messenger) {
+      new EventChannel(messenger, CHANNEL_NAME).setStreamHandler(this);
+    }
+
+    @Override
+    public void onListen(Object arguments, EventChannel.EventSink events) {
+      long interval = DEFAULT_INTERVAL_MILLIS;
+      if (arguments instanceof Map && ((Map<?, ?>) arguments).get("intervalMillis") != null) {
+        interval = ((Number) ((Map<?, ?>) arguments).get("intervalMillis")).longValue();
+      }
+      final long intervalMillis = Math.max(100, interval);
+      stop();
+      tick =
+          new Runnable() {
+            @Override
+            public void run() {
+              events.success(getStats());
+              mainHandler.postDelayed(this, intervalMillis);
+            }
+          };
+      mainHandler.postDelayed(tick, intervalMillis);
+    }
+
+    @Override
+    public void onCancel(Object arguments) {
+      stop();
+    }
+
+    private void stop() {
+      if (tick != null) {
+        mainHandler.removeCallbacks(tick);
+        tick = null;
+      }
+    }
+  }
+}
@@ -0,0 +1,243 @@
+package com.trackasia.trackasiagl;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.trackasia.android.geometry.LatLngBounds;
+import com.trackasia.android.offline.OfflineManager;
+import com.trackasia.android.offline.OfflineRegion;
+import com.trackasia.android.offline.OfflineRegionStatus;
+import io.flutter.plugin.common.MethodChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the offline regions within a storage budget.
+ *
+ * <p>A region is used when the camera comes to rest over its bounds, or when its download
+ * completes. Once the completed sizes of the regions add up to more than the budget, the least
+ * recently used regions are deleted until they fit again. The ambient cache is not counted, as
+ * deleting regions cannot shrink it; its size is limited separately. Regions used before the
+ * manager tracked them count as never used and are evicted first. Downloading regions and pinned
+ * regions, such as those waiting in the download queue, are never evicted. The budget is checked
+ * when it is set and after every completed download.
+ */
+abstract class OfflineCacheManager {
+  private static final String TAG = "OfflineCacheManager";
+  private static final String PREFERENCES_NAME = "trackasia_gl_offline_usage";
+  // Last-use times are persisted at most this often per region.
+  private static final long USE_RESOLUTION_MILLIS = 60_000;
+  private static final long NO_BUDGET = -1;
+
+  private static long storageBudget = NO_BUDGET;
+  @Nullable private static Map<Long, Long> lastUse;
+  // Pin counts by region id, accessed on the main thread only.
+  private static final Map<Long, Integer> pinned = new HashMap<>();
+  private static boolean evicting = false;
+
+  interface EvictionCallback {
+    void onEvicted(List<Long> regionIds);
+  }
+
+  /**
+   * Sets the maximum ambient cache size, if not null, and the storage budget of the offline
+   * regions, or disables it if {@code storageBudget} is negative. Replies with the ids of the
+   * regions evicted to meet the budget.
+   */
+  static void setCacheBudget(
+      MethodChannel.Result result,
+      Context context,
+      @Nullable Long maximumAmbientCacheSize,
+      long storageBudget) {
+    OfflineCacheManager.storageBudget = storageBudget < 0 ? NO_BUDGET : storageBudget;
+    if (maximumAmbientCacheSize == null) {
+      enforceBudget(context, result::success);
+      return;
+    }
+    OfflineManager.Companion.getInstance(context)
+        .setMaximumAmbientCacheSize(
+            maximumAmbientCacheSize,
+            new OfflineManager.FileSourceCallback() {
+              @Override
+              public void onSuccess() {
+                enforceBudget(context, result::success);
+              }
+
+              @Override
+              public void onError(@NonNull String message) {
+                result.error("MAPBOX CACHE ERROR", message, null);
+              }
+            });
+  }
+
+  /** Marks the regions intersecting the bounds the camera came to rest over as used. */
+  static void onCameraIdle(Context context, LatLngBounds visibleBounds) {
+    OfflineRegionCatalog.load(
+        context,
+        new OfflineRegionCatalog.Callback() {
+          @Override
+          public void onLoaded() {
+            for (OfflineRegionCatalog.Entry entry : OfflineRegionCatalog.all()) {
+              if (intersects(entry.region.getDefinition().getBounds(), visibleBounds)) {
+                markUsed(context, entry.region.getId());
+              }
+            }
+          }
+
+          @Override
+          public void onError(String error) {}
+        });
+  }
+
+  static void markUsed(Context context, long regionId) {
+    final Map<Long, Long> usage = lastUse(context);
+    final long now = System.currentTimeMillis();
+    final Long previous = usage.get(regionId);
+    if (previous != null && now - previous < USE_RESOLUTION_MILLIS) {
+      return;
+    }
+    usage.put(regionId, now);
+    preferences(context).edit().putLong(String.valueOf(regionId), now).apply();
+  }
+
+  /** Keeps the region from being evicted until it is {@link #unpin unpinned} as often. */
+  static void pin(long regionId) {
+    final Integer count = pinned.get(regionId);
+    pinned.put(regionId, count != null ? count + 1 : 1);
+  }
+
+  static void unpin(long regionId) {
+    final Integer count = pinned.get(regionId);
+    if (count == null || count <= 1) {
+      pinned.remove(regionId);
+    } else {
+      pinned.put(regionId, count - 1);
+    }
+  }
+
+  /** Drops the last-use time of a deleted region. */
+  static void forget(Context context, long regionId) {
+    lastUse(context).remove(regionId);
+    preferences(context).edit().remove(String.valueOf(regionId)).apply();
+  }
+
+  /** Evicts least recently used regions if the regions exceed the budget. */
+  static void enforceBudget(Context context, EvictionCallback callback) {
+    if (storageBudget == NO_BUDGET || evicting) {
+      callback.onEvicted(Collections.emptyList());
+      return;
+    }
+    evicting = true;
+    OfflineStorageStats.readStatuses(
+        context,
+        new OfflineStorageStats.StatusesCallback() {
+          @Override
+          public void onStatuses(List<OfflineRegion> regions, OfflineRegionStatus[] statuses) {
+            final Map<Long, Long> usage = lastUse(context);
+            final Map<OfflineRegion, Long> sizes = new HashMap<>();
+            final List<OfflineRegion> candidates = new ArrayList<>();
+            long regionsSize = 0;
+            for (int i = 0; i < regions.size(); i++) {
+              final OfflineRegionStatus status = statuses[i];
+              if (status == null) {
+                continue;
+              }
+              regionsSize += status.getCompletedResourceSize();
+              if (status.getDownloadState() == OfflineRegion.STATE_INACTIVE
+                  && !pinned.containsKey(regions.get(i).getId())) {
+                candidates.add(regions.get(i));
+                sizes.put(regions.get(i), status.getCompletedResourceSize());
+              }
+            }
+            Collections.sort(
+                candidates,
+                (a, b) -> Long.compare(lastUseOf(usage, a.getId()), lastUseOf(usage, b.getId())));
+            evict(context, candidates, sizes, regionsSize, new ArrayList<>(), callback);
+          }
+
+          @Override
+          public void onError(String error) {
+            Log.e(TAG, "Could not read the offline regions: " + error);
+            evicting = false;
+            callback.onEvicted(Collections.emptyList());
+          }
+        });
+  }
+
+  /**
+   * Deletes the first candidate while the size of the regions exceeds the budget. Resources shared
+   * by several regions are counted once per region, so a region is evicted even if the space it
+   * frees is smaller than its size.
+   */
+  private static void evict(
+      Context context,
+      List<OfflineRegion> candidates,
+      Map<OfflineRegion, Long> sizes,
+      long estimatedSize,
+      List<Long> evicted,
+      EvictionCallback callback) {
+    if (estimatedSize <= storageBudget || candidates.isEmpty()) {
+      evicting = false;
+      callback.onEvicted(evicted);
+      return;
+    }
+    final OfflineRegion region = candidates.remove(0);
+    region.delete(
+        new OfflineRegion.OfflineRegionDeleteCallback() {
+          @Override
+          public void onDelete() {
+            final long id = region.getId();
+            Log.i(TAG, "Evicted offline region " + id);
+            OfflineRegionCatalog.remove(id);
+            forget(context, id);
+            evicted.add(id);
+            evict(
+                context,
+                candidates,
+                sizes,
+                estimatedSize - sizes.get(region),
+                evicted,
+                callback);
+          }
+
+          @Override
+          public void onError(String error) {
+            Log.e(TAG, "Could not evict offline region " + region.getId() + ": " + error);
+            evict(context, candidates, sizes, estimatedSize, evicted, callback);
+          }
+        });
+  }
+
+  private static boolean intersects(LatLngBounds a, LatLngBounds b) {
+    return a.getLatSouth() <= b.getLatNorth()
+        && a.getLatNorth() >= b.getLatSouth()
+        && a.getLonWest() <= b.getLonEast()
+        && a.getLonEast() >= b.getLonWest();
+  }
+
+  private static long lastUseOf(Map<Long, Long> usage, long regionId) {
+    final Long time = usage.get(regionId);
+    return time != null ? time : 0;
+  }
+
+  private static Map<Long, Long> lastUse(Context context) {
+    if (lastUse == null) {
+      lastUse = new HashMap<>();
+      for (Map.Entry<String, ?> entry : preferences(context).getAll().entrySet()) {
+        if (entry.getValue() instanceof Long) {
+          lastUse.put(Long.parseLong(entry.getKey()), (Long) entry.getValue());
+        }
+      }
+    }
+    return lastUse;
+  }
+
+  private static SharedPreferences preferences(Context context) {
+    return context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+  }
+}
@@ -1,7 +1,6 @@
 package com.trackasia.trackasiagl;
 
 import androidx.annotation.Nullable;
-import com.google.gson.Gson;
 import io.flutter.plugin.common.BinaryMessenger;
 import io.flutter.plugin.common.EventChannel;
 import java.util.HashMap;
@@ -9,7 +8,6 @@ import java.util.Map;
 
 public class OfflineChannelHandlerImpl implements EventChannel.StreamHandler {
   private EventChannel.EventSink sink;
-  private Gson gson = new Gson();
 
   OfflineChannelHandlerImpl(BinaryMessenger messenger, String channelName) {
     EventChannel eventChannel = new EventChannel(messenger, channelName);
@@ -35,21 +33,19 @@ public class OfflineChannelHandlerImpl implements EventChannel.StreamHandler {
     if (sink == null) return;
     Map<String, Object> body = new HashMap<>();
     body.put("status", "success");
-    sink.success(gson.toJson(body));
+    sink.success(body);
   }
 
   void onStart() {
     if (sink == null) return;
     Map<String, Object> body = new HashMap<>();
     body.put("status", "start");
-    sink.success(gson.toJson(body));
+    sink.success(body);
   }
 
-  void onProgress(double progress) {
+  /** Sends a progress event created by {@link OfflineProgressTracker}. */
+  void onProgress(Map<String, Object> event) {
     if (sink == null) return;
-    Map<String, Object> body = new HashMap<>();
-    body.put("status", "progress");
-    body.put("progress", progress);
-    sink.success(gson.toJson(body));
+    sink.success(event);
   }
 }
@@ -0,0 +1,347 @@
+package com.trackasia.trackasiagl;
+
+import android.content.Context;
+import android.util.Log;
+import androidx.annotation.Nullable;
+import com.google.gson.Gson;
+import com.trackasia.android.offline.OfflineManager;
+import com.trackasia.android.offline.OfflineRegion;
+import com.trackasia.android.offline.OfflineRegionDefinition;
+import com.trackasia.android.offline.OfflineRegionError;
+import com.trackasia.android.offline.OfflineRegionStatus;
+import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.EventChannel;
+import io.flutter.plugin.common.MethodChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Queues offline region downloads and runs at most {@code maxActive} of them at the same time.
+ *
+ * <p>Regions are created in the offline database as soon as they are enqueued, so they have an id
+ * that can be used to pause, resume, cancel or reprioritize them while they wait. Queued regions
+ * start in order of descending priority, and in the order they were enqueued within the same
+ * priority. Events of all regions are sent over one EventChannel as maps carrying the region id.
+ *
+ * <p>All methods must be called on the main thread, which is also where the offline manager
+ * reports region status.
+ */
+final class OfflineDownloadScheduler implements EventChannel.StreamHandler {
+  private static final String TAG = "OfflineDownloadScheduler";
+  static final String CHANNEL_NAME = "plugins.flutter.io/trackasia_gl_offline_downloads";
+  private static final int DEFAULT_MAX_ACTIVE = 2;
+
+  private static final String STATE_QUEUED = "queued";
+  private static final String STATE_ACTIVE = "active";
+  private static final String STATE_PAUSED = "paused";
+
+  private final Context context;
+  private final Map<Long, Download> downloads = new LinkedHashMap<>();
+  private int maxActive = DEFAULT_MAX_ACTIVE;
+  private long nextSequence = 0;
+  @Nullable private EventChannel.EventSink sink;
+
+  private final class Download {
+    final OfflineRegion region;
+    final long sequence = nextSequence++;
+    int priority;
+    String state = STATE_QUEUED;
+    double progress = 0;
+    final OfflineProgressTracker progressTracker = new OfflineProgressTracker();
+
+    Download(OfflineRegion region, int priority) {
+      this.region = region;
+      this.priority = priority;
+    }
+  }
+
+  OfflineDownloadScheduler(Context context, BinaryMessenger messenger) {
+    this.context = context;
+    new EventChannel(messenger, CHANNEL_NAME).setStreamHandler(this);
+  }
+
+  @Override
+  public void onListen(Object arguments, EventChannel.EventSink events) {
+    sink = events;
+  }
+
+  @Override
+  public void onCancel(Object arguments) {
+    sink = null;
+  }
+
+  /** Receives the region created by {@link #enqueue}. */
+  interface EnqueueCallback {
+    void onEnqueued(OfflineRegion region);
+
+    void onError(String error);
+  }
+
+  /** Creates the region and queues its download. Replies with the region as JSON. */
+  void enqueue(
+      MethodChannel.Result result,
+      Map<String, Object> definitionMap,
+      Map<String, Object> metadataMap,
+      int priority) {
+    final float pixelDensity = context.getResources().getDisplayMetrics().density;
+    final OfflineRegionDefinition definition;
+    try {
+      definition = OfflineManagerUtils.mapToRegionDefinition(definitionMap, pixelDensity);
+    } catch (RuntimeException e) {
+      result.error("mapboxInvalidRegionDefinition", e.getMessage(), null);
+      return;
+    }
+    enqueue(
+        definition,
+        metadataMap,
+        priority,
+        new EnqueueCallback() {
+          @Override
+          public void onEnqueued(OfflineRegion region) {
+            result.success(OfflineRegionCatalog.put(region).toJson());
+          }
+
+          @Override
+          public void onError(String error) {
+            result.error("mapboxInvalidRegionDefinition", error, null);
+          }
+        });
+  }
+
+  /** Creates the region and queues its download. */
+  void enqueue(
+      OfflineRegionDefinition definition,
+      @Nullable Map<String, Object> metadataMap,
+      int priority,
+      EnqueueCallback callback) {
+    final String metadata = metadataMap != null ? new Gson().toJson(metadataMap) : "{}";
+    OfflineManager.Companion.getInstance(context)
+        .createOfflineRegion(
+            definition,
+            metadata.getBytes(),
+            new OfflineManager.CreateOfflineRegionCallback() {
+              @Override
+              public void onCreate(OfflineRegion offlineRegion) {
+                final Download download = new Download(offlineRegion, priority);
+                downloads.put(offlineRegion.getId(), download);
+                OfflineCacheManager.pin(offlineRegion.getId());
+                callback.onEnqueued(offlineRegion);
+                sendEvent(download, STATE_QUEUED, null);
+                schedule();
+              }
+
+              @Override
+              public void onError(String error) {
+                Log.e(TAG, "Error: " + error);
+                callback.onError(error);
+              }
+            });
+  }
+
+  void setMaxActive(int maxActive) {
+    this.maxActive = Math.max(1, maxActive);
+    // Lowering the limit lets running downloads finish, raising it starts queued ones right away.
+    schedule();
+  }
+
+  boolean pause(long id) {
+    final Download download = downloads.get(id);
+    if (download == null) {
+      return false;
+    }
+    if (!STATE_PAUSED.equals(download.state)) {
+      if (STATE_ACTIVE.equals(download.state)) {
+        download.region.setDownloadState(OfflineRegion.STATE_INACTIVE);
+      }
+      download.state = STATE_PAUSED;
+      sendEvent(download, STATE_PAUSED, null);
+      schedule();
+    }
+    return true;
+  }
+
+  boolean resume(long id) {
+    final Download download = downloads.get(id);
+    if (download == null) {
+      return false;
+    }
+    if (STATE_PAUSED.equals(download.state)) {
+      download.state = STATE_QUEUED;
+      sendEvent(download, STATE_QUEUED, null);
+      schedule();
+    }
+    return true;
+  }
+
+  boolean setPriority(long id, int priority) {
+    final Download download = downloads.get(id);
+    if (download == null) {
+      return false;
+    }
+    download.priority = priority;
+    schedule();
+    return true;
+  }
+
+  /**
+   * Stops and forgets the download of a region. With {@code delete} the partially downloaded
+   * region is removed from the offline database as well.
+   */
+  void cancel(MethodChannel.Result result, long id, boolean delete) {
+    if (!discard(id)) {
+      result.error("DownloadNotFound", "There is no queued download for region " + id, null);
+      return;
+    }
+    if (delete) {
+      OfflineManagerUtils.deleteRegion(result, context, id);
+    } else {
+      result.success(null);
+    }
+  }
+
+  /** Stops and forgets the download of a region. Returns false if it was not queued. */
+  boolean discard(long id) {
+    final Download download = downloads.remove(id);
+    if (download == null) {
+      return false;
+    }
+    OfflineCacheManager.unpin(id);
+    download.region.setDownloadState(OfflineRegion.STATE_INACTIVE);
+    sendEvent(download, "cancelled", null);
+    schedule();
+    return true;
+  }
+
+  /** Returns the state, priority and progress of every download that has not finished yet. */
+  List<Map<String, Object>> getQueue() {
+    final List<Map<String, Object>> queue = new ArrayList<>(downloads.size());
+    for (Download download : downloads.values()) {
+      final Map<String, Object> entry = new HashMap<>(4);
+      entry.put("id", download.region.getId());
+      entry.put("state", download.state);
+      entry.put("priority", download.priority);
+      entry.put("progress", download.progress);
+      queue.add(entry);
+    }
+    return queue;
+  }
+
+  private void schedule() {
+    int active = 0;
+    for (Download download : downloads.values()) {
+      if (STATE_ACTIVE.equals(download.state)) {
+        active++;
+      }
+    }
+    while (active < maxActive) {
+      final Download next = nextQueued();
+      if (next == null) {
+        return;
+      }
+      start(next);
+      active++;
+    }
+  }
+
+  @Nullable
+  private Download nextQueued() {
+    Download next = null;
+    for (Download download : downloads.values()) {
+      if (STATE_QUEUED.equals(download.state)
+          && (next == null
+              || download.priority > next.priority
+              || (download.priority == next.priority && download.sequence < next.sequence))) {
+        next = download;
+      }
+    }
+    return next;
+  }
+
+  private void start(Download download) {
+    download.state = STATE_ACTIVE;
+    final OfflineRegion region = download.region;
+    region.setObserver(
+        new OfflineRegion.OfflineRegionObserver() {
+          @Override
+          public void onStatusChanged(OfflineRegionStatus status) {
+            if (downloads.get(region.getId()) != download) {
+              return;
+            }
+            if (status.isComplete()) {
+              OfflineRegionEstimator.recordCompletedDownload(
+                  context, region.getDefinition(), status);
+              OfflineStorageStats.recordDownloadCompleted(context);
+              OfflineCacheManager.markUsed(context, region.getId());
+              // Reported before the next region starts, so listeners see one region at a time.
+              sendEvent(download, "success", null);
+              finish(download);
+              OfflineCacheManager.enforceBudget(context, evicted -> {});
+            } else if (STATE_ACTIVE.equals(download.state)) {
+              final long required = status.getRequiredResourceCount();
+              download.progress =
+                  required > 0 ? 100.0 * status.getCompletedResourceCount() / required : 0.0;
+              final Map<String, Object> event = download.progressTracker.onStatusChanged(status);
+              if (event != null) {
+                sendEvent(download, "progress", event);
+              }
+            }
+          }
+
+          @Override
+          public void onError(OfflineRegionError error) {
+            Log.e(TAG, "Region " + region.getId() + " error: " + error.getMessage());
+            if (downloads.get(region.getId()) != download) {
+              return;
+            }
+            sendError(download, "Downloading error", error.getMessage(), error.getReason());
+            finish(download);
+          }
+
+          @Override
+          public void mapboxTileCountLimitExceeded(long limit) {
+            Log.e(TAG, "TrackAsia tile count limit exceeded: " + limit);
+            if (downloads.get(region.getId()) != download) {
+              return;
+            }
+            sendError(
+                download,
+                "mapboxTileCountLimitExceeded",
+                "TrackAsia tile count limit exceeded: " + limit,
+                null);
+            finish(download);
+            OfflineManagerUtils.deleteRegion(null, context, region.getId());
+          }
+        });
+    region.setDownloadState(OfflineRegion.STATE_ACTIVE);
+    sendEvent(download, "start", null);
+  }
+
+  private void finish(Download download) {
+    download.region.setDownloadState(OfflineRegion.STATE_INACTIVE);
+    downloads.remove(download.region.getId());
+    OfflineCacheManager.unpin(download.region.getId());
+    schedule();
+  }
+
+  private void sendEvent(Download download, String status, @Nullable Map<String, Object> fields) {
+    if (sink == null) return;
+    final Map<String, Object> event = fields != null ? fields : new HashMap<>(2);
+    event.put("regionId", download.region.getId());
+    event.put("status", status);
+    sink.success(event);
+  }
+
+  private void sendError(Download download, String code, String message, String reason) {
+    if (sink == null) return;
+    final Map<String, Object> event = new HashMap<>(5);
+    event.put("regionId", download.region.getId());
+    event.put("status", "error");
+    event.put("code", code);
+    event.put("message", message);
+    event.put("reason", reason);
+    sink.success(event);
+  }
+}
@@ -0,0 +1,288 @@
+package com.trackasia.trackasiagl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Tile cover of polygons and buffered lines.
+ *
+ * <p>Coordinates are passed as flat {@code [lng0, lat0, lng1, lat1, ...]} arrays, so the math has
+ * no dependency on the SDK and can be exercised on a plain JVM. The cover of a zoom level is kept
+ * as runs of consecutive tiles per tile row.
+ */
+abstract class OfflineGeometryCover {
+  private static final double EARTH_CIRCUMFERENCE_METERS = 40075016.686;
+  // Inset of the run rectangles, in tile units, so they do not touch the neighbouring tiles.
+  private static final double RUN_INSET = 1e-6;
+
+  /** Tiles of one zoom level as runs {@code [startX, endX]} (inclusive) of tile rows. */
+  static final class Cover {
+    final int zoom;
+    final int[] rows;
+    final int[] starts;
+    final int[] ends;
+
+    private Cover(int zoom, int[] rows, int[] starts, int[] ends) {
+      this.zoom = zoom;
+      this.rows = rows;
+      this.starts = starts;
+      this.ends = ends;
+    }
+
+    long tileCount() {
+      long count = 0;
+      for (int i = 0; i < rows.length; i++) {
+        count += ends[i] - starts[i] + 1;
+      }
+      return count;
+    }
+
+    /**
+     * Returns the number of tiles of this cover in the columns {@code minX} to {@code maxX} and
+     * the rows {@code minY} to {@code maxY}, inclusive.
+     */
+    long tileCount(long minX, long maxX, long minY, long maxY) {
+      long count = 0;
+      for (int i = 0; i < rows.length; i++) {
+        if (rows[i] >= minY && rows[i] <= maxY) {
+          count += Math.max(0, Math.min(ends[i], maxX) - Math.max(starts[i], minX) + 1);
+        }
+      }
+      return count;
+    }
+
+    /** Returns the number of tiles in both this cover and {@code other}, of the same zoom. */
+    long sharedTileCount(Cover other) {
+      long count = 0;
+      int i = 0;
+      int j = 0;
+      // Runs are ordered by row and then by column, and do not overlap within a row.
+      while (i < rows.length && j < other.rows.length) {
+        if (rows[i] != other.rows[j]) {
+          if (rows[i] < other.rows[j]) {
+            i++;
+          } else {
+            j++;
+          }
+          continue;
+        }
+        count +=
+            Math.max(
+                0, Math.min(ends[i], other.ends[j]) - Math.max(starts[i], other.starts[j]) + 1);
+        if (ends[i] < other.ends[j]) {
+          i++;
+        } else {
+          j++;
+        }
+      }
+      return count;
+    }
+
+    /**
+     * Returns one rectangle {@code [west, south, east, north]} per run, slightly inset so that the
+     * tile cover of the rectangles at {@link #zoom} is exactly this cover.
+     */
+    List<double[]> rectangles() {
+      final List<double[]> rectangles = new ArrayList<>(rows.length);
+      for (int i = 0; i < rows.length; i++) {
+        rectangles.add(
+            new double[] {
+              unprojectX(starts[i] + RUN_INSET, zoom),
+              unprojectY(rows[i] + 1 - RUN_INSET, zoom),
+              unprojectX(ends[i] + 1 - RUN_INSET, zoom),
+              unprojectY(rows[i] + RUN_INSET, zoom)
+            });
+      }
+      return rectangles;
+    }
+  }
+
+  /**
+   * Returns the tiles of {@code zoom} intersecting the polygons. Each polygon is a list of rings,
+   * the first being the outer ring; holes are handled with the even-odd rule.
+   */
+  static Cover polygons(List<List<double[]>> polygons, int zoom) {
+    final Spans spans = new Spans(zoom);
+    final List<double[]> edges = new ArrayList<>();
+    for (List<double[]> polygon : polygons) {
+      for (double[] ring : polygon) {
+        final double[] projected = project(ring, zoom);
+        final int points = projected.length / 2;
+        for (int i = 0; i < points; i++) {
+          final int j = (i + 1) % points;
+          edges.add(
+              new double[] {
+                projected[2 * i], projected[2 * i + 1], projected[2 * j], projected[2 * j + 1]
+              });
+        }
+      }
+    }
+    if (edges.isEmpty()) {
+      return spans.toCover();
+    }
+
+    double minY = Double.POSITIVE_INFINITY;
+    double maxY = Double.NEGATIVE_INFINITY;
+    for (double[] edge : edges) {
+      minY = Math.min(minY, Math.min(edge[1], edge[3]));
+      maxY = Math.max(maxY, Math.max(edge[1], edge[3]));
+    }
+    final double[] crossings = new double[edges.size()];
+    for (int row = spans.clampRow(minY); row <= spans.clampRow(maxY); row++) {
+      // Tiles the outline passes through.
+      for (double[] edge : edges) {
+        addClippedSegment(spans, row, row, row + 1, edge[0], edge[1], edge[2], edge[3], 0);
+      }
+      // Tiles fully inside, found on the center line of the row.
+      final double center = row + 0.5;
+      int count = 0;
+      for (double[] edge : edges) {
+        if ((edge[1] <= center) != (edge[3] <= center)) {
+          crossings[count++] =
+              edge[0] + (center - edge[1]) * (edge[2] - edge[0]) / (edge[3] - edge[1]);
+        }
+      }
+      Arrays.sort(crossings, 0, count);
+      for (int i = 0; i + 1 < count; i += 2) {
+        spans.add(row, crossings[i], crossings[i + 1]);
+      }
+    }
+    return spans.toCover();
+  }
+
+  /**
+   * Returns the tiles of {@code zoom} within {@code bufferMeters} of the lines. The buffer of
+   * each segment is converted to tile units at the latitude of its midpoint, and the row extent of
+   * a segment is widened by the full buffer, which may add a tile at the ends of a run.
+   */
+  static Cover corridor(List<double[]> lines, double bufferMeters, int zoom) {
+    final Spans spans = new Spans(zoom);
+    final double tilesPerMeterAtEquator = Math.pow(2, zoom) / EARTH_CIRCUMFERENCE_METERS;
+    for (double[] line : lines) {
+      final double[] projected = project(line, zoom);
+      final int points = projected.length / 2;
+      for (int i = 0; i < Math.max(1, points - 1); i++) {
+        final int j = Math.min(i + 1, points - 1);
+        final double latitude = (line[2 * i + 1] + line[2 * j + 1]) / 2;
+        final double buffer =
+            bufferMeters * tilesPerMeterAtEquator / Math.cos(Math.toRadians(latitude));
+        final double x0 = projected[2 * i];
+        final double y0 = projected[2 * i + 1];
+        final double x1 = projected[2 * j];
+        final double y1 = projected[2 * j + 1];
+        final int first = spans.clampRow(Math.min(y0, y1) - buffer);
+        final int last = spans.clampRow(Math.max(y0, y1) + buffer);
+        for (int row = first; row <= last; row++) {
+          addClippedSegment(spans, row, row - buffer, row + 1 + buffer, x0, y0, x1, y1, buffer);
+        }
+      }
+    }
+    return spans.toCover();
+  }
+
+  /**
+   * Adds the x extent of the part of the segment between {@code top} and {@code bottom},
+   * widened by {@code padding}, to {@code row}.
+   */
+  private static void addClippedSegment(
+      Spans spans,
+      int row,
+      double top,
+      double bottom,
+      double x0,
+      double y0,
+      double x1,
+      double y1,
+      double padding) {
+    if (Math.max(y0, y1) < top || Math.min(y0, y1) > bottom) {
+      return;
+    }
+    double from = x0;
+    double to = x1;
+    if (y0 != y1) {
+      final double t0 = clamp((top - y0) / (y1 - y0), 0, 1);
+      final double t1 = clamp((bottom - y0) / (y1 - y0), 0, 1);
+      from = x0 + t0 * (x1 - x0);
+      to = x0 + t1 * (x1 - x0);
+    }
+    spans.add(row, Math.min(from, to) - padding, Math.max(from, to) + padding);
+  }
+
+  static double[] project(double[] lngLats, int zoom) {
+    final double[] projected = new double[lngLats.length];
+    for (int i = 0; i + 1 < lngLats.length; i += 2) {
+      projected[i] = OfflineTileCover.projectX(lngLats[i], zoom);
+      projected[i + 1] = OfflineTileCover.projectY(lngLats[i + 1], zoom);
+    }
+    return projected;
+  }
+
+  static double unprojectX(double x, int zoom) {
+    return x / Math.pow(2, zoom) * 360 - 180;
+  }
+
+  static double unprojectY(double y, int zoom) {
+    final double n = Math.PI * (1 - 2 * y / Math.pow(2, zoom));
+    return Math.toDegrees(Math.atan(Math.sinh(n)));
+  }
+
+  private static double clamp(double value, double min, double max) {
+    return Math.max(min, Math.min(max, value));
+  }
+
+  /** Collects and merges the tile spans of each row. */
+  private static final class Spans {
+    private final int zoom;
+    private final int maxTile;
+    private final TreeMap<Integer, List<int[]>> rows = new TreeMap<>();
+
+    Spans(int zoom) {
+      this.zoom = zoom;
+      this.maxTile = (1 << zoom) - 1;
+    }
+
+    int clampRow(double y) {
+      return (int) clamp(Math.floor(y), 0, maxTile);
+    }
+
+    void add(int row, double fromX, double toX) {
+      final int start = (int) clamp(Math.floor(fromX), 0, maxTile);
+      final int end = (int) clamp(Math.floor(toX), 0, maxTile);
+      List<int[]> spans = rows.get(row);
+      if (spans == null) {
+        spans = new ArrayList<>();
+        rows.put(row, spans);
+      }
+      spans.add(new int[] {start, end});
+    }
+
+    Cover toCover() {
+      final List<int[]> runs = new ArrayList<>();
+      for (Map.Entry<Integer, List<int[]>> entry : rows.entrySet()) {
+        final List<int[]> spans = entry.getValue();
+        spans.sort((a, b) -> Integer.compare(a[0], b[0]));
+        int[] current = null;
+        for (int[] span : spans) {
+          if (current != null && span[0] <= current[2] + 1) {
+            current[2] = Math.max(current[2], span[1]);
+          } else {
+            current = new int[] {entry.getKey(), span[0], span[1]};
+            runs.add(current);
+          }
+        }
+      }
+      final int[] runRows = new int[runs.size()];
+      final int[] starts = new int[runs.size()];
+      final int[] ends = new int[runs.size()];
+      for (int i = 0; i < runs.size(); i++) {
+        runRows[i] = runs.get(i)[0];
+        starts[i] = runs.get(i)[1];
+        ends[i] = runs.get(i)[2];
+      }
+      return new Cover(zoom, runRows, starts, ends);
+    }
+  }
+}
@@ -1,19 +1,28 @@
 package com.trackasia.trackasiagl;
 
 import android.content.Context;
+import android.net.TrafficStats;
+import android.os.Process;
 import android.util.Log;
+import androidx.annotation.Nullable;
 import com.google.gson.Gson;
 import com.trackasia.android.geometry.LatLng;
 import com.trackasia.android.geometry.LatLngBounds;
+import com.trackasia.android.offline.OfflineGeometryRegionDefinition;
 import com.trackasia.android.offline.OfflineManager;
 import com.trackasia.android.offline.OfflineRegion;
 import com.trackasia.android.offline.OfflineRegionDefinition;
 import com.trackasia.android.offline.OfflineRegionError;
 import com.trackasia.android.offline.OfflineRegionStatus;
 import com.trackasia.android.offline.OfflineTilePyramidRegionDefinition;
+import com.trackasia.geojson.Geometry;
+import com.trackasia.geojson.MultiPolygon;
+import com.trackasia.geojson.Point;
+import com.trackasia.geojson.Polygon;
 import io.flutter.plugin.common.MethodChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -21,6 +30,11 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 abstract class OfflineManagerUtils {
   private static final String TAG = "OfflineManagerUtils";
+  private static final Gson gson = new Gson();
+  // Zoom at which line corridors are rasterized; higher zooms download whole child tiles.
+  static final int CORRIDOR_MAX_ZOOM = 16;
+  // Default of the native offline database.
+  private static long offlineTileCountLimit = 6000;
 
   static void mergeRegions(MethodChannel.Result result, Context context, String path) {
     OfflineManager.Companion.getInstance(context)
@@ -28,13 +42,13 @@ abstract class OfflineManagerUtils {
             path,
             new OfflineManager.MergeOfflineRegionsCallback() {
               public void onMerge(OfflineRegion[] offlineRegions) {
-                if (result == null) return;
-                List<Map<String, Object>> regionsArgs = new ArrayList<>();
+                StringBuilder json = new StringBuilder("[");
                 for (OfflineRegion offlineRegion : offlineRegions) {
-                  regionsArgs.add(offlineRegionToMap(offlineRegion));
+                  if (json.length() > 1) json.append(',');
+                  json.append(OfflineRegionCatalog.put(offlineRegion).toJson());
                 }
-                String json = new Gson().toJson(regionsArgs);
-                result.success(json);
+                if (result == null) return;
+                result.success(json.append(']').toString());
               }
 
               public void onError(String error) {
@@ -46,9 +60,14 @@ abstract class OfflineManagerUtils {
 
   static void setOfflineTileCountLimit(MethodChannel.Result result, Context context, long limit) {
     OfflineManager.Companion.getInstance(context).setOfflineMapboxTileCountLimit(limit);
+    offlineTileCountLimit = limit;
     result.success(null);
   }
 
+  static long getOfflineTileCountLimit() {
+    return offlineTileCountLimit;
+  }
+
   static void downloadRegion(
       MethodChannel.Result result,
       Context context,
@@ -59,90 +78,32 @@ abstract class OfflineManagerUtils {
     OfflineRegionDefinition definition = mapToRegionDefinition(definitionMap, pixelDensity);
     String metadata = "{}";
     if (metadataMap != null) {
-      metadata = new Gson().toJson(metadataMap);
+      metadata = gson.toJson(metadataMap);
     }
-    AtomicBoolean isComplete = new AtomicBoolean(false);
     // Download region
     OfflineManager.Companion.getInstance(context)
         .createOfflineRegion(
             definition,
             metadata.getBytes(),
             new OfflineManager.CreateOfflineRegionCallback() {
-              private OfflineRegion _offlineRegion;
-
               @Override
               public void onCreate(OfflineRegion offlineRegion) {
-                Map<String, Object> regionData = offlineRegionToMap(offlineRegion);
-                result.success(new Gson().toJson(regionData));
-
-                _offlineRegion = offlineRegion;
-                // Observe downloading state
-                OfflineRegion.OfflineRegionObserver observer =
-                    new OfflineRegion.OfflineRegionObserver() {
+                result.success(OfflineRegionCatalog.put(offlineRegion).toJson());
+                startDownload(
+                    context,
+                    offlineRegion,
+                    channelHandler,
+                    true,
+                    new DownloadListener() {
                       @Override
-                      public void onStatusChanged(OfflineRegionStatus status) {
-                        // Calculate progress of
-                        // downloading
-                        double progress =
-                            calculateDownloadingProgress(
-                                status.getRequiredResourceCount(),
-                                status.getCompletedResourceCount());
-                        // Check if downloading is
-                        // complete
-                        if (status.isComplete()) {
-                          Log.i(TAG, "Region " + "downloaded " + "successfully.");
-                          // Reset downloading state
-                          _offlineRegion.setDownloadState(OfflineRegion.STATE_INACTIVE);
-                          // This can be called
-                          // multiple times, and
-                          // result can be called
-                          // only once,
-                          // so there is need to
-                          // prevent it
-                          if (isComplete.get()) return;
-                          isComplete.set(true);
-                          channelHandler.onSuccess();
-                        } else {
-                          Log.i(TAG, "Region " + "download " + "progress = " + progress);
-                          channelHandler.onProgress(progress);
-                        }
+                      public void onComplete(OfflineRegionStatus status) {
+                        OfflineRegionEstimator.recordCompletedDownload(
+                            context, offlineRegion.getDefinition(), status);
                       }
 
                       @Override
-                      public void onError(OfflineRegionError error) {
-                        Log.e(TAG, "onError reason: " + error.getReason());
-                        Log.e(TAG, "onError message: " + error.getMessage());
-                        // Reset downloading state
-                        _offlineRegion.setDownloadState(OfflineRegion.STATE_INACTIVE);
-                        isComplete.set(true);
-                        channelHandler.onError(
-                            "Downloading error", error.getMessage(), error.getReason());
-                      }
-
-                      @Override
-                      public void mapboxTileCountLimitExceeded(long limit) {
-                        Log.e(TAG, "TrackAsia tile count" + " limit exceeded: " + limit);
-                        // Reset downloading state
-                        _offlineRegion.setDownloadState(OfflineRegion.STATE_INACTIVE);
-                        isComplete.set(true);
-                        channelHandler.onError(
-                            "mapboxTileCountLimitExceeded",
-                            "TrackAsia tile count " + "limit " + "exceeded: " + limit,
-                            null);
-                        // TrackAsia even after crash
-                        // and not downloading fully
-                        // region still keeps part
-                        // of it in database, so we
-                        // have to remove it
-                        deleteRegion(null, context, _offlineRegion.getId());
-                      }
-                    };
-
-                _offlineRegion.setObserver(observer);
-
-                // Start downloading region
-                _offlineRegion.setDownloadState(OfflineRegion.STATE_ACTIVE);
-                channelHandler.onStart();
+                      public void onError(String code, String message) {}
+                    });
               }
 
               /**
@@ -153,144 +114,440 @@ abstract class OfflineManagerUtils {
               @Override
               public void onError(String error) {
                 Log.e(TAG, "Error: " + error);
-                // Reset downloading state
-                _offlineRegion.setDownloadState(OfflineRegion.STATE_INACTIVE);
                 channelHandler.onError("mapboxInvalidRegionDefinition", error, null);
                 result.error("mapboxInvalidRegionDefinition", error, null);
               }
             });
   }
 
-  static void regionsList(MethodChannel.Result result, Context context) {
-    OfflineManager.Companion.getInstance(context)
-        .listOfflineRegions(
-            new OfflineManager.ListOfflineRegionsCallback() {
-              @Override
-              public void onList(OfflineRegion[] offlineRegions) {
-                List<Map<String, Object>> regionsArgs = new ArrayList<>();
-                for (OfflineRegion offlineRegion : offlineRegions) {
-                  regionsArgs.add(offlineRegionToMap(offlineRegion));
-                }
-                result.success(new Gson().toJson(regionsArgs));
-              }
+  /** Notified once when a download started by {@link #startDownload} ends. */
+  interface DownloadListener {
+    void onComplete(OfflineRegionStatus status);
 
-              @Override
-              public void onError(String error) {
-                result.error("RegionListError", error, null);
+    void onError(String code, String message);
+  }
+
+  /**
+   * Observes the download of {@code region}, reporting it to {@code channelHandler}, and starts
+   * it. Regions exceeding the tile count limit are deleted if {@code deleteOnTileCountLimit}.
+   */
+  private static void startDownload(
+      Context context,
+      OfflineRegion region,
+      OfflineChannelHandlerImpl channelHandler,
+      boolean deleteOnTileCountLimit,
+      DownloadListener listener) {
+    AtomicBoolean isComplete = new AtomicBoolean(false);
+    OfflineProgressTracker progressTracker = new OfflineProgressTracker();
+    // Observe downloading state
+    OfflineRegion.OfflineRegionObserver observer =
+        new OfflineRegion.OfflineRegionObserver() {
+          @Override
+          public void onStatusChanged(OfflineRegionStatus status) {
+            // Check if downloading is complete
+            if (status.isComplete()) {
+              Log.i(TAG, "Region " + "downloaded " + "successfully.");
+              // Reset downloading state
+              region.setDownloadState(OfflineRegion.STATE_INACTIVE);
+              // This can be called multiple times, and result can be called only once,
+              // so there is need to prevent it
+              if (isComplete.get()) return;
+              isComplete.set(true);
+              OfflineStorageStats.recordDownloadCompleted(context);
+              OfflineCacheManager.markUsed(context, region.getId());
+              listener.onComplete(status);
+              channelHandler.onSuccess();
+              OfflineCacheManager.enforceBudget(context, evicted -> {});
+            } else {
+              Map<String, Object> event = progressTracker.onStatusChanged(status);
+              if (event != null) {
+                channelHandler.onProgress(event);
               }
-            });
+            }
+          }
+
+          @Override
+          public void onError(OfflineRegionError error) {
+            Log.e(TAG, "onError reason: " + error.getReason());
+            Log.e(TAG, "onError message: " + error.getMessage());
+            // Reset downloading state
+            region.setDownloadState(OfflineRegion.STATE_INACTIVE);
+            if (isComplete.getAndSet(true)) return;
+            listener.onError("Downloading error", error.getMessage());
+            channelHandler.onError("Downloading error", error.getMessage(), error.getReason());
+          }
+
+          @Override
+          public void mapboxTileCountLimitExceeded(long limit) {
+            Log.e(TAG, "TrackAsia tile count" + " limit exceeded: " + limit);
+            // Reset downloading state
+            region.setDownloadState(OfflineRegion.STATE_INACTIVE);
+            if (isComplete.getAndSet(true)) return;
+            String message = "TrackAsia tile count " + "limit " + "exceeded: " + limit;
+            listener.onError("mapboxTileCountLimitExceeded", message);
+            channelHandler.onError("mapboxTileCountLimitExceeded", message, null);
+            if (deleteOnTileCountLimit) {
+              // TrackAsia even after crash and not downloading fully region still keeps part
+              // of it in database, so we have to remove it
+              deleteRegion(null, context, region.getId());
+            }
+          }
+        };
+
+    region.setObserver(observer);
+
+    // Start downloading region
+    region.setDownloadState(OfflineRegion.STATE_ACTIVE);
+    channelHandler.onStart();
+  }
+
+  /**
+   * Re-downloads the stale resources of a region. The region is invalidated, which marks all of
+   * its resources as expired, and downloaded again: the offline manager revalidates each resource
+   * with its ETag or modification date, so unchanged resources are kept and only changed ones are
+   * transferred. Replies once the refresh completed.
+   *
+   * <p>The offline manager does not report which resources were revalidated and which were
+   * transferred again, so the responses are counted by {@link OfflineRefreshCounter}: 304 Not
+   * Modified for reused resources and 2xx for re-fetched ones. The network bytes are those the app
+   * received during the refresh, including its other traffic.
+   */
+  static void refreshRegion(
+      MethodChannel.Result result,
+      Context context,
+      long id,
+      OfflineChannelHandlerImpl channelHandler) {
+    OfflineRegionCatalog.load(
+        context,
+        new OfflineRegionCatalog.Callback() {
+          @Override
+          public void onLoaded() {
+            OfflineRegionCatalog.Entry entry = OfflineRegionCatalog.get(id);
+            if (entry == null) {
+              result.error(
+                  "RefreshRegionError", "There is no region with given id to refresh.", null);
+              return;
+            }
+            OfflineRegion region = entry.region;
+            region.invalidate(
+                new OfflineRegion.OfflineRegionInvalidateCallback() {
+                  @Override
+                  public void onInvalidate() {
+                    long startRxBytes = TrafficStats.getUidRxBytes(Process.myUid());
+                    OfflineRefreshCounter.Refresh refresh =
+                        OfflineRefreshCounter.start(region.getDefinition());
+                    startDownload(
+                        context,
+                        region,
+                        channelHandler,
+                        false,
+                        new DownloadListener() {
+                          @Override
+                          public void onComplete(OfflineRegionStatus status) {
+                            refresh.finish();
+                            result.success(refreshResult(status, refresh, startRxBytes));
+                          }
+
+                          @Override
+                          public void onError(String code, String message) {
+                            refresh.finish();
+                            result.error(code, message, null);
+                          }
+                        });
+                  }
+
+                  @Override
+                  public void onError(String error) {
+                    result.error("RefreshRegionError", error, null);
+                  }
+                });
+          }
+
+          @Override
+          public void onError(String error) {
+            result.error("RegionListError", error, null);
+          }
+        });
+  }
+
+  private static Map<String, Object> refreshResult(
+      OfflineRegionStatus status, OfflineRefreshCounter.Refresh refresh, long startRxBytes) {
+    long endRxBytes = TrafficStats.getUidRxBytes(Process.myUid());
+    long networkBytes =
+        startRxBytes == TrafficStats.UNSUPPORTED || endRxBytes == TrafficStats.UNSUPPORTED
+            ? -1
+            : Math.max(0, endRxBytes - startRxBytes);
+    long resources = status.getCompletedResourceCount();
+    long size = status.getCompletedResourceSize();
+    // Revalidations the maps made meanwhile may be counted too, but never more than the region has.
+    long reused = Math.min(resources, refresh.notModifiedCount());
+    long refetched = Math.min(resources - reused, refresh.transferredCount());
+    Map<String, Object> reply = new HashMap<>(5);
+    reply.put("resourceCount", resources);
+    reply.put("reusedResourceCount", reused);
+    reply.put("refetchedResourceCount", refetched);
+    reply.put("networkBytes", networkBytes);
+    reply.put("regionSize", size);
+    return reply;
+  }
+
+  static void regionsList(MethodChannel.Result result, Context context) {
+    OfflineRegionCatalog.load(
+        context,
+        new OfflineRegionCatalog.Callback() {
+          @Override
+          public void onLoaded() {
+            result.success(OfflineRegionCatalog.allJson());
+          }
+
+          @Override
+          public void onError(String error) {
+            result.error("RegionListError", error, null);
+          }
+        });
+  }
+
+  static void regionsPage(
+      MethodChannel.Result result,
+      Context context,
+      Map<String, Object> metadataFilter,
+      int offset,
+      int limit) {
+    OfflineRegionCatalog.load(
+        context,
+        new OfflineRegionCatalog.Callback() {
+          @Override
+          public void onLoaded() {
+            result.success(OfflineRegionCatalog.listJson(metadataFilter, offset, limit));
+          }
+
+          @Override
+          public void onError(String error) {
+            result.error("RegionListError", error, null);
+          }
+        });
   }
 
   static void updateRegionMetadata(
       MethodChannel.Result result, Context context, long id, Map<String, Object> metadataMap) {
-    OfflineManager.Companion.getInstance(context)
-        .listOfflineRegions(
-            new OfflineManager.ListOfflineRegionsCallback() {
-              @Override
-              public void onList(OfflineRegion[] offlineRegions) {
-                for (OfflineRegion offlineRegion : offlineRegions) {
-                  if (offlineRegion.getId() != id) continue;
+    OfflineRegionCatalog.load(
+        context,
+        new OfflineRegionCatalog.Callback() {
+          @Override
+          public void onLoaded() {
+            OfflineRegionCatalog.Entry entry = OfflineRegionCatalog.get(id);
+            if (entry == null) {
+              if (result == null) return;
+              result.error(
+                  "UpdateMetadataError", "There is no region with given id to update.", null);
+              return;
+            }
+            String metadata = "{}";
+            if (metadataMap != null) {
+              metadata = gson.toJson(metadataMap);
+            }
+            entry.region.updateMetadata(
+                metadata.getBytes(),
+                new OfflineRegion.OfflineRegionUpdateMetadataCallback() {
+                  @Override
+                  public void onUpdate(byte[] metadataBytes) {
+                    OfflineRegionCatalog.updateMetadata(id, metadataBytes);
+                    if (result == null) return;
+                    result.success(entry.toJson());
+                  }
 
-                  String metadata = "{}";
-                  if (metadataMap != null) {
-                    metadata = new Gson().toJson(metadataMap);
+                  @Override
+                  public void onError(String error) {
+                    if (result == null) return;
+                    result.error("UpdateMetadataError", error, null);
                   }
-                  offlineRegion.updateMetadata(
-                      metadata.getBytes(),
-                      new OfflineRegion.OfflineRegionUpdateMetadataCallback() {
-                        @Override
-                        public void onUpdate(byte[] metadataBytes) {
-                          Map<String, Object> regionData = offlineRegionToMap(offlineRegion);
-                          regionData.put("metadata", metadataBytesToMap(metadataBytes));
-
-                          if (result == null) return;
-                          result.success(new Gson().toJson(regionData));
-                        }
-
-                        @Override
-                        public void onError(String error) {
-                          if (result == null) return;
-                          result.error("UpdateMetadataError", error, null);
-                        }
-                      });
-                  return;
-                }
-                if (result == null) return;
-                result.error(
-                    "UpdateMetadataError",
-                    "There is no " + "region with given id to " + "update.",
-                    null);
-              }
+                });
+          }
 
-              @Override
-              public void onError(String error) {
-                if (result == null) return;
-                result.error("RegionListError", error, null);
-              }
-            });
+          @Override
+          public void onError(String error) {
+            if (result == null) return;
+            result.error("RegionListError", error, null);
+          }
+        });
   }
 
   static void deleteRegion(MethodChannel.Result result, Context context, long id) {
-    OfflineManager.Companion.getInstance(context)
-        .listOfflineRegions(
-            new OfflineManager.ListOfflineRegionsCallback() {
-              @Override
-              public void onList(OfflineRegion[] offlineRegions) {
-                for (OfflineRegion offlineRegion : offlineRegions) {
-                  if (offlineRegion.getId() != id) continue;
-
-                  offlineRegion.delete(
-                      new OfflineRegion.OfflineRegionDeleteCallback() {
-                        @Override
-                        public void onDelete() {
-                          if (result == null) return;
-                          result.success(null);
-                        }
-
-                        @Override
-                        public void onError(String error) {
-                          if (result == null) return;
-                          result.error("DeleteRegionError", error, null);
-                        }
-                      });
-                  return;
-                }
-                if (result == null) return;
-                result.error(
-                    "DeleteRegionError",
-                    "There is no " + "region with given id to " + "delete.",
-                    null);
-              }
+    OfflineRegionCatalog.load(
+        context,
+        new OfflineRegionCatalog.Callback() {
+          @Override
+          public void onLoaded() {
+            OfflineRegionCatalog.Entry entry = OfflineRegionCatalog.get(id);
+            if (entry == null) {
+              if (result == null) return;
+              result.error(
+                  "DeleteRegionError", "There is no region with given id to delete.", null);
+              return;
+            }
+            entry.region.delete(
+                new OfflineRegion.OfflineRegionDeleteCallback() {
+                  @Override
+                  public void onDelete() {
+                    OfflineRegionCatalog.remove(id);
+                    OfflineCacheManager.forget(context, id);
+                    if (result == null) return;
+                    result.success(null);
+                  }
 
-              @Override
-              public void onError(String error) {
-                if (result == null) return;
-                result.error("RegionListError", error, null);
-              }
-            });
-  }
+                  @Override
+                  public void onError(String error) {
+                    if (result == null) return;
+                    result.error("DeleteRegionError", error, null);
+                  }
+                });
+          }
 
-  private static double calculateDownloadingProgress(
-      long requiredResourceCount, long completedResourceCount) {
-    return requiredResourceCount > 0
-        ? (100.0 * completedResourceCount / requiredResourceCount)
-        : 0.0;
+          @Override
+          public void onError(String error) {
+            if (result == null) return;
+            result.error("RegionListError", error, null);
+          }
+        });
   }
 
-  private static OfflineRegionDefinition mapToRegionDefinition(
+  static OfflineRegionDefinition mapToRegionDefinition(
       Map<String, Object> map, float pixelDensity) {
-    for (Map.Entry<String, Object> entry : map.entrySet()) {
-      Log.d(TAG, entry.getKey());
-      Log.d(TAG, entry.getValue().toString());
+    String styleUrl = (String) map.get("mapStyleUrl");
+    double minZoom = ((Number) map.get("minZoom")).doubleValue();
+    double maxZoom = ((Number) map.get("maxZoom")).doubleValue();
+    Boolean includeIdeographs = (Boolean) map.get("includeIdeographs");
+    if (map.get("geometry") != null) {
+      double bufferMeters =
+          map.get("bufferMeters") != null ? ((Number) map.get("bufferMeters")).doubleValue() : 0;
+      return new OfflineGeometryRegionDefinition(
+          styleUrl,
+          mapToRegionGeometry(
+              (Map<String, Object>) map.get("geometry"), bufferMeters, minZoom, maxZoom),
+          minZoom,
+          maxZoom,
+          pixelDensity,
+          includeIdeographs);
     }
     // Create a bounding box for the offline region
     return new OfflineTilePyramidRegionDefinition(
-        (String) map.get("mapStyleUrl"),
+        styleUrl,
         listToBounds((List<List<Double>>) map.get("bounds")),
-        ((Number) map.get("minZoom")).doubleValue(),
-        ((Number) map.get("maxZoom")).doubleValue(),
+        minZoom,
+        maxZoom,
         pixelDensity,
-        (Boolean) map.get("includeIdeographs"));
+        includeIdeographs);
+  }
+
+  /**
+   * Builds the geometry of a region from a GeoJSON geometry. Polygons are downloaded as they are.
+   * Lines are turned into a corridor of {@code bufferMeters} around them, rasterized into runs of
+   * tiles at the max zoom of the region, but at most {@link #CORRIDOR_MAX_ZOOM}, as the offline
+   * downloader only accepts polygons for coverage.
+   */
+  private static Geometry mapToRegionGeometry(
+      Map<String, Object> geometry, double bufferMeters, double minZoom, double maxZoom) {
+    String type = (String) geometry.get("type");
+    List<?> coordinates = (List<?>) geometry.get("coordinates");
+    switch (type) {
+      case "Polygon":
+        return Polygon.fromLngLats(toPointLists(coordinates));
+      case "MultiPolygon":
+        List<List<List<Point>>> polygons = new ArrayList<>(coordinates.size());
+        for (Object polygon : coordinates) {
+          polygons.add(toPointLists((List<?>) polygon));
+        }
+        return MultiPolygon.fromLngLats(polygons);
+      case "LineString":
+      case "MultiLineString":
+        if (bufferMeters <= 0) {
+          throw new IllegalArgumentException("Line regions need a positive bufferMeters");
+        }
+        List<double[]> lines = new ArrayList<>();
+        if ("LineString".equals(type)) {
+          lines.add(toLngLatArray(coordinates));
+        } else {
+          for (Object line : coordinates) {
+            lines.add(toLngLatArray((List<?>) line));
+          }
+        }
+        int zoom =
+            Double.isInfinite(maxZoom)
+                ? CORRIDOR_MAX_ZOOM
+                : Math.min((int) Math.floor(maxZoom), CORRIDOR_MAX_ZOOM);
+        zoom = Math.max(zoom, (int) Math.floor(minZoom));
+        List<List<List<Point>>> runs = new ArrayList<>();
+        for (double[] rectangle :
+            OfflineGeometryCover.corridor(lines, bufferMeters, zoom).rectangles()) {
+          runs.add(
+              Collections.singletonList(
+                  Arrays.asList(
+                      Point.fromLngLat(rectangle[0], rectangle[1]),
+                      Point.fromLngLat(rectangle[2], rectangle[1]),
+                      Point.fromLngLat(rectangle[2], rectangle[3]),
+                      Point.fromLngLat(rectangle[0], rectangle[3]),
+                      Point.fromLngLat(rectangle[0], rectangle[1]))));
+        }
+        return MultiPolygon.fromLngLats(runs);
+      default:
+        throw new IllegalArgumentException("Unsupported region geometry type " + type);
+    }
+  }
+
+  private static List<List<Point>> toPointLists(List<?> rings) {
+    List<List<Point>> result = new ArrayList<>(rings.size());
+    for (Object ring : rings) {
+      List<?> positions = (List<?>) ring;
+      List<Point> points = new ArrayList<>(positions.size());
+      for (Object position : positions) {
+        List<?> lngLat = (List<?>) position;
+        points.add(
+            Point.fromLngLat(
+                ((Number) lngLat.get(0)).doubleValue(), ((Number) lngLat.get(1)).doubleValue()));
+      }
+      result.add(points);
+    }
+    return result;
+  }
+
+  private static double[] toLngLatArray(List<?> positions) {
+    double[] lngLats = new double[positions.size() * 2];
+    for (int i = 0; i < positions.size(); i++) {
+      List<?> lngLat = (List<?>) positions.get(i);
+      lngLats[2 * i] = ((Number) lngLat.get(0)).doubleValue();
+      lngLats[2 * i + 1] = ((Number) lngLat.get(1)).doubleValue();
+    }
+    return lngLats;
+  }
+
+  /**
+   * Returns the polygons of a region geometry as flat coordinate rings for {@link
+   * OfflineGeometryCover}, or null if the geometry is not polygonal.
+   */
+  @Nullable
+  static List<List<double[]>> regionPolygons(@Nullable Geometry geometry) {
+    List<List<List<Point>>> polygons;
+    if (geometry instanceof Polygon) {
+      polygons = Collections.singletonList(((Polygon) geometry).coordinates());
+    } else if (geometry instanceof MultiPolygon) {
+      polygons = ((MultiPolygon) geometry).coordinates();
+    } else {
+      return null;
+    }
+    List<List<double[]>> result = new ArrayList<>(polygons.size());
+    for (List<List<Point>> polygon : polygons) {
+      List<double[]> rings = new ArrayList<>(polygon.size());
+      for (List<Point> ring : polygon) {
+        double[] lngLats = new double[ring.size() * 2];
+        for (int i = 0; i < ring.size(); i++) {
+          lngLats[2 * i] = ring.get(i).longitude();
+          lngLats[2 * i + 1] = ring.get(i).latitude();
+        }
+        rings.add(lngLats);
+      }
+      result.add(rings);
+    }
+    return result;
   }
 
   private static LatLngBounds listToBounds(List<List<Double>> bounds) {
@@ -300,15 +557,7 @@ abstract class OfflineManagerUtils {
         .build();
   }
 
-  private static Map<String, Object> offlineRegionToMap(OfflineRegion region) {
-    Map<String, Object> result = new HashMap();
-    result.put("id", region.getId());
-    result.put("definition", offlineRegionDefinitionToMap(region.getDefinition()));
-    result.put("metadata", metadataBytesToMap(region.getMetadata()));
-    return result;
-  }
-
-  private static Map<String, Object> offlineRegionDefinitionToMap(
+  static Map<String, Object> offlineRegionDefinitionToMap(
       OfflineRegionDefinition definition) {
     Map<String, Object> result = new HashMap();
     result.put("mapStyleUrl", definition.getStyleURL());
@@ -316,6 +565,12 @@ abstract class OfflineManagerUtils {
     result.put("minZoom", definition.getMinZoom());
     result.put("maxZoom", definition.getMaxZoom());
     result.put("includeIdeographs", definition.getIncludeIdeographs());
+    if (definition instanceof OfflineGeometryRegionDefinition) {
+      Geometry geometry = ((OfflineGeometryRegionDefinition) definition).getGeometry();
+      if (geometry != null) {
+        result.put("geometry", gson.fromJson(geometry.toJson(), HashMap.class));
+      }
+    }
     return result;
   }
 
@@ -328,9 +583,9 @@ abstract class OfflineManagerUtils {
     return boundsList;
   }
 
-  private static Map<String, Object> metadataBytesToMap(byte[] metadataBytes) {
+  static Map<String, Object> metadataBytesToMap(byte[] metadataBytes) {
     if (metadataBytes != null) {
-      return new Gson().fromJson(new String(metadataBytes), HashMap.class);
+      return gson.fromJson(new String(metadataBytes), HashMap.class);
     }
     return new HashMap();
   }
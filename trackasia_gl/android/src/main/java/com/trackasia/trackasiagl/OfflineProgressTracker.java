@@ -0,0 +1,90 @@
+package com.trackasia.trackasiagl;
+
+import android.os.SystemClock;
+import androidx.annotation.Nullable;
+import com.trackasia.android.offline.OfflineRegionStatus;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Turns the status updates of one offline region download into progress events for Dart.
+ *
+ * <p>The offline manager reports a status for every downloaded resource, which for large regions
+ * means thousands of updates. An event is only produced once at least {@link #minIntervalMillis}
+ * passed or the progress advanced by {@link #minPercentStep} since the last one. Throughput is an
+ * exponential moving average over the updates, and the ETA extrapolates the remaining resources
+ * at the averaged resource rate.
+ */
+final class OfflineProgressTracker {
+  private static final double SMOOTHING = 0.2;
+
+  private static volatile long minIntervalMillis = 250;
+  private static volatile double minPercentStep = 1.0;
+
+  private long lastSampleMillis = -1;
+  private long lastSampleBytes;
+  private long lastSampleResources;
+  private double bytesPerSecond = -1;
+  private double resourcesPerSecond = -1;
+  private long lastEventMillis = -1;
+  private double lastEventPercent = -1;
+
+  /** Sets the throttling of progress events for all downloads. */
+  static void setThrottle(long intervalMillis, double percentStep) {
+    minIntervalMillis = Math.max(0, intervalMillis);
+    minPercentStep = Math.max(0, percentStep);
+  }
+
+  /** Returns the progress event for {@code status}, or null if it is throttled. */
+  @Nullable
+  Map<String, Object> onStatusChanged(OfflineRegionStatus status) {
+    final long now = SystemClock.elapsedRealtime();
+    final long required = status.getRequiredResourceCount();
+    final long completed = status.getCompletedResourceCount();
+    final long bytes = status.getCompletedResourceSize();
+    sample(now, completed, bytes);
+
+    final double percent = required > 0 ? 100.0 * completed / required : 0.0;
+    if (lastEventMillis >= 0
+        && now - lastEventMillis < minIntervalMillis
+        && percent - lastEventPercent < minPercentStep) {
+      return null;
+    }
+    lastEventMillis = now;
+    lastEventPercent = percent;
+
+    final Map<String, Object> event = new HashMap<>(10);
+    event.put("status", "progress");
+    event.put("progress", percent);
+    event.put("completedResourceCount", completed);
+    event.put("requiredResourceCount", required);
+    event.put("requiredResourceCountIsPrecise", status.isRequiredResourceCountPrecise());
+    event.put("completedResourceSize", bytes);
+    event.put("completedTileCount", status.getCompletedTileCount());
+    event.put("completedTileSize", status.getCompletedTileSize());
+    event.put("bytesPerSecond", Math.max(0, bytesPerSecond));
+    event.put(
+        "etaMillis",
+        resourcesPerSecond > 0 ? (long) ((required - completed) / resourcesPerSecond * 1000) : -1L);
+    return event;
+  }
+
+  private void sample(long now, long resources, long bytes) {
+    if (lastSampleMillis >= 0 && now > lastSampleMillis) {
+      final double seconds = (now - lastSampleMillis) / 1000.0;
+      final double byteRate = (bytes - lastSampleBytes) / seconds;
+      final double resourceRate = (resources - lastSampleResources) / seconds;
+      bytesPerSecond =
+          bytesPerSecond < 0 ? byteRate : SMOOTHING * byteRate + (1 - SMOOTHING) * bytesPerSecond;
+      resourcesPerSecond =
+          resourcesPerSecond < 0
+              ? resourceRate
+              : SMOOTHING * resourceRate + (1 - SMOOTHING) * resourcesPerSecond;
+    }
+    if (lastSampleMillis < 0 || now > lastSampleMillis) {
+      lastSampleMillis = now;
+      lastSampleBytes = bytes;
+      lastSampleResources = resources;
+    }
+  }
+}
@@ -0,0 +1,113 @@
+package com.trackasia.trackasiagl;
+
+import com.trackasia.android.geometry.LatLngBounds;
+import com.trackasia.android.offline.OfflineRegionDefinition;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Counts the responses of the map SDK's client that belong to offline regions being refreshed.
+ *
+ * <p>Refreshing a region revalidates each of its resources with the ETag or modification date the
+ * offline manager stored, so an unchanged resource is answered with 304 Not Modified and a changed
+ * one, or one stored without validators, with a 2xx response. While a refresh runs, tile
+ * responses, recognized by a {@code z/x/y} URL path, count for it if the tile is within the
+ * region's bounds and zoom levels; other resources, such as the style, sprites and glyphs, count
+ * for every refresh running. Revalidations the maps make of the same resources meanwhile are
+ * counted too.
+ */
+abstract class OfflineRefreshCounter {
+  private static final Pattern TILE =
+      Pattern.compile(".*/(\\d+)/(\\d+)/(\\d+)(@\\d+x)?(\\.\\w+)?$");
+
+  private static final Set<Refresh> running =
+      Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+  static final Interceptor INTERCEPTOR =
+      chain -> {
+        final Response response = chain.proceed(chain.request());
+        if (!running.isEmpty()) {
+          count(chain.request(), response.code());
+        }
+        return response;
+      };
+
+  /** Starts counting the responses for the region, until {@link Refresh#finish()}. */
+  static Refresh start(OfflineRegionDefinition definition) {
+    final Refresh refresh = new Refresh(definition);
+    running.add(refresh);
+    return refresh;
+  }
+
+  static final class Refresh {
+    private final List<LatLngBounds> bounds;
+    private final int minZoom;
+    private final int maxZoom;
+    private final AtomicLong notModified = new AtomicLong();
+    private final AtomicLong transferred = new AtomicLong();
+
+    private Refresh(OfflineRegionDefinition definition) {
+      bounds = Collections.singletonList(definition.getBounds());
+      // Sources with 512 pixel tiles are downloaded one zoom level lower.
+      minZoom = (int) Math.floor(definition.getMinZoom()) - 1;
+      maxZoom = (int) Math.ceil(definition.getMaxZoom());
+    }
+
+    /** Stops counting. */
+    void finish() {
+      running.remove(this);
+    }
+
+    /** Returns the number of 304 responses counted. */
+    long notModifiedCount() {
+      return notModified.get();
+    }
+
+    /** Returns the number of 2xx responses counted. */
+    long transferredCount() {
+      return transferred.get();
+    }
+
+    private boolean contains(int zoom, long x, long y) {
+      return zoom >= minZoom
+          && zoom <= maxZoom
+          && (ViewportRequestCanceller.contains(bounds, zoom, x, y, 0)
+              || ViewportRequestCanceller.contains(bounds, zoom, x, (1L << zoom) - 1 - y, 0));
+    }
+  }
+
+  private static void count(Request request, int code) {
+    if (!"GET".equals(request.method()) || (code != 304 && (code < 200 || code >= 300))) {
+      return;
+    }
+    final Matcher matcher = TILE.matcher(request.url().encodedPath());
+    int zoom = -1;
+    long x = 0;
+    long y = 0;
+    if (matcher.matches()) {
+      try {
+        zoom = Integer.parseInt(matcher.group(1));
+        x = Long.parseLong(matcher.group(2));
+        y = Long.parseLong(matcher.group(3));
+      } catch (NumberFormatException e) {
+        return;
+      }
+      if (zoom > 30) {
+        return;
+      }
+    }
+    for (Refresh refresh : running) {
+      if (zoom < 0 || refresh.contains(zoom, x, y)) {
+        (code == 304 ? refresh.notModified : refresh.transferred).incrementAndGet();
+      }
+    }
+  }
+}
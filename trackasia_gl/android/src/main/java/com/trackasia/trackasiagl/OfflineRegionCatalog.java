@@ -0,0 +1,210 @@
+package com.trackasia.trackasiagl;
+
+import android.content.Context;
+import androidx.annotation.Nullable;
+import com.google.gson.Gson;
+import com.trackasia.android.offline.OfflineManager;
+import com.trackasia.android.offline.OfflineRegion;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * In-memory catalog of the offline regions, keyed by region id.
+ *
+ * <p>The catalog is loaded with one {@code listOfflineRegions} call the first time it is needed
+ * and kept in sync by the plugin when regions are created, merged, updated or deleted, so lookups
+ * by id do not scan the offline database. The metadata of a region is only decoded when it is
+ * read, and the JSON sent to Dart for a region is cached until its metadata changes.
+ *
+ * <p>All methods must be called on the main thread.
+ */
+final class OfflineRegionCatalog {
+  private static final Gson gson = new Gson();
+
+  private static final TreeMap<Long, Entry> entries = new TreeMap<>();
+  private static boolean loaded = false;
+  @Nullable private static List<Callback> pendingCallbacks;
+
+  private OfflineRegionCatalog() {}
+
+  interface Callback {
+    void onLoaded();
+
+    void onError(String error);
+  }
+
+  /** One region with its lazily decoded metadata. */
+  static final class Entry {
+    final OfflineRegion region;
+    private byte[] metadataBytes;
+    @Nullable private Map<String, Object> metadata;
+    @Nullable private String json;
+
+    private Entry(OfflineRegion region) {
+      this.region = region;
+      this.metadataBytes = region.getMetadata();
+    }
+
+    Map<String, Object> metadata() {
+      if (metadata == null) {
+        metadata = OfflineManagerUtils.metadataBytesToMap(metadataBytes);
+      }
+      return metadata;
+    }
+
+    Map<String, Object> toMap() {
+      final Map<String, Object> map = new HashMap<>(3);
+      map.put("id", region.getId());
+      map.put(
+          "definition", OfflineManagerUtils.offlineRegionDefinitionToMap(region.getDefinition()));
+      map.put("metadata", metadata());
+      return map;
+    }
+
+    String toJson() {
+      if (json == null) {
+        json = gson.toJson(toMap());
+      }
+      return json;
+    }
+
+    private void setMetadata(byte[] metadataBytes) {
+      this.metadataBytes = metadataBytes;
+      this.metadata = null;
+      this.json = null;
+    }
+  }
+
+  /** Runs {@code callback} once the catalog has been loaded from the offline database. */
+  static void load(Context context, Callback callback) {
+    if (loaded) {
+      callback.onLoaded();
+      return;
+    }
+    if (pendingCallbacks != null) {
+      pendingCallbacks.add(callback);
+      return;
+    }
+    pendingCallbacks = new ArrayList<>();
+    pendingCallbacks.add(callback);
+    OfflineManager.Companion.getInstance(context)
+        .listOfflineRegions(
+            new OfflineManager.ListOfflineRegionsCallback() {
+              @Override
+              public void onList(OfflineRegion[] offlineRegions) {
+                entries.clear();
+                for (OfflineRegion region : offlineRegions) {
+                  entries.put(region.getId(), new Entry(region));
+                }
+                loaded = true;
+                final List<Callback> callbacks = pendingCallbacks;
+                pendingCallbacks = null;
+                for (Callback pending : callbacks) {
+                  pending.onLoaded();
+                }
+              }
+
+              @Override
+              public void onError(String error) {
+                final List<Callback> callbacks = pendingCallbacks;
+                pendingCallbacks = null;
+                for (Callback pending : callbacks) {
+                  pending.onError(error);
+                }
+              }
+            });
+  }
+
+  /** Forgets all regions, e.g. because the offline database was replaced. */
+  static void invalidate() {
+    entries.clear();
+    loaded = false;
+  }
+
+  /** Adds a region that was created or merged. Ignored until the catalog has been loaded. */
+  static Entry put(OfflineRegion region) {
+    final Entry entry = new Entry(region);
+    if (loaded) {
+      entries.put(region.getId(), entry);
+    }
+    return entry;
+  }
+
+  static void updateMetadata(long id, byte[] metadataBytes) {
+    final Entry entry = entries.get(id);
+    if (entry != null) {
+      entry.setMetadata(metadataBytes);
+    }
+  }
+
+  static void remove(long id) {
+    entries.remove(id);
+  }
+
+  @Nullable
+  static Entry get(long id) {
+    return entries.get(id);
+  }
+
+  static Collection<Entry> all() {
+    return entries.values();
+  }
+
+  /**
+   * Returns the regions in ascending id order whose metadata contains all entries of {@code
+   * metadataFilter}, skipping {@code offset} regions and returning at most {@code limit}, together
+   * with the number of matching regions, as JSON.
+   */
+  static String listJson(@Nullable Map<String, Object> metadataFilter, int offset, int limit) {
+    final StringBuilder regions = new StringBuilder("[");
+    int total = 0;
+    int added = 0;
+    for (Entry entry : entries.values()) {
+      if (metadataFilter != null && !matches(entry.metadata(), metadataFilter)) {
+        continue;
+      }
+      if (total >= offset && added < limit) {
+        if (added > 0) {
+          regions.append(',');
+        }
+        regions.append(entry.toJson());
+        added++;
+      }
+      total++;
+    }
+    regions.append(']');
+    return "{\"total\":" + total + ",\"regions\":" + regions + "}";
+  }
+
+  /** Returns all regions as a JSON array, as sent by {@code getListOfRegions}. */
+  static String allJson() {
+    final StringBuilder json = new StringBuilder("[");
+    for (Entry entry : entries.values()) {
+      if (json.length() > 1) {
+        json.append(',');
+      }
+      json.append(entry.toJson());
+    }
+    return json.append(']').toString();
+  }
+
+  private static boolean matches(Map<String, Object> metadata, Map<String, Object> filter) {
+    for (Map.Entry<String, Object> condition : filter.entrySet()) {
+      final Object value = metadata.get(condition.getKey());
+      final Object expected = condition.getValue();
+      if (value instanceof Number && expected instanceof Number) {
+        // Gson decodes every number as a double, Dart sends integers as Integer or Long.
+        if (((Number) value).doubleValue() != ((Number) expected).doubleValue()) {
+          return false;
+        }
+      } else if (value == null ? expected != null : !value.equals(expected)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,376 @@
+package com.trackasia.trackasiagl;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import androidx.annotation.Nullable;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.trackasia.android.geometry.LatLngBounds;
+import com.trackasia.android.offline.OfflineGeometryRegionDefinition;
+import com.trackasia.android.offline.OfflineRegionDefinition;
+import com.trackasia.android.offline.OfflineRegionStatus;
+import io.flutter.plugin.common.MethodChannel;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Estimates the number of tiles and the size of an offline region before it is downloaded.
+ *
+ * <p>The tile count is computed with the tile pyramid math of the offline downloader for every tile
+ * source of the style, using the zoom range the style or its TileJSON declares. The size is
+ * extrapolated from completed downloads: the tile bytes of each completed region are attributed to
+ * its zoom levels in proportion to their tile count, weighted by the averages recorded so far, and
+ * the per-zoom averages of bytes per tile are kept in the shared preferences.
+ */
+final class OfflineRegionEstimator {
+  private static final String TAG = "OfflineRegionEstimator";
+  private static final String PREFERENCES_NAME = "trackasia_gl_offline_estimates";
+  private static final String KEY_BYTES = "bytes_";
+  private static final String KEY_TILES = "tiles_";
+  private static final String KEY_OTHER_BYTES = "otherBytes";
+  private static final String KEY_REGIONS = "regions";
+
+  private static final ExecutorService worker =
+      Executors.newSingleThreadExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, "trackasia-offline-estimate");
+            thread.setDaemon(true);
+            return thread;
+          });
+  private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+  private OfflineRegionEstimator() {}
+
+  /** A source of the style whose tiles are downloaded. */
+  private static final class TileSource {
+    final boolean raster;
+    final int tileSize;
+    final int minZoom;
+    final int maxZoom;
+
+    TileSource(boolean raster, int tileSize, int minZoom, int maxZoom) {
+      this.raster = raster;
+      this.tileSize = tileSize;
+      this.minZoom = minZoom;
+      this.maxZoom = maxZoom;
+    }
+  }
+
+  /** Replies with the estimate of the region described by {@code definitionMap}. */
+  static void estimate(
+      MethodChannel.Result result, Context context, Map<String, Object> definitionMap) {
+    final float pixelDensity = context.getResources().getDisplayMetrics().density;
+    final OfflineRegionDefinition definition;
+    try {
+      definition = OfflineManagerUtils.mapToRegionDefinition(definitionMap, pixelDensity);
+    } catch (RuntimeException e) {
+      result.error("mapboxInvalidRegionDefinition", e.getMessage(), null);
+      return;
+    }
+    final Context appContext = context.getApplicationContext();
+    worker.execute(
+        () -> {
+          List<TileSource> sources = null;
+          int sourceCount = -1;
+          try {
+            final JsonObject style = readJson(appContext, definition.getStyleURL());
+            if (style != null && style.has("sources")) {
+              final JsonObject styleSources = style.getAsJsonObject("sources");
+              sourceCount = styleSources.size();
+              sources = tileSources(appContext, styleSources);
+            }
+          } catch (Exception e) {
+            Log.w(TAG, "Could not load style " + definition.getStyleURL(), e);
+          }
+          final Map<String, Object> estimate =
+              estimate(appContext, definition, pixelDensity, sources, sourceCount);
+          mainHandler.post(() -> result.success(estimate));
+        });
+  }
+
+  /**
+   * Records the tile and resource sizes of a completed download. Must be called once per region,
+   * when its status reports completion. The tiles are counted on the worker, as covering a
+   * geometry region up to its max zoom is too slow for the main thread.
+   */
+  static void recordCompletedDownload(
+      Context context, OfflineRegionDefinition definition, OfflineRegionStatus status) {
+    final long tileSize = status.getCompletedTileSize();
+    final long resourceSize = status.getCompletedResourceSize();
+    final Context appContext = context.getApplicationContext();
+    worker.execute(() -> record(appContext, definition, tileSize, resourceSize));
+  }
+
+  private static void record(
+      Context context, OfflineRegionDefinition definition, long tileSize, long resourceSize) {
+    final long[] counts = pyramidCounts(definition, tileCounter(definition));
+    final int firstZoom = firstPyramidZoom(definition);
+    long pyramidTiles = 0;
+    for (long count : counts) {
+      pyramidTiles += count;
+    }
+    if (pyramidTiles == 0) {
+      return;
+    }
+    final SharedPreferences preferences = preferences(context);
+    final double fallback = (double) tileSize / pyramidTiles;
+    final double[] weights = new double[counts.length];
+    double weightSum = 0;
+    for (int i = 0; i < counts.length; i++) {
+      final double average = averageBytesPerTile(preferences, firstZoom + i);
+      weights[i] = counts[i] * (average > 0 ? average : fallback);
+      weightSum += weights[i];
+    }
+    final SharedPreferences.Editor editor = preferences.edit();
+    for (int i = 0; i < counts.length; i++) {
+      final int zoom = firstZoom + i;
+      final long bytes = weightSum > 0 ? Math.round(tileSize * weights[i] / weightSum) : 0;
+      editor.putLong(KEY_BYTES + zoom, preferences.getLong(KEY_BYTES + zoom, 0) + bytes);
+      editor.putLong(KEY_TILES + zoom, preferences.getLong(KEY_TILES + zoom, 0) + counts[i]);
+    }
+    editor.putLong(
+        KEY_OTHER_BYTES,
+        preferences.getLong(KEY_OTHER_BYTES, 0)
+            + Math.max(0, resourceSize - tileSize));
+    editor.putLong(KEY_REGIONS, preferences.getLong(KEY_REGIONS, 0) + 1);
+    editor.apply();
+  }
+
+  interface TileCountCallback {
+    void onTileCount(long tileCount);
+  }
+
+  /**
+   * Counts the tiles of the region in the grid of one vector source on the worker and passes the
+   * count to {@code callback} on the main thread.
+   */
+  static void tileCount(OfflineRegionDefinition definition, TileCountCallback callback) {
+    worker.execute(
+        () -> {
+          final long tileCount = tileCount(definition);
+          mainHandler.post(() -> callback.onTileCount(tileCount));
+        });
+  }
+
+  /** Returns the number of tiles of the region in the grid of one vector source. */
+  static long tileCount(OfflineRegionDefinition definition) {
+    long count = 0;
+    for (long zoomCount : pyramidCounts(definition, tileCounter(definition))) {
+      count += zoomCount;
+    }
+    return count;
+  }
+
+  private static Map<String, Object> estimate(
+      Context context,
+      OfflineRegionDefinition definition,
+      float pixelDensity,
+      @Nullable List<TileSource> sources,
+      int sourceCount) {
+    final OfflineTileCover.TileCounter counter = tileCounter(definition);
+    final long[] counts = pyramidCounts(definition, counter);
+    final int firstZoom = firstPyramidZoom(definition);
+
+    final Map<Integer, Long> countsPerZoom = new HashMap<>();
+    long pyramidTiles = 0;
+    for (int i = 0; i < counts.length; i++) {
+      countsPerZoom.put(firstZoom + i, counts[i]);
+      pyramidTiles += counts[i];
+    }
+
+    long tileCount = pyramidTiles;
+    if (sources != null) {
+      tileCount = 0;
+      for (TileSource source : sources) {
+        for (long count :
+            OfflineTileCover.tileCountsPerZoom(
+                counter,
+                definition.getMinZoom(),
+                definition.getMaxZoom(),
+                source.raster,
+                source.tileSize,
+                source.minZoom,
+                source.maxZoom)) {
+          tileCount += count;
+        }
+      }
+    }
+
+    final Map<String, Object> estimate = new HashMap<>(8);
+    estimate.put("tileCount", tileCount);
+    estimate.put("tileCountPerZoom", countsPerZoom);
+    estimate.put("sourceCount", sourceCount);
+    estimate.put("tileSourceCount", sources != null ? sources.size() : -1);
+    estimate.put("estimatedSize", estimatedSize(preferences(context), counts, firstZoom));
+    estimate.put("pixelRatio", (double) pixelDensity);
+    estimate.put("tileCountLimit", OfflineManagerUtils.getOfflineTileCountLimit());
+    return estimate;
+  }
+
+  /** Returns the estimated bytes of the pyramid, or -1 without a completed download. */
+  private static long estimatedSize(SharedPreferences preferences, long[] counts, int firstZoom) {
+    final long regions = preferences.getLong(KEY_REGIONS, 0);
+    if (regions == 0) {
+      return -1;
+    }
+    // Zoom levels that were never downloaded use the average of the closest recorded zoom level.
+    double size = (double) preferences.getLong(KEY_OTHER_BYTES, 0) / regions;
+    for (int i = 0; i < counts.length; i++) {
+      double average = -1;
+      for (int delta = 0; average < 0 && delta <= OfflineTileCover.DEFAULT_MAX_ZOOM; delta++) {
+        average = averageBytesPerTile(preferences, firstZoom + i - delta);
+        if (average < 0) {
+          average = averageBytesPerTile(preferences, firstZoom + i + delta);
+        }
+      }
+      size += counts[i] * Math.max(0, average);
+    }
+    return Math.round(size);
+  }
+
+  private static double averageBytesPerTile(SharedPreferences preferences, int zoom) {
+    final long tiles = preferences.getLong(KEY_TILES + zoom, 0);
+    return tiles > 0 ? (double) preferences.getLong(KEY_BYTES + zoom, 0) / tiles : -1;
+  }
+
+  /** Tile counts of the region in the grid of a vector source without zoom limits. */
+  private static long[] pyramidCounts(
+      OfflineRegionDefinition definition, OfflineTileCover.TileCounter counter) {
+    return OfflineTileCover.tileCountsPerZoom(
+        counter,
+        definition.getMinZoom(),
+        definition.getMaxZoom(),
+        false,
+        OfflineTileCover.TILE_SIZE,
+        OfflineTileCover.DEFAULT_MIN_ZOOM,
+        OfflineTileCover.DEFAULT_MAX_ZOOM);
+  }
+
+  /**
+   * Returns the tile counter of the region: the polygon cover of geometry regions, and the bounds
+   * otherwise. Counts are memoized, as every tile source counts the same zoom levels.
+   */
+  private static OfflineTileCover.TileCounter tileCounter(OfflineRegionDefinition definition) {
+    final OfflineTileCover.TileCounter counter;
+    final List<List<double[]>> polygons =
+        definition instanceof OfflineGeometryRegionDefinition
+            ? OfflineManagerUtils.regionPolygons(
+                ((OfflineGeometryRegionDefinition) definition).getGeometry())
+            : null;
+    if (polygons != null) {
+      counter = zoom -> OfflineGeometryCover.polygons(polygons, zoom).tileCount();
+    } else {
+      final LatLngBounds bounds = definition.getBounds();
+      counter =
+          zoom ->
+              OfflineTileCover.tileCount(
+                  bounds.getLatSouth(),
+                  bounds.getLonWest(),
+                  bounds.getLatNorth(),
+                  bounds.getLonEast(),
+                  zoom);
+    }
+    final Map<Integer, Long> counts = new HashMap<>();
+    return zoom -> {
+      Long count = counts.get(zoom);
+      if (count == null) {
+        count = counter.tileCount(zoom);
+        counts.put(zoom, count);
+      }
+      return count;
+    };
+  }
+
+  private static int firstPyramidZoom(OfflineRegionDefinition definition) {
+    return OfflineTileCover.firstZoom(
+        definition.getMinZoom(),
+        false,
+        OfflineTileCover.TILE_SIZE,
+        OfflineTileCover.DEFAULT_MIN_ZOOM);
+  }
+
+  private static List<TileSource> tileSources(Context context, JsonObject styleSources) {
+    final List<TileSource> sources = new ArrayList<>();
+    for (Map.Entry<String, JsonElement> entry : styleSources.entrySet()) {
+      if (!entry.getValue().isJsonObject()) {
+        continue;
+      }
+      final JsonObject source = entry.getValue().getAsJsonObject();
+      final String type = source.has("type") ? source.get("type").getAsString() : "";
+      final boolean raster = "raster".equals(type) || "raster-dem".equals(type);
+      if (!raster && !"vector".equals(type)) {
+        continue;
+      }
+      JsonObject tileSet = source;
+      if (!source.has("tiles") && source.has("url")) {
+        try {
+          final JsonObject tileJson = readJson(context, source.get("url").getAsString());
+          if (tileJson != null) {
+            tileSet = tileJson;
+          }
+        } catch (Exception e) {
+          Log.w(TAG, "Could not load TileJSON of source " + entry.getKey(), e);
+        }
+      }
+      sources.add(
+          new TileSource(
+              raster,
+              source.has("tileSize")
+                  ? source.get("tileSize").getAsInt()
+                  : OfflineTileCover.TILE_SIZE,
+              tileSet.has("minzoom")
+                  ? (int) tileSet.get("minzoom").getAsDouble()
+                  : OfflineTileCover.DEFAULT_MIN_ZOOM,
+              tileSet.has("maxzoom")
+                  ? (int) tileSet.get("maxzoom").getAsDouble()
+                  : OfflineTileCover.DEFAULT_MAX_ZOOM));
+    }
+    return sources;
+  }
+
+  /** Reads a JSON document from an http(s), asset or file URL, or returns null for other URLs. */
+  @Nullable
+  private static JsonObject readJson(Context context, String url) throws IOException {
+    if (url.startsWith("http://") || url.startsWith("https://")) {
+      final Request request = new Request.Builder().url(url).build();
+      try (Response response =
+          TrackAsiaHttpClientFactory.client(context).newCall(request).execute()) {
+        if (!response.isSuccessful() || response.body() == null) {
+          throw new IOException("HTTP " + response.code() + " for " + url);
+        }
+        return new JsonParser().parse(response.body().charStream()).getAsJsonObject();
+      }
+    }
+    final InputStream input;
+    if (url.startsWith("asset://")) {
+      input = context.getAssets().open(url.substring("asset://".length()));
+    } else if (url.startsWith("file://")) {
+      input = new FileInputStream(url.substring("file://".length()));
+    } else {
+      return null;
+    }
+    try (Reader reader = new InputStreamReader(input, StandardCharsets.UTF_8)) {
+      return new JsonParser().parse(reader).getAsJsonObject();
+    }
+  }
+
+  private static SharedPreferences preferences(Context context) {
+    return context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+  }
+}
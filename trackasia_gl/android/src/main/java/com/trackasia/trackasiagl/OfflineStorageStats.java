@@ -0,0 +1,288 @@
+package com.trackasia.trackasiagl;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import androidx.annotation.Nullable;
+import com.trackasia.android.geometry.LatLngBounds;
+import com.trackasia.android.offline.OfflineGeometryRegionDefinition;
+import com.trackasia.android.offline.OfflineRegion;
+import com.trackasia.android.offline.OfflineRegionDefinition;
+import com.trackasia.android.offline.OfflineRegionStatus;
+import io.flutter.plugin.common.MethodChannel;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Collects the storage statistics of the offline database: the status of every region, the size
+ * of the database file and an estimate of how much of it is ambient cache.
+ *
+ * <p>Regions share the tiles they have in common, which the offline manager does not report. The
+ * shared tiles of a region are estimated from the overlap of its tile pyramid with the pyramids of
+ * the other regions, using the polygon cover of geometry regions; with more than two regions
+ * overlapping in the same place it is an upper bound. Regions whose bounds only touch share no
+ * tiles. The ambient cache is estimated as the part of the database file not used by regions.
+ */
+final class OfflineStorageStats {
+  private static final String DATABASE_NAME = "mbgl-offline.db";
+  private static final String PREFERENCES_NAME = "trackasia_gl_offline_stats";
+  private static final String KEY_LAST_DOWNLOAD = "lastDownloadMillis";
+
+  // Covering geometry regions at every zoom level is too slow for the main thread.
+  private static final ExecutorService worker =
+      Executors.newSingleThreadExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, "trackasia-offline-stats");
+            thread.setDaemon(true);
+            return thread;
+          });
+  private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+  private OfflineStorageStats() {}
+
+  /** Remembers the time of a completed region download or refresh. */
+  static void recordDownloadCompleted(Context context) {
+    context
+        .getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE)
+        .edit()
+        .putLong(KEY_LAST_DOWNLOAD, System.currentTimeMillis())
+        .apply();
+  }
+
+  /** Replies with the statistics once the status of every region has been read. */
+  static void collect(MethodChannel.Result result, Context context) {
+    readStatuses(
+        context,
+        new StatusesCallback() {
+          @Override
+          public void onStatuses(List<OfflineRegion> regions, OfflineRegionStatus[] statuses) {
+            worker.execute(
+                () -> {
+                  final Map<String, Object> stats = toMap(context, regions, statuses);
+                  mainHandler.post(() -> result.success(stats));
+                });
+          }
+
+          @Override
+          public void onError(String error) {
+            result.error("RegionListError", error, null);
+          }
+        });
+  }
+
+  interface StatusesCallback {
+    /** {@code statuses} is parallel to {@code regions}, null where a status could not be read. */
+    void onStatuses(List<OfflineRegion> regions, OfflineRegionStatus[] statuses);
+
+    void onError(String error);
+  }
+
+  /** Reads the status of every cataloged region. Callbacks run on the main thread. */
+  static void readStatuses(Context context, StatusesCallback callback) {
+    OfflineRegionCatalog.load(
+        context,
+        new OfflineRegionCatalog.Callback() {
+          @Override
+          public void onLoaded() {
+            final List<OfflineRegion> regions = new ArrayList<>();
+            for (OfflineRegionCatalog.Entry entry : OfflineRegionCatalog.all()) {
+              regions.add(entry.region);
+            }
+            final OfflineRegionStatus[] statuses = new OfflineRegionStatus[regions.size()];
+            final int[] pending = {regions.size()};
+            if (regions.isEmpty()) {
+              callback.onStatuses(regions, statuses);
+              return;
+            }
+            for (int i = 0; i < regions.size(); i++) {
+              final int index = i;
+              regions
+                  .get(i)
+                  .getStatus(
+                      new OfflineRegion.OfflineRegionStatusCallback() {
+                        @Override
+                        public void onStatus(OfflineRegionStatus status) {
+                          statuses[index] = status;
+                          onDone();
+                        }
+
+                        @Override
+                        public void onError(String error) {
+                          onDone();
+                        }
+
+                        private void onDone() {
+                          if (--pending[0] == 0) {
+                            callback.onStatuses(regions, statuses);
+                          }
+                        }
+                      });
+            }
+          }
+
+          @Override
+          public void onError(String error) {
+            callback.onError(error);
+          }
+        });
+  }
+
+  /** Returns the size of the offline database files in bytes. */
+  static long databaseSize(Context context) {
+    long size = 0;
+    for (String suffix : new String[] {"", "-wal", "-journal"}) {
+      size += new File(context.getFilesDir(), DATABASE_NAME + suffix).length();
+    }
+    return size;
+  }
+
+  private static Map<String, Object> toMap(
+      Context context, List<OfflineRegion> regions, OfflineRegionStatus[] statuses) {
+    final long[] pyramidTiles = new long[regions.size()];
+    final List<RegionTiles> tiles = new ArrayList<>(regions.size());
+    for (int i = 0; i < regions.size(); i++) {
+      pyramidTiles[i] = OfflineRegionEstimator.tileCount(regions.get(i).getDefinition());
+      tiles.add(new RegionTiles(regions.get(i).getDefinition()));
+    }
+
+    final List<Map<String, Object>> regionStats = new ArrayList<>(regions.size());
+    long regionsSize = 0;
+    for (int i = 0; i < regions.size(); i++) {
+      final OfflineRegionStatus status = statuses[i];
+      long shared = 0;
+      for (int j = 0; j < regions.size(); j++) {
+        if (i != j) {
+          shared += sharedTileCount(tiles.get(i), tiles.get(j));
+        }
+      }
+      final Map<String, Object> stats = new HashMap<>(9);
+      stats.put("id", regions.get(i).getId());
+      stats.put("sharedTileEstimate", Math.min(shared, pyramidTiles[i]));
+      if (status != null) {
+        stats.put("downloadState", status.getDownloadState());
+        stats.put("complete", status.isComplete());
+        stats.put("completedResourceCount", status.getCompletedResourceCount());
+        stats.put("completedResourceSize", status.getCompletedResourceSize());
+        stats.put("completedTileCount", status.getCompletedTileCount());
+        stats.put("completedTileSize", status.getCompletedTileSize());
+        stats.put("requiredResourceCount", status.getRequiredResourceCount());
+        regionsSize += status.getCompletedResourceSize();
+      }
+      regionStats.add(stats);
+    }
+
+    final long databaseSize = databaseSize(context);
+    final long lastDownload =
+        context
+            .getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE)
+            .getLong(KEY_LAST_DOWNLOAD, -1);
+
+    final Map<String, Object> stats = new HashMap<>(6);
+    stats.put("regions", regionStats);
+    stats.put("regionsSize", regionsSize);
+    stats.put("databaseSize", databaseSize);
+    // Shared resources are counted once per region, so this is a lower bound.
+    stats.put("ambientCacheSizeEstimate", Math.max(0, databaseSize - regionsSize));
+    stats.put(
+        "millisSinceLastDownload",
+        lastDownload >= 0 ? Math.max(0, System.currentTimeMillis() - lastDownload) : -1L);
+    return stats;
+  }
+
+  /** The tiles of a region, with the polygon covers of a geometry region kept per zoom level. */
+  private static final class RegionTiles {
+    final LatLngBounds bounds;
+    final double minZoom;
+    final double maxZoom;
+    @Nullable final List<List<double[]>> polygons;
+    private final Map<Integer, OfflineGeometryCover.Cover> covers = new HashMap<>();
+
+    RegionTiles(OfflineRegionDefinition definition) {
+      bounds = definition.getBounds();
+      minZoom = definition.getMinZoom();
+      maxZoom = definition.getMaxZoom();
+      polygons =
+          definition instanceof OfflineGeometryRegionDefinition
+              ? OfflineManagerUtils.regionPolygons(
+                  ((OfflineGeometryRegionDefinition) definition).getGeometry())
+              : null;
+    }
+
+    OfflineGeometryCover.Cover cover(int zoom) {
+      OfflineGeometryCover.Cover cover = covers.get(zoom);
+      if (cover == null) {
+        cover = OfflineGeometryCover.polygons(polygons, zoom);
+        covers.put(zoom, cover);
+      }
+      return cover;
+    }
+  }
+
+  /**
+   * Returns the number of tiles of {@code a} in the grid of one vector source that are also part of
+   * {@code b}, judged by their polygon covers or bounds and their zoom ranges.
+   */
+  private static long sharedTileCount(RegionTiles a, RegionTiles b) {
+    final double south = Math.max(a.bounds.getLatSouth(), b.bounds.getLatSouth());
+    final double west = Math.max(a.bounds.getLonWest(), b.bounds.getLonWest());
+    final double north = Math.min(a.bounds.getLatNorth(), b.bounds.getLatNorth());
+    final double east = Math.min(a.bounds.getLonEast(), b.bounds.getLonEast());
+    final double minZoom = Math.max(a.minZoom, b.minZoom);
+    final double maxZoom = Math.min(a.maxZoom, b.maxZoom);
+    // Bounds that only touch share a line, not tiles.
+    if (south >= north || west >= east || minZoom > maxZoom) {
+      return 0;
+    }
+    final OfflineTileCover.TileCounter counter;
+    if (a.polygons != null && b.polygons != null) {
+      counter = zoom -> a.cover(zoom).sharedTileCount(b.cover(zoom));
+    } else if (a.polygons != null || b.polygons != null) {
+      final RegionTiles geometry = a.polygons != null ? a : b;
+      final LatLngBounds bounds = a.polygons != null ? b.bounds : a.bounds;
+      counter = zoom -> boundsTileCount(geometry.cover(zoom), bounds, zoom);
+    } else {
+      counter = zoom -> OfflineTileCover.tileCount(south, west, north, east, zoom);
+    }
+    long count = 0;
+    for (long zoomCount :
+        OfflineTileCover.tileCountsPerZoom(
+            counter,
+            minZoom,
+            maxZoom,
+            false,
+            OfflineTileCover.TILE_SIZE,
+            OfflineTileCover.DEFAULT_MIN_ZOOM,
+            OfflineTileCover.DEFAULT_MAX_ZOOM)) {
+      count += zoomCount;
+    }
+    return count;
+  }
+
+  /**
+   * Returns the number of tiles of {@code cover} within the tiles of the bounds, as counted by
+   * {@link OfflineTileCover#tileCount}.
+   */
+  private static long boundsTileCount(
+      OfflineGeometryCover.Cover cover, LatLngBounds bounds, int zoom) {
+    final long maxTile = (1L << zoom) - 1;
+    final long minY =
+        (long) Math.max(0, Math.floor(OfflineTileCover.projectY(bounds.getLatNorth(), zoom)));
+    final long maxY =
+        (long)
+            Math.min(maxTile, Math.floor(OfflineTileCover.projectY(bounds.getLatSouth(), zoom)));
+    final long minX = (long) Math.floor(OfflineTileCover.projectX(bounds.getLonWest(), zoom));
+    final long maxX = (long) Math.ceil(OfflineTileCover.projectX(bounds.getLonEast(), zoom)) - 1;
+    if (zoom == 0) {
+      return cover.tileCount(0, 0, 0, 0);
+    } else if (minX > maxX) {
+      // The bounds cross the antimeridian.
+      return cover.tileCount(minX, maxTile, minY, maxY) + cover.tileCount(0, maxX, minY, maxY);
+    }
+    return cover.tileCount(minX, maxX, minY, maxY);
+  }
+}
@@ -0,0 +1,119 @@
+package com.trackasia.trackasiagl;
+
+/**
+ * Tile pyramid math of the offline downloader.
+ *
+ * <p>Mirrors {@code util::tileCount} and {@code coveringZoomRange} of the native offline
+ * download, so the counts match the tiles the offline manager will request for a tile pyramid
+ * region. Tiles are addressed in the 512 pixel tile grid of the renderer.
+ */
+abstract class OfflineTileCover {
+  static final int TILE_SIZE = 512;
+  static final double MAX_LATITUDE = 85.051128779806604;
+  // Zoom range of sources that do not declare one, as in the native Tileset.
+  static final int DEFAULT_MIN_ZOOM = 0;
+  static final int DEFAULT_MAX_ZOOM = 22;
+
+  /**
+   * Returns the zoom level whose tiles cover {@code zoom}: rounded for raster sources and floored
+   * for everything else, after adjusting for the tile size of the source.
+   */
+  static int coveringZoomLevel(double zoom, boolean raster, int tileSize) {
+    final double adjusted = zoom + Math.log((double) TILE_SIZE / tileSize) / Math.log(2);
+    return (int) (raster ? Math.round(adjusted) : Math.floor(adjusted));
+  }
+
+  /**
+   * Returns the tile counts of a pyramid indexed by {@code zoom - first zoom}, or an empty array if
+   * the zoom ranges do not overlap. The first zoom is {@link #firstZoom}.
+   */
+  static long[] tileCountsPerZoom(
+      double south,
+      double west,
+      double north,
+      double east,
+      double minZoom,
+      double maxZoom,
+      boolean raster,
+      int tileSize,
+      int sourceMinZoom,
+      int sourceMaxZoom) {
+    return tileCountsPerZoom(
+        zoom -> tileCount(south, west, north, east, zoom),
+        minZoom,
+        maxZoom,
+        raster,
+        tileSize,
+        sourceMinZoom,
+        sourceMaxZoom);
+  }
+
+  /** Counts the tiles of a region at one zoom level. */
+  interface TileCounter {
+    long tileCount(int zoom);
+  }
+
+  /** Like the bounds variant, for regions whose tiles are counted by {@code counter}. */
+  static long[] tileCountsPerZoom(
+      TileCounter counter,
+      double minZoom,
+      double maxZoom,
+      boolean raster,
+      int tileSize,
+      int sourceMinZoom,
+      int sourceMaxZoom) {
+    final int first = firstZoom(minZoom, raster, tileSize, sourceMinZoom);
+    final int last = lastZoom(maxZoom, raster, tileSize, sourceMaxZoom);
+    if (last < first) {
+      return new long[0];
+    }
+    final long[] counts = new long[last - first + 1];
+    for (int zoom = first; zoom <= last; zoom++) {
+      counts[zoom - first] = counter.tileCount(zoom);
+    }
+    return counts;
+  }
+
+  static int firstZoom(double minZoom, boolean raster, int tileSize, int sourceMinZoom) {
+    return Math.max(coveringZoomLevel(minZoom, raster, tileSize), sourceMinZoom);
+  }
+
+  static int lastZoom(double maxZoom, boolean raster, int tileSize, int sourceMaxZoom) {
+    // An unbounded max zoom downloads up to the max zoom of the source.
+    if (Double.isInfinite(maxZoom)) {
+      return sourceMaxZoom;
+    }
+    return Math.min(coveringZoomLevel(maxZoom, raster, tileSize), sourceMaxZoom);
+  }
+
+  /** Returns the number of tiles of {@code zoom} intersecting the bounds. */
+  static long tileCount(double south, double west, double north, double east, int zoom) {
+    if (zoom == 0) {
+      return 1;
+    }
+    final double maxTile = Math.pow(2, zoom);
+    final double x1 = Math.floor(projectX(west, zoom));
+    final double x2 = Math.ceil(projectX(east, zoom)) - 1;
+    final double y1 = clamp(Math.floor(projectY(south, zoom)), 0, maxTile - 1);
+    final double y2 = clamp(Math.floor(projectY(north, zoom)), 0, maxTile - 1);
+    final double dx = x1 > x2 ? (maxTile - x1) + x2 : x2 - x1;
+    final double dy = y1 - y2;
+    return (long) ((dx + 1) * (dy + 1));
+  }
+
+  /** Returns the x coordinate of {@code longitude} in tile units of {@code zoom}. */
+  static double projectX(double longitude, int zoom) {
+    return (180 + longitude) / 360 * Math.pow(2, zoom);
+  }
+
+  /** Returns the y coordinate of {@code latitude} in tile units of {@code zoom}. */
+  static double projectY(double latitude, int zoom) {
+    final double lat = clamp(latitude, -MAX_LATITUDE, MAX_LATITUDE);
+    final double y = 180 / Math.PI * Math.log(Math.tan(Math.PI / 4 + lat * Math.PI / 360));
+    return (180 - y) / 360 * Math.pow(2, zoom);
+  }
+
+  private static double clamp(double value, double min, double max) {
+    return Math.max(min, Math.min(max, value));
+  }
+}
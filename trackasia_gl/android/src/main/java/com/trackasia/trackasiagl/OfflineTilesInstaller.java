@@ -0,0 +1,291 @@
+package com.trackasia.trackasiagl;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.annotation.Nullable;
+import io.flutter.embedding.engine.plugins.FlutterPlugin;
+import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.EventChannel;
+import io.flutter.plugin.common.MethodChannel;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Installs a sideloaded tiles database as the offline database, off the main thread.
+ *
+ * <p>The database is copied to a temporary file next to the offline database and renamed over it
+ * only once the copy is complete and its SHA-256 matches the expected one, so a failed or
+ * interrupted install leaves the previous database untouched. Files, and assets stored
+ * uncompressed, are copied with {@link FileChannel#transferTo} or, when a checksum has to be
+ * computed, through memory-mapped windows; compressed assets are streamed. Progress is sent as
+ * maps over {@link #CHANNEL_NAME}.
+ */
+final class OfflineTilesInstaller implements EventChannel.StreamHandler {
+  private static final String TAG = "OfflineTilesInstaller";
+  static final String CHANNEL_NAME = "plugins.flutter.io/trackasia_gl_offline_install";
+  private static final String DATABASE_NAME = "mbgl-offline.db";
+  private static final long CHUNK_SIZE = 64L * 1024 * 1024;
+  private static final int STREAM_BUFFER_SIZE = 256 * 1024;
+  private static final long PROGRESS_INTERVAL_MILLIS = 250;
+
+  private final Context context;
+  @Nullable private final FlutterPlugin.FlutterAssets flutterAssets;
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private final ExecutorService worker =
+      Executors.newSingleThreadExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, "trackasia-offline-install");
+            thread.setDaemon(true);
+            return thread;
+          });
+  @Nullable private EventChannel.EventSink sink;
+  private boolean installing = false;
+
+  OfflineTilesInstaller(
+      Context context,
+      BinaryMessenger messenger,
+      @Nullable FlutterPlugin.FlutterAssets flutterAssets) {
+    this.context = context;
+    this.flutterAssets = flutterAssets;
+    new EventChannel(messenger, CHANNEL_NAME).setStreamHandler(this);
+  }
+
+  @Override
+  public void onListen(Object arguments, EventChannel.EventSink events) {
+    sink = events;
+  }
+
+  @Override
+  public void onCancel(Object arguments) {
+    sink = null;
+  }
+
+  /**
+   * Installs {@code tilesDb}, an absolute path or a Flutter asset key, and completes {@code
+   * result} once the new database is in place. Must be called on the main thread.
+   */
+  void install(MethodChannel.Result result, String tilesDb, @Nullable String expectedSha256) {
+    if (installing) {
+      result.error("INSTALL_IN_PROGRESS", "Another tiles database is being installed", null);
+      return;
+    }
+    installing = true;
+    worker.execute(
+        () -> {
+          final File dest = new File(context.getFilesDir(), DATABASE_NAME);
+          final File temp = new File(context.getFilesDir(), DATABASE_NAME + ".tmp");
+          try {
+            final String sha256 = copy(tilesDb, temp, expectedSha256 != null);
+            if (expectedSha256 != null && !expectedSha256.equalsIgnoreCase(sha256)) {
+              throw new InstallException(
+                  "CHECKSUM_MISMATCH",
+                  "Expected SHA-256 " + expectedSha256 + " but " + tilesDb + " has " + sha256);
+            }
+            if (!temp.renameTo(dest)) {
+              throw new InstallException("INSTALL_ERROR", "Could not replace " + dest);
+            }
+            final long size = dest.length();
+            mainHandler.post(
+                () -> {
+                  installing = false;
+                  // The offline database was replaced, so the cached regions are stale.
+                  OfflineRegionCatalog.invalidate();
+                  final Map<String, Object> reply = new HashMap<>(2);
+                  reply.put("size", size);
+                  reply.put("sha256", sha256);
+                  result.success(reply);
+                });
+          } catch (InstallException e) {
+            fail(result, temp, e.code, e.getMessage());
+          } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Could not install " + tilesDb, e);
+            fail(result, temp, "INSTALL_ERROR", e.getMessage());
+          }
+        });
+  }
+
+  private void fail(MethodChannel.Result result, File temp, String code, String message) {
+    if (temp.exists() && !temp.delete()) {
+      Log.w(TAG, "Could not delete " + temp);
+    }
+    mainHandler.post(
+        () -> {
+          installing = false;
+          result.error(code, message, null);
+        });
+  }
+
+  /** Copies the database to {@code dest} and returns its SHA-256 if {@code digest} is set. */
+  @Nullable
+  private String copy(String tilesDb, File dest, boolean digest)
+      throws IOException, InstallException {
+    final MessageDigest messageDigest = digest ? sha256() : null;
+    final Progress progress = new Progress(tilesDb);
+    try (FileOutputStream output = new FileOutputStream(dest)) {
+      final FileChannel out = output.getChannel();
+      if (tilesDb.startsWith("/")) { // Absolute path.
+        try (FileInputStream input = new FileInputStream(tilesDb)) {
+          final FileChannel in = input.getChannel();
+          copyRange(in, 0, in.size(), out, messageDigest, progress);
+        }
+      } else {
+        final String assetKey = assetKey(tilesDb);
+        AssetFileDescriptor descriptor = null;
+        try {
+          descriptor = context.getAssets().openFd(assetKey);
+        } catch (FileNotFoundException e) {
+          // Compressed assets have no file descriptor and are streamed below.
+        }
+        if (descriptor != null) {
+          try (FileInputStream input = descriptor.createInputStream()) {
+            copyRange(
+                input.getChannel(),
+                descriptor.getStartOffset(),
+                descriptor.getLength(),
+                out,
+                messageDigest,
+                progress);
+          } finally {
+            descriptor.close();
+          }
+        } else {
+          try (InputStream input = context.getAssets().open(assetKey)) {
+            copyStream(input, out, messageDigest, progress);
+          }
+        }
+      }
+      out.force(true);
+    }
+    return messageDigest != null ? toHex(messageDigest.digest()) : null;
+  }
+
+  private void copyRange(
+      FileChannel in,
+      long start,
+      long length,
+      FileChannel out,
+      @Nullable MessageDigest digest,
+      Progress progress)
+      throws IOException {
+    progress.total = length;
+    long copied = 0;
+    while (copied < length) {
+      final long count = Math.min(CHUNK_SIZE, length - copied);
+      if (digest != null) {
+        final MappedByteBuffer window =
+            in.map(FileChannel.MapMode.READ_ONLY, start + copied, count);
+        digest.update(window.duplicate());
+        while (window.hasRemaining()) {
+          out.write(window);
+        }
+        copied += count;
+      } else {
+        final long transferred = in.transferTo(start + copied, count, out);
+        if (transferred <= 0) {
+          throw new IOException("Unexpected end of " + progress.path);
+        }
+        copied += transferred;
+      }
+      progress.report(copied);
+    }
+  }
+
+  private void copyStream(
+      InputStream in, FileChannel out, @Nullable MessageDigest digest, Progress progress)
+      throws IOException {
+    final byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+    long copied = 0;
+    int n;
+    while ((n = in.read(buffer)) != -1) {
+      if (digest != null) {
+        digest.update(buffer, 0, n);
+      }
+      final ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, n);
+      while (chunk.hasRemaining()) {
+        out.write(chunk);
+      }
+      copied += n;
+      progress.report(copied);
+    }
+  }
+
+  private String assetKey(String tilesDb) throws InstallException {
+    if (flutterAssets == null) {
+      throw new InstallException("INSTALL_ERROR", "Flutter assets are not available");
+    }
+    return flutterAssets.getAssetFilePathByName(tilesDb);
+  }
+
+  private static MessageDigest sha256() throws InstallException {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new InstallException("INSTALL_ERROR", "SHA-256 is not available");
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    final StringBuilder hex = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      hex.append(String.format(Locale.ROOT, "%02x", b));
+    }
+    return hex.toString();
+  }
+
+  /** Sends progress events at most every {@link #PROGRESS_INTERVAL_MILLIS} and on completion. */
+  private final class Progress {
+    final String path;
+    long total = -1;
+    private long lastEventMillis = -1;
+
+    Progress(String path) {
+      this.path = path;
+    }
+
+    void report(long copied) {
+      final long now = SystemClock.elapsedRealtime();
+      final boolean done = total >= 0 && copied >= total;
+      if (!done && lastEventMillis >= 0 && now - lastEventMillis < PROGRESS_INTERVAL_MILLIS) {
+        return;
+      }
+      lastEventMillis = now;
+      final Map<String, Object> event = new HashMap<>(3);
+      event.put("path", path);
+      event.put("copiedBytes", copied);
+      event.put("totalBytes", total);
+      mainHandler.post(
+          () -> {
+            if (sink != null) {
+              sink.success(event);
+            }
+          });
+    }
+  }
+
+  private static final class InstallException extends Exception {
+    final String code;
+
+    InstallException(String code, String message) {
+      super(message);
+      this.code = code;
+    }
+  }
+}
@@ -0,0 +1,375 @@
+package com.trackasia.trackasiagl;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.annotation.Nullable;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Remote style documents kept on disk with their validators, so maps can show a style without
+ * waiting for the network.
+ *
+ * <p>A cached style is handed out at once and revalidated in the background with {@code
+ * If-None-Match} and {@code If-Modified-Since}, at most every {@link #REVALIDATE_INTERVAL_MILLIS}
+ * per URL; the listener hears again only if the content changed. A style that is not cached is
+ * downloaded first. Styles are requested with the client of the map SDK, so they carry the same
+ * headers as the requests of the map. A style loaded from JSON has no URL to resolve relative URLs
+ * against, so the relative sprite, glyphs and source URLs are resolved against the style's URL
+ * before the style is cached.
+ */
+abstract class StyleCache {
+  private static final String TAG = "StyleCache";
+  private static final String DIRECTORY = "trackasia_gl_styles";
+  private static final int MAX_DISK_ENTRIES = 8;
+  private static final int MAX_MEMORY_ENTRIES = 4;
+  private static final long REVALIDATE_INTERVAL_MILLIS = 60_000;
+
+  private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private static final ExecutorService worker =
+      Executors.newSingleThreadExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, "trackasia-style-cache");
+            thread.setDaemon(true);
+            return thread;
+          });
+  // Accessed on the main thread only.
+  private static final Map<String, Entry> memory =
+      new LinkedHashMap<String, Entry>(MAX_MEMORY_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+          return size() > MAX_MEMORY_ENTRIES;
+        }
+      };
+  private static final Map<String, Long> lastRevalidation = new HashMap<>();
+
+  interface Listener {
+    /** Called with the cached style, and again with the new one if it changed on the server. */
+    void onStyle(String json);
+
+    /** Called if the style is neither cached nor could be downloaded. */
+    void onUnavailable();
+  }
+
+  private static final class Entry {
+    final String json;
+    @Nullable final String etag;
+    @Nullable final String lastModified;
+
+    Entry(String json, @Nullable String etag, @Nullable String lastModified) {
+      this.json = json;
+      this.etag = etag;
+      this.lastModified = lastModified;
+    }
+  }
+
+  /** Loads the style at {@code url}. Must be called on the main thread. */
+  static void load(Context context, String url, Listener listener) {
+    final Entry cached = memory.get(url);
+    if (cached != null) {
+      listener.onStyle(cached.json);
+    }
+    final boolean revalidate = shouldRevalidate(url);
+    if (cached != null && !revalidate) {
+      return;
+    }
+    worker.execute(
+        () -> {
+          Entry entry = cached;
+          if (entry == null) {
+            entry = read(context, url);
+            if (entry != null) {
+              final Entry diskEntry = entry;
+              mainHandler.post(
+                  () -> {
+                    memory.put(url, diskEntry);
+                    listener.onStyle(diskEntry.json);
+                  });
+            }
+          }
+          if (entry != null && !revalidate) {
+            return;
+          }
+          final Entry fetched = fetch(context, url, entry);
+          if (fetched == null) {
+            if (entry == null) {
+              mainHandler.post(listener::onUnavailable);
+            }
+            return;
+          }
+          final boolean changed = entry == null || !entry.json.equals(fetched.json);
+          if (fetched != entry) {
+            write(context, url, fetched);
+          }
+          mainHandler.post(
+              () -> {
+                memory.put(url, fetched);
+                if (changed) {
+                  listener.onStyle(fetched.json);
+                }
+              });
+        });
+  }
+
+  /** Deletes the cached styles. */
+  static void clear(Context context) {
+    memory.clear();
+    lastRevalidation.clear();
+    worker.execute(
+        () -> {
+          final File[] files = directory(context).listFiles();
+          if (files == null) {
+            return;
+          }
+          for (File file : files) {
+            if (!file.delete()) {
+              Log.w(TAG, "Could not delete " + file);
+            }
+          }
+        });
+  }
+
+  private static boolean shouldRevalidate(String url) {
+    final long now = SystemClock.elapsedRealtime();
+    final Long last = lastRevalidation.get(url);
+    if (last != null && now - last < REVALIDATE_INTERVAL_MILLIS) {
+      return false;
+    }
+    lastRevalidation.put(url, now);
+    return true;
+  }
+
+  /**
+   * Downloads the style, conditionally if {@code cached} is set. Returns {@code cached} if it is
+   * still current, the new entry if it changed, or null if the request failed.
+   */
+  @Nullable
+  private static Entry fetch(Context context, String url, @Nullable Entry cached) {
+    final Request.Builder request = new Request.Builder().url(url);
+    if (cached != null && cached.etag != null) {
+      request.header("If-None-Match", cached.etag);
+    }
+    if (cached != null && cached.lastModified != null) {
+      request.header("If-Modified-Since", cached.lastModified);
+    }
+    try (Response response =
+        TrackAsiaHttpRequestUtil.client(context).newCall(request.build()).execute()) {
+      if (response.code() == 304 && cached != null) {
+        return cached;
+      }
+      if (!response.isSuccessful() || response.body() == null) {
+        Log.w(TAG, "HTTP " + response.code() + " for " + url);
+        return null;
+      }
+      final String json = resolveUrls(response.body().string(), url);
+      return new Entry(json, response.header("ETag"), response.header("Last-Modified"));
+    } catch (IOException | RuntimeException e) {
+      Log.w(TAG, "Could not download " + url, e);
+      return null;
+    }
+  }
+
+  /**
+   * Returns the style with its relative sprite, glyphs and source URLs resolved against {@code
+   * styleUrl}, or unchanged if they are all absolute.
+   */
+  private static String resolveUrls(String json, String styleUrl) {
+    final JsonObject style = new JsonParser().parse(json).getAsJsonObject();
+    boolean resolved = resolve(style, "glyphs", styleUrl);
+    final JsonElement sprite = style.get("sprite");
+    if (sprite != null && sprite.isJsonArray()) {
+      for (JsonElement element : sprite.getAsJsonArray()) {
+        resolved |= resolve(element.getAsJsonObject(), "url", styleUrl);
+      }
+    } else {
+      resolved |= resolve(style, "sprite", styleUrl);
+    }
+    if (style.has("sources")) {
+      for (Map.Entry<String, JsonElement> source :
+          style.getAsJsonObject("sources").entrySet()) {
+        final JsonObject definition = source.getValue().getAsJsonObject();
+        resolved |= resolve(definition, "url", styleUrl);
+        resolved |= resolve(definition, "data", styleUrl);
+        if (definition.has("tiles")) {
+          final JsonArray tiles = definition.getAsJsonArray("tiles");
+          for (int i = 0; i < tiles.size(); i++) {
+            final String tile = relativeUrl(tiles.get(i));
+            if (tile != null) {
+              tiles.set(i, new JsonPrimitive(resolve(styleUrl, tile)));
+              resolved = true;
+            }
+          }
+        }
+      }
+    }
+    return resolved ? style.toString() : json;
+  }
+
+  /** Resolves the URL in {@code object.key} if it is relative. Returns whether it was. */
+  private static boolean resolve(JsonObject object, String key, String styleUrl) {
+    final String url = relativeUrl(object.get(key));
+    if (url == null) {
+      return false;
+    }
+    object.addProperty(key, resolve(styleUrl, url));
+    return true;
+  }
+
+  @Nullable
+  private static String relativeUrl(@Nullable JsonElement element) {
+    if (element == null
+        || !element.isJsonPrimitive()
+        || !element.getAsJsonPrimitive().isString()
+        || element.getAsString().contains("://")) {
+      return null;
+    }
+    return element.getAsString();
+  }
+
+  /**
+   * Resolves {@code url} against {@code base}. The braces of URL templates like {@code
+   * {fontstack}/{range}.pbf} are not valid in a URI, so they are escaped while resolving.
+   */
+  private static String resolve(String base, String url) {
+    final String escaped = url.replace("{", "%7B").replace("}", "%7D");
+    final String resolved = URI.create(base).resolve(escaped).toString();
+    return url.contains("{") ? resolved.replace("%7B", "{").replace("%7D", "}") : resolved;
+  }
+
+  @Nullable
+  private static Entry read(Context context, String url) {
+    final File meta = file(context, url, ".meta");
+    final File body = file(context, url, ".json");
+    if (!meta.exists() || !body.exists()) {
+      return null;
+    }
+    try {
+      final JsonObject validators = new JsonParser().parse(readString(meta)).getAsJsonObject();
+      if (!url.equals(validators.get("url").getAsString())) {
+        return null;
+      }
+      final String json = readString(body);
+      // Keep the entry from being pruned as one of the oldest.
+      meta.setLastModified(System.currentTimeMillis());
+      return new Entry(
+          json,
+          validators.has("etag") ? validators.get("etag").getAsString() : null,
+          validators.has("lastModified") ? validators.get("lastModified").getAsString() : null);
+    } catch (IOException | RuntimeException e) {
+      Log.w(TAG, "Could not read the cached style of " + url, e);
+      return null;
+    }
+  }
+
+  private static void write(Context context, String url, Entry entry) {
+    final JsonObject validators = new JsonObject();
+    validators.addProperty("url", url);
+    if (entry.etag != null) {
+      validators.addProperty("etag", entry.etag);
+    }
+    if (entry.lastModified != null) {
+      validators.addProperty("lastModified", entry.lastModified);
+    }
+    try {
+      // The body is written first, so a meta file always has the body it describes.
+      writeAtomically(file(context, url, ".json"), entry.json);
+      writeAtomically(file(context, url, ".meta"), validators.toString());
+    } catch (IOException e) {
+      Log.w(TAG, "Could not cache the style of " + url, e);
+      return;
+    }
+    prune(context);
+  }
+
+  /** Deletes the least recently used styles beyond {@link #MAX_DISK_ENTRIES}. */
+  private static void prune(Context context) {
+    final File[] metas = directory(context).listFiles((dir, name) -> name.endsWith(".meta"));
+    if (metas == null || metas.length <= MAX_DISK_ENTRIES) {
+      return;
+    }
+    Arrays.sort(metas, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+    for (int i = 0; i < metas.length - MAX_DISK_ENTRIES; i++) {
+      final String name = metas[i].getName();
+      final File body = new File(metas[i].getParentFile(), name.replace(".meta", ".json"));
+      if (!metas[i].delete() || (body.exists() && !body.delete())) {
+        Log.w(TAG, "Could not delete the cached style " + name);
+      }
+    }
+  }
+
+  private static void writeAtomically(File file, String content) throws IOException {
+    final File temp = new File(file.getPath() + ".tmp");
+    try (OutputStream output = new FileOutputStream(temp)) {
+      output.write(content.getBytes(StandardCharsets.UTF_8));
+    }
+    if (!temp.renameTo(file)) {
+      throw new IOException("Could not replace " + file);
+    }
+  }
+
+  private static String readString(File file) throws IOException {
+    final byte[] bytes = new byte[(int) file.length()];
+    try (InputStream input = new FileInputStream(file)) {
+      int read = 0;
+      while (read < bytes.length) {
+        final int n = input.read(bytes, read, bytes.length - read);
+        if (n < 0) {
+          throw new IOException("Unexpected end of " + file);
+        }
+        read += n;
+      }
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static File directory(Context context) {
+    final File directory = new File(context.getCacheDir(), DIRECTORY);
+    if (!directory.exists() && !directory.mkdirs()) {
+      Log.w(TAG, "Could not create " + directory);
+    }
+    return directory;
+  }
+
+  private static File file(Context context, String url, String extension) {
+    return new File(directory(context), key(url) + extension);
+  }
+
+  private static String key(String url) {
+    try {
+      final byte[] digest =
+          MessageDigest.getInstance("SHA-1").digest(url.getBytes(StandardCharsets.UTF_8));
+      final StringBuilder hex = new StringBuilder(digest.length * 2);
+      for (byte b : digest) {
+        hex.append(String.format(Locale.ROOT, "%02x", b));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      return Integer.toHexString(url.hashCode());
+    }
+  }
+}
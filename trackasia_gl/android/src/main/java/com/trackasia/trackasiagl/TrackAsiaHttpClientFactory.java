@@ -0,0 +1,134 @@
+package com.trackasia.trackasiagl;
+
+import android.content.Context;
+import android.util.Log;
+import androidx.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Cache;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+/**
+ * The HTTP client shared by the map SDK, navigation and the plugin's own requests.
+ *
+ * <p>All clients are derived from one base client with {@link OkHttpClient#newBuilder}, so they
+ * share its connection pool, TLS sessions, HTTP/2 connections and dispatcher. The base client has
+ * a bounded disk cache in the app's cache directory for the styles and TileJSON fetched by the
+ * plugin; the map SDK keeps its resources in its own ambient cache and does not use it. Calls are
+ * measured by {@link NetworkMetrics}.
+ */
+abstract class TrackAsiaHttpClientFactory {
+  private static final String TAG = "TrackAsiaHttpClient";
+  private static final String CACHE_DIRECTORY = "trackasia_gl_http";
+  private static final long KEEP_ALIVE_MINUTES = 5;
+  static final int DEFAULT_MAX_IDLE_CONNECTIONS = 8;
+  static final int DEFAULT_MAX_REQUESTS = 64;
+  // Same as the client of the map SDK.
+  static final int DEFAULT_MAX_REQUESTS_PER_HOST = 20;
+  static final long DEFAULT_CACHE_SIZE = 20L * 1024 * 1024;
+
+  private static int maxIdleConnections = DEFAULT_MAX_IDLE_CONNECTIONS;
+  private static int maxRequests = DEFAULT_MAX_REQUESTS;
+  private static int maxRequestsPerHost = DEFAULT_MAX_REQUESTS_PER_HOST;
+  private static boolean http2 = true;
+  private static long cacheSize = DEFAULT_CACHE_SIZE;
+  @Nullable private static OkHttpClient client;
+  // Caches of replaced clients by size, kept open until the calls of their client completed.
+  private static final Map<Long, Cache> retiringCaches = new HashMap<>();
+
+  /**
+   * Replaces the base client. Calls in flight complete on the previous client. Its cache is kept
+   * if the size did not change; otherwise the new client gets a cache directory of its own, and
+   * the previous cache is deleted once its calls completed.
+   */
+  static synchronized void configure(
+      int maxIdleConnections,
+      int maxRequests,
+      int maxRequestsPerHost,
+      boolean http2,
+      long cacheSize) {
+    TrackAsiaHttpClientFactory.maxIdleConnections = maxIdleConnections;
+    TrackAsiaHttpClientFactory.maxRequests = maxRequests;
+    TrackAsiaHttpClientFactory.maxRequestsPerHost = maxRequestsPerHost;
+    TrackAsiaHttpClientFactory.http2 = http2;
+    final long previousCacheSize = TrackAsiaHttpClientFactory.cacheSize;
+    TrackAsiaHttpClientFactory.cacheSize = cacheSize;
+    if (client != null && client.cache() != null) {
+      if (cacheSize == previousCacheSize) {
+        retiringCaches.put(previousCacheSize, client.cache());
+      } else {
+        retire(previousCacheSize, client.cache(), client.dispatcher());
+      }
+    }
+    client = null;
+  }
+
+  /** Deletes {@code cache} once the calls of {@code dispatcher} completed, unless taken back. */
+  private static void retire(long size, Cache cache, Dispatcher dispatcher) {
+    retiringCaches.put(size, cache);
+    final Runnable delete =
+        () -> {
+          synchronized (TrackAsiaHttpClientFactory.class) {
+            if (!retiringCaches.remove(size, cache)) {
+              return;
+            }
+          }
+          try {
+            // Editors of calls still reading their body are detached, the reads are unaffected.
+            cache.delete();
+            if (!cache.directory().delete()) {
+              Log.w(TAG, "Could not delete " + cache.directory());
+            }
+          } catch (IOException e) {
+            Log.w(TAG, "Could not delete the HTTP cache " + cache.directory(), e);
+          }
+        };
+    if (dispatcher.runningCallsCount() + dispatcher.queuedCallsCount() == 0) {
+      dispatcher.executorService().execute(delete);
+    } else {
+      dispatcher.setIdleCallback(delete);
+    }
+  }
+
+  /** Returns the base client, creating it on first use. */
+  static synchronized OkHttpClient client(Context context) {
+    if (client == null) {
+      final Dispatcher dispatcher = new Dispatcher();
+      dispatcher.setMaxRequests(maxRequests);
+      dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+      final OkHttpClient.Builder builder =
+          new OkHttpClient.Builder()
+              .connectionPool(
+                  new ConnectionPool(maxIdleConnections, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+              .dispatcher(dispatcher)
+              .eventListenerFactory(NetworkMetrics.FACTORY)
+              .protocols(
+                  http2
+                      ? Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1)
+                      : Collections.singletonList(Protocol.HTTP_1_1));
+      if (cacheSize > 0) {
+        // One directory per size, as the cache of a replaced client may still be open.
+        Cache cache = retiringCaches.remove(cacheSize);
+        if (cache == null) {
+          cache =
+              new Cache(
+                  new File(
+                      context.getApplicationContext().getCacheDir(),
+                      CACHE_DIRECTORY + "_" + cacheSize),
+                  cacheSize);
+        }
+        builder.cache(cache);
+      }
+      client = builder.build();
+    }
+    return client;
+  }
+}
@@ -1,43 +1,69 @@
 package com.trackasia.trackasiagl;
 
+import android.content.Context;
+import androidx.annotation.Nullable;
 import com.trackasia.android.module.http.HttpRequestUtil;
 import io.flutter.plugin.common.MethodChannel;
 import java.util.Map;
 import okhttp3.OkHttpClient;
-import okhttp3.Request;
 
 abstract class TrackAsiaHttpRequestUtil {
+  private static volatile HttpHeaderRules headerRules = HttpHeaderRules.EMPTY;
+  // Kept across client rebuilds so requests in flight on the previous client can be joined.
+  private static final InFlightRequestCoalescer coalescer = new InFlightRequestCoalescer();
+  @Nullable private static volatile OkHttpClient client;
 
-  public static void setHttpHeaders(Map<String, String> headers, MethodChannel.Result result) {
-    HttpRequestUtil.setOkHttpClient(getOkHttpClient(headers, result).build());
-    result.success(null);
-  }
-
-  private static OkHttpClient.Builder getOkHttpClient(
-      Map<String, String> headers, MethodChannel.Result result) {
+  /**
+   * Sets {@code headers} on the requests to every host and {@code hostHeaders}, keyed by host
+   * pattern, on the requests to matching hosts only. See {@link HttpHeaderRules}.
+   */
+  public static void setHttpHeaders(
+      Context context,
+      Map<String, String> headers,
+      @Nullable Map<String, Map<String, String>> hostHeaders,
+      MethodChannel.Result result) {
     try {
-      return new OkHttpClient.Builder()
-          .addNetworkInterceptor(
-              chain -> {
-                Request.Builder builder = chain.request().newBuilder();
-                for (Map.Entry<String, String> header : headers.entrySet()) {
-                  if (header.getKey() == null || header.getKey().trim().isEmpty()) {
-                    continue;
-                  }
-                  if (header.getValue() == null || header.getValue().trim().isEmpty()) {
-                    builder.removeHeader(header.getKey());
-                  } else {
-                    builder.header(header.getKey(), header.getValue());
-                  }
-                }
-                return chain.proceed(builder.build());
-              });
+      headerRules = HttpHeaderRules.compile(headers, hostHeaders);
+      install(context);
     } catch (Exception e) {
       result.error(
           "OK_HTTP_CLIENT_ERROR",
           "An unexcepted error happened during creating http " + "client" + e.getMessage(),
           null);
-      throw new RuntimeException(e);
+      return;
     }
+    result.success(null);
+  }
+
+  /**
+   * Makes the map SDK use a client derived from the shared one, with the current headers and
+   * identical requests in flight joined and the responses of offline refreshes counted. The SDK
+   * caches resources itself, so the HTTP cache of the shared client is left out.
+   */
+  static void install(Context context) {
+    client = getOkHttpClient(context).build();
+    HttpRequestUtil.setOkHttpClient(client);
+  }
+
+  /** Returns the client of the map SDK, for requests that should look like the map's own. */
+  static OkHttpClient client(Context context) {
+    if (client == null) {
+      install(context);
+    }
+    return client;
+  }
+
+  private static OkHttpClient.Builder getOkHttpClient(Context context) {
+    return TrackAsiaHttpClientFactory.client(context)
+        .newBuilder()
+        .cache(null)
+        .addInterceptor(OfflineRefreshCounter.INTERCEPTOR)
+        .addInterceptor(coalescer)
+        .addNetworkInterceptor(
+            chain ->
+                chain.proceed(
+                    headerRules
+                        .forHost(chain.request().url().host())
+                        .apply(chain.request())));
   }
 }
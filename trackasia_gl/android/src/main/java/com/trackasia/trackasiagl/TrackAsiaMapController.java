@@ -15,8 +15,10 @@ import android.graphics.PointF;
 import android.graphics.RectF;
 import android.location.Location;
 import android.os.Build;
+import android.os.SystemClock;
 import android.util.DisplayMetrics;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.Gravity;
 import android.view.MotionEvent;
 import android.view.TextureView;
@@ -25,13 +27,13 @@ import android.widget.FrameLayout;
 import android.util.Pair;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.lifecycle.DefaultLifecycleObserver;
 import androidx.lifecycle.Lifecycle;
 import androidx.lifecycle.LifecycleOwner;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
-import com.google.gson.JsonParser;
 
 import com.trackasia.android.gestures.AndroidGesturesManager;
 import com.trackasia.android.gestures.MoveGestureDetector;
@@ -94,7 +96,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -135,10 +137,13 @@ final class TrackAsiaMapController
   private int myLocationTrackingMode = 0;
   private int myLocationRenderMode = 0;
   private boolean disposed = false;
+  // The style last passed to setStyleString, to drop cached styles that arrive after another one.
+  @Nullable private String requestedStyle;
   private boolean dragEnabled = true;
   private MethodChannel.Result mapReadyResult;
   private LocationComponent locationComponent = null;
   private LocationEngineCallback<LocationEngineResult> locationEngineCallback = null;
+  private final UserLocationStreamHandler userLocationStream;
   private Style style;
   private Feature draggedFeature;
   private AndroidGesturesManager androidGesturesManager;
@@ -146,8 +151,33 @@ final class TrackAsiaMapController
   private LatLng dragOrigin;
   private LatLng dragPrevious;
 
-  private Set<String> interactiveFeatureLayerIds;
-  private Map<String, FeatureCollection> addedFeaturesByLayer;
+  private final InteractiveLayerHitTester interactiveLayers = new InteractiveLayerHitTester();
+  private final CameraMoveThrottler cameraMoveThrottler =
+      new CameraMoveThrottler(
+          new CameraMoveThrottler.Sink() {
+            @Override
+            public CameraPosition getCameraPosition() {
+              return trackAsiaMap != null ? trackAsiaMap.getCameraPosition() : null;
+            }
+
+            @Override
+            public void onCameraMove(double[] position) {
+              methodChannel.invokeMethod("camera#onMove", position);
+            }
+          });
+  private Map<String, GeoJsonFeatureStore> addedFeaturesByLayer;
+  private final GeoJsonUpdateQueue geoJsonUpdateQueue = new GeoJsonUpdateQueue();
+  private int batchDepth = 0;
+  private final Set<String> pendingGeoJsonUploads = new LinkedHashSet<>();
+  private boolean geoJsonUploadScheduled = false;
+  private final Choreographer.FrameCallback geoJsonUploadCallback =
+      new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+          geoJsonUploadScheduled = false;
+          flushGeoJsonUploads();
+        }
+      };
 
   private LatLngBounds bounds = null;
   Style.OnStyleLoaded onStyleLoadedCallback =
@@ -155,6 +185,7 @@ final class TrackAsiaMapController
         @Override
         public void onStyleLoaded(@NonNull Style style) {
           TrackAsiaMapController.this.style = style;
+          interactiveLayers.invalidate();
 
           // commented out while cherry-picking upstream956
           // if (myLocationEnabled) {
@@ -170,6 +201,8 @@ final class TrackAsiaMapController
 
           trackAsiaMap.addOnMapClickListener(TrackAsiaMapController.this);
           trackAsiaMap.addOnMapLongClickListener(TrackAsiaMapController.this);
+          // Diffs applied while the style was loading were kept for it.
+          flushGeoJsonUploads();
 
           methodChannel.invokeMethod("map#onStyleLoaded", null);
         }
@@ -190,8 +223,7 @@ final class TrackAsiaMapController
     this.styleStringInitial = styleStringInitial;
     this.mapViewContainer = new FrameLayout(context);
     this.mapView = new MapView(context, options);
-    this.interactiveFeatureLayerIds = new HashSet<>();
-    this.addedFeaturesByLayer = new HashMap<String, FeatureCollection>();
+    this.addedFeaturesByLayer = new HashMap<String, GeoJsonFeatureStore>();
     this.density = context.getResources().getDisplayMetrics().density;
     this.lifecycleProvider = lifecycleProvider;
     if (dragEnabled) {
@@ -200,6 +232,8 @@ final class TrackAsiaMapController
 
     mapViewContainer.addView(mapView);
     methodChannel = new MethodChannel(messenger, "plugins.flutter.io/trackasia_gl_" + id);
+    userLocationStream =
+        new UserLocationStreamHandler(messenger, "plugins.flutter.io/trackasia_gl_location_" + id);
     methodChannel.setMethodCallHandler(this);
   }
 
@@ -235,6 +269,8 @@ final class TrackAsiaMapController
     trackAsiaMap.addOnCameraMoveStartedListener(this);
     trackAsiaMap.addOnCameraMoveListener(this);
     trackAsiaMap.addOnCameraIdleListener(this);
+    // The map loads its first tiles before its camera comes to rest.
+    ViewportRequestCanceller.onCameraMoveStarted(id);
     
     // Initialize NavigationMethodHandler with map instances
     if (TrackAsiaMapsPlugin.getGlobalMethodHandler() != null) {
@@ -274,27 +310,74 @@ final class TrackAsiaMapController
     // clear old layer id from the location Component
     clearLocationComponentLayer();
     styleString = styleString.trim();
+    requestedStyle = styleString;
 
     // Check if json, url, absolute path or asset path:
     if (styleString == null || styleString.isEmpty()) {
       Log.e(TAG, "setStyleString - string empty or null");
     } else if (styleString.startsWith("{") || styleString.startsWith("[")) {
       trackAsiaMap.setStyle(new Style.Builder().fromJson(styleString), onStyleLoadedCallback);
+      setNavigationStyleUri(null);
     } else if (styleString.startsWith("/")) {
       // Absolute path
-      trackAsiaMap.setStyle(
-          new Style.Builder().fromUri("file://" + styleString), onStyleLoadedCallback);
+      String uri = "file://" + styleString;
+      trackAsiaMap.setStyle(new Style.Builder().fromUri(uri), onStyleLoadedCallback);
+      setNavigationStyleUri(uri);
     } else if (!styleString.startsWith("http://")
         && !styleString.startsWith("https://")
         && !styleString.startsWith("mapbox://")) {
       // We are assuming that the style will be loaded from an asset here.
       String key = TrackAsiaMapsPlugin.flutterAssets.getAssetFilePathByName(styleString);
-      trackAsiaMap.setStyle(new Style.Builder().fromUri("asset://" + key), onStyleLoadedCallback);
-    } else {
+      String uri = "asset://" + key;
+      trackAsiaMap.setStyle(new Style.Builder().fromUri(uri), onStyleLoadedCallback);
+      setNavigationStyleUri(uri);
+    } else if (styleString.startsWith("mapbox://")) {
       trackAsiaMap.setStyle(new Style.Builder().fromUri(styleString), onStyleLoadedCallback);
+      setNavigationStyleUri(styleString);
+    } else {
+      setCachedStyle(styleString);
+      // The cached style is shown from its JSON, so the map's style has no URI.
+      setNavigationStyleUri(styleString);
     }
   }
 
+  /** Tells navigation the URI of this map's style, which it prefetches route tiles for. */
+  private void setNavigationStyleUri(@Nullable String uri) {
+    if (TrackAsiaMapsPlugin.getGlobalMethodHandler() != null) {
+      TrackAsiaMapsPlugin.getGlobalMethodHandler()
+          .getNavigationMethodHandler()
+          .setStyleUri(trackAsiaMap, uri);
+    }
+  }
+
+  /**
+   * Shows the remote style from the {@link StyleCache}, and again if it changed on the server,
+   * unless another style was set meanwhile.
+   */
+  private void setCachedStyle(String styleUrl) {
+    StyleCache.load(
+        context,
+        styleUrl,
+        new StyleCache.Listener() {
+          @Override
+          public void onStyle(String json) {
+            if (disposed || !styleUrl.equals(requestedStyle)) {
+              return;
+            }
+            clearLocationComponentLayer();
+            trackAsiaMap.setStyle(new Style.Builder().fromJson(json), onStyleLoadedCallback);
+          }
+
+          @Override
+          public void onUnavailable() {
+            if (disposed || !styleUrl.equals(requestedStyle)) {
+              return;
+            }
+            trackAsiaMap.setStyle(new Style.Builder().fromUri(styleUrl), onStyleLoadedCallback);
+          }
+        });
+  }
+
 
 
   @SuppressWarnings({"MissingPermission"})
@@ -365,6 +448,10 @@ final class TrackAsiaMapController
     if (location == null) {
       return;
     }
+    if (userLocationStream.isListening()) {
+      userLocationStream.onLocation(location);
+      return;
+    }
 
     final Map<String, Object> userLocation = new HashMap<>(6);
     userLocation.put("position", new double[] {location.getLatitude(), location.getLongitude()});
@@ -387,40 +474,145 @@ final class TrackAsiaMapController
     methodChannel.invokeMethod("map#onUserLocationUpdated", arguments);
   }
 
-  private void addGeoJsonSource(String sourceName, String source) {
-    FeatureCollection featureCollection = FeatureCollection.fromJson(source);
+  private FeatureCollection parseGeoJsonArgument(MethodCall call, String key) {
+    if (call.hasArgument(key + "Binary")) {
+      return GeoJsonBinaryDecoder.decode(Convert.toMap(call.argument(key + "Binary")));
+    }
+    final String geojson = call.argument(key);
+    return geojson != null ? FeatureCollection.fromJson(geojson) : null;
+  }
+
+  private void addGeoJsonSource(
+      String sourceName, FeatureCollection featureCollection, GeoJsonFeatureStore featureStore) {
     GeoJsonSource geoJsonSource = new GeoJsonSource(sourceName, featureCollection);
-    addedFeaturesByLayer.put(sourceName, featureCollection);
+    addedFeaturesByLayer.put(sourceName, featureStore);
 
     style.addSource(geoJsonSource);
   }
 
-  private void setGeoJsonSource(String sourceName, String geojson) {
-    FeatureCollection featureCollection = FeatureCollection.fromJson(geojson);
+  private void setGeoJsonSource(
+      String sourceName, FeatureCollection featureCollection, GeoJsonFeatureStore featureStore) {
     GeoJsonSource geoJsonSource = style.getSourceAs(sourceName);
-    addedFeaturesByLayer.put(sourceName, featureCollection);
+    addedFeaturesByLayer.put(sourceName, featureStore);
+    // A full replacement supersedes any diff still waiting for the next frame.
+    pendingGeoJsonUploads.remove(sourceName);
 
     geoJsonSource.setGeoJson(featureCollection);
   }
 
-  private void setGeoJsonFeature(String sourceName, String geojsonFeature) {
-    Feature feature = Feature.fromJson(geojsonFeature);
-    FeatureCollection featureCollection = addedFeaturesByLayer.get(sourceName);
-    GeoJsonSource geoJsonSource = style.getSourceAs(sourceName);
-    if (featureCollection != null && geoJsonSource != null) {
-      final List<Feature> features = featureCollection.features();
-      for (int i = 0; i < features.size(); i++) {
-        final String id = features.get(i).id();
-        if (id.equals(feature.id())) {
-          features.set(i, feature);
-          break;
+  private void setGeoJsonFeature(String sourceName, Feature feature) {
+    GeoJsonFeatureStore featureStore = addedFeaturesByLayer.get(sourceName);
+    if (featureStore != null && featureStore.update(feature)) {
+      scheduleGeoJsonUpload(sourceName);
+    }
+  }
+
+  private static Map<String, Object> featuresReply(List<Feature> features) {
+    final List<String> featuresJson = new ArrayList<>(features.size());
+    for (Feature feature : features) {
+      featuresJson.add(feature.toJson());
+    }
+    final Map<String, Object> reply = new HashMap<>(1);
+    reply.put("features", featuresJson);
+    return reply;
+  }
+
+  /**
+   * Applies a batch of adds, updates and removes keyed by feature id. The native upload is deferred
+   * to the next frame so that all diffs for a source arriving within one frame cost one upload.
+   */
+  private void applyGeoJsonDiff(
+      String sourceName,
+      FeatureCollection added,
+      FeatureCollection updated,
+      List<String> removedIds) {
+    GeoJsonFeatureStore featureStore = addedFeaturesByLayer.get(sourceName);
+    if (featureStore == null) {
+      throw new IllegalArgumentException("No GeoJSON source with id " + sourceName);
+    }
+    boolean changed = false;
+    if (removedIds != null) {
+      for (String id : removedIds) {
+        changed |= featureStore.remove(id);
+      }
+    }
+    if (updated != null && updated.features() != null) {
+      for (Feature feature : updated.features()) {
+        changed |= featureStore.update(feature);
+      }
+    }
+    if (added != null && added.features() != null) {
+      for (Feature feature : added.features()) {
+        featureStore.add(feature);
+        changed = true;
+      }
+    }
+    if (changed) {
+      scheduleGeoJsonUpload(sourceName);
+    }
+  }
+
+  private void submitGeoJsonUpdate(
+      String sourceName,
+      boolean replacesSource,
+      GeoJsonUpdateQueue.Update update,
+      MethodChannel.Result result) {
+    if (batchDepth > 0) {
+      // Later commands of the batch may depend on this source, so it has to be applied now.
+      geoJsonUpdateQueue.applyNow(sourceName, replacesSource, update, result);
+    } else {
+      geoJsonUpdateQueue.submit(sourceName, replacesSource, update, result);
+    }
+  }
+
+  /**
+   * Runs the commands of a batch#execute call through {@link #onMethodCall} in a single pass and
+   * replies with one entry per command once every command has completed.
+   */
+  private void executeBatch(List<?> commands, MethodChannel.Result result) {
+    final BatchResult batchResult = new BatchResult(commands.size(), result);
+    batchDepth++;
+    try {
+      for (int i = 0; i < commands.size(); i++) {
+        final Map<?, ?> command = Convert.toMap(commands.get(i));
+        final MethodChannel.Result commandResult = batchResult.resultFor(i);
+        try {
+          onMethodCall(
+              new MethodCall(Convert.toString(command.get("method")), command.get("arguments")),
+              commandResult);
+        } catch (RuntimeException e) {
+          Log.e(TAG, "Batch command " + command.get("method") + " failed", e);
+          commandResult.error("BATCH_COMMAND_ERROR", e.getMessage(), null);
         }
       }
+    } finally {
+      batchDepth--;
+    }
+  }
 
-      geoJsonSource.setGeoJson(featureCollection);
+  private void scheduleGeoJsonUpload(String sourceName) {
+    pendingGeoJsonUploads.add(sourceName);
+    if (!geoJsonUploadScheduled) {
+      geoJsonUploadScheduled = true;
+      Choreographer.getInstance().postFrameCallback(geoJsonUploadCallback);
     }
   }
 
+  /** Uploads the pending sources, or keeps them until the style has finished loading. */
+  private void flushGeoJsonUploads() {
+    if (style == null || !style.isFullyLoaded()) {
+      return;
+    }
+    for (String sourceName : pendingGeoJsonUploads) {
+      GeoJsonFeatureStore featureStore = addedFeaturesByLayer.get(sourceName);
+      GeoJsonSource geoJsonSource = style.getSourceAs(sourceName);
+      if (featureStore != null && geoJsonSource != null) {
+        geoJsonSource.setGeoJson(featureStore.toFeatureCollection());
+      }
+    }
+    pendingGeoJsonUploads.clear();
+  }
+
   private void addSymbolLayer(
       String layerName,
       String sourceName,
@@ -451,7 +643,7 @@ final class TrackAsiaMapController
       style.addLayer(symbolLayer);
     }
     if (enableInteraction) {
-      interactiveFeatureLayerIds.add(layerName);
+      interactiveLayers.add(layerName, sourceName);
     }
   }
 
@@ -485,7 +677,7 @@ final class TrackAsiaMapController
       style.addLayer(lineLayer);
     }
     if (enableInteraction) {
-      interactiveFeatureLayerIds.add(layerName);
+      interactiveLayers.add(layerName, sourceName);
     }
   }
 
@@ -519,7 +711,7 @@ final class TrackAsiaMapController
       style.addLayer(fillLayer);
     }
     if (enableInteraction) {
-      interactiveFeatureLayerIds.add(layerName);
+      interactiveLayers.add(layerName, sourceName);
     }
   }
 
@@ -553,7 +745,7 @@ final class TrackAsiaMapController
       style.addLayer(fillLayer);
     }
     if (enableInteraction) {
-      interactiveFeatureLayerIds.add(layerName);
+      interactiveLayers.add(layerName, sourceName);
     }
   }
 
@@ -587,14 +779,13 @@ final class TrackAsiaMapController
       style.addLayer(circleLayer);
     }
     if (enableInteraction) {
-      interactiveFeatureLayerIds.add(layerName);
+      interactiveLayers.add(layerName, sourceName);
     }
   }
 
   private Expression parseFilter(String filter) {
-    JsonParser parser = new JsonParser();
-    JsonElement filterJsonElement = parser.parse(filter);
-    return filterJsonElement.isJsonNull() ? null : Expression.Converter.convert(filterJsonElement);
+    ExpressionCache.Entry cached = ExpressionCache.get(filter);
+    return cached.jsonElement.isJsonNull() ? null : cached.expression;
   }
 
   private void addRasterLayer(
@@ -667,23 +858,7 @@ final class TrackAsiaMapController
   }
 
   private Pair<Feature, String> firstFeatureOnLayers(RectF in) {
-    if (style != null) {
-      final List<Layer> layers = style.getLayers();
-      final List<String> layersInOrder = new ArrayList<String>();
-      for (Layer layer : layers) {
-        String id = layer.getId();
-        if (interactiveFeatureLayerIds.contains(id)) layersInOrder.add(id);
-      }
-      Collections.reverse(layersInOrder);
-
-      for (String id : layersInOrder) {
-        List<Feature> features = trackAsiaMap.queryRenderedFeatures(in, id);
-        if (!features.isEmpty()) {
-          return new Pair<Feature, String>(features.get(0), id);
-        }
-      }
-    }
-    return null;
+    return interactiveLayers.firstFeature(trackAsiaMap, style, addedFeaturesByLayer, in);
   }
 
   @Override
@@ -697,6 +872,11 @@ final class TrackAsiaMapController
         }
         mapReadyResult = result;
         break;
+      case "batch#execute":
+        {
+          executeBatch(Convert.toList(call.argument("commands")), result);
+          break;
+        }
       case "map#update":
         {
           Convert.interpretTrackAsiaMapOptions(call.argument("options"), this, context);
@@ -920,6 +1100,33 @@ final class TrackAsiaMapController
           result.success(reply);
           break;
         }
+      case "camera#setMoveEventOptions":
+        {
+          cameraMoveThrottler.setOptions(
+              call.argument("maxEventsPerSecond"),
+              Convert.toDouble(call.argument("minZoomDelta")),
+              Convert.toDouble(call.argument("minBearingDelta")),
+              Convert.toDouble(call.argument("minTargetDeltaPixels")),
+              call.argument("coalesceToFrame"));
+          result.success(null);
+          break;
+        }
+      case "debug#getCameraMoveStats":
+        {
+          result.success(cameraMoveThrottler.getStats());
+          break;
+        }
+      case "debug#resetCameraMoveStats":
+        {
+          cameraMoveThrottler.resetStats();
+          result.success(null);
+          break;
+        }
+      case "debug#getHitTestStats":
+        {
+          result.success(interactiveLayers.getStats());
+          break;
+        }
       case "map#setTelemetryEnabled":
         {
           result.success(null);
@@ -968,26 +1175,145 @@ final class TrackAsiaMapController
       }
       case "source#addGeoJson":
         {
+          // Replies once the source exists, as the layers added next refer to it.
           final String sourceId = call.argument("sourceId");
-          final String geojson = call.argument("geojson");
-          addGeoJsonSource(sourceId, geojson);
-          result.success(null);
+          final GeoJsonUpdateQueue.Update update =
+              new GeoJsonUpdateQueue.Update() {
+                private FeatureCollection featureCollection;
+                private GeoJsonFeatureStore featureStore;
+
+                @Override
+                void parse() {
+                  featureCollection = parseGeoJsonArgument(call, "geojson");
+                  featureStore = new GeoJsonFeatureStore(featureCollection);
+                }
+
+                @Override
+                void apply() {
+                  addGeoJsonSource(sourceId, featureCollection, featureStore);
+                }
+              };
+          if (batchDepth > 0) {
+            // Later commands of the batch may depend on this source, so it has to be added now.
+            geoJsonUpdateQueue.applyNow(sourceId, false, update, result);
+          } else {
+            geoJsonUpdateQueue.submitCreate(sourceId, update, result);
+          }
           break;
         }
       case "source#setGeoJson":
         {
           final String sourceId = call.argument("sourceId");
-          final String geojson = call.argument("geojson");
-          setGeoJsonSource(sourceId, geojson);
-          result.success(null);
+          submitGeoJsonUpdate(
+              sourceId,
+              true,
+              new GeoJsonUpdateQueue.Update() {
+                private FeatureCollection featureCollection;
+                private GeoJsonFeatureStore featureStore;
+
+                @Override
+                void parse() {
+                  featureCollection = parseGeoJsonArgument(call, "geojson");
+                  featureStore = new GeoJsonFeatureStore(featureCollection);
+                }
+
+                @Override
+                void apply() {
+                  setGeoJsonSource(sourceId, featureCollection, featureStore);
+                }
+              },
+              result);
           break;
         }
       case "source#setFeature":
         {
           final String sourceId = call.argument("sourceId");
-          final String geojsonFeature = call.argument("geojsonFeature");
-          setGeoJsonFeature(sourceId, geojsonFeature);
-          result.success(null);
+          submitGeoJsonUpdate(
+              sourceId,
+              false,
+              new GeoJsonUpdateQueue.Update() {
+                private Feature feature;
+
+                @Override
+                void parse() {
+                  feature = Feature.fromJson(call.<String>argument("geojsonFeature"));
+                }
+
+                @Override
+                void apply() {
+                  setGeoJsonFeature(sourceId, feature);
+                }
+              },
+              result);
+          break;
+        }
+      case "source#applyDiff":
+        {
+          final String sourceId = call.argument("sourceId");
+          submitGeoJsonUpdate(
+              sourceId,
+              false,
+              new GeoJsonUpdateQueue.Update() {
+                private FeatureCollection added;
+                private FeatureCollection updated;
+
+                @Override
+                void parse() {
+                  added = parseGeoJsonArgument(call, "add");
+                  updated = parseGeoJsonArgument(call, "update");
+                }
+
+                @Override
+                void apply() {
+                  applyGeoJsonDiff(sourceId, added, updated, call.<List<String>>argument("remove"));
+                }
+              },
+              result);
+          break;
+        }
+      case "source#queryBBox":
+        {
+          final GeoJsonFeatureStore featureStore =
+              addedFeaturesByLayer.get(call.<String>argument("sourceId"));
+          if (featureStore == null) {
+            result.error("SOURCE_NOT_FOUND", "No GeoJSON source with this id", null);
+            break;
+          }
+          final List<?> bounds = call.argument("bounds");
+          final List<?> southwest = Convert.toList(bounds.get(0));
+          final List<?> northeast = Convert.toList(bounds.get(1));
+          final Integer limit = call.argument("limit");
+          final List<Feature> features =
+              featureStore
+                  .spatialIndex()
+                  .queryBBox(
+                      Convert.toDouble(southwest.get(1)),
+                      Convert.toDouble(southwest.get(0)),
+                      Convert.toDouble(northeast.get(1)),
+                      Convert.toDouble(northeast.get(0)),
+                      limit != null ? limit : Integer.MAX_VALUE);
+          result.success(featuresReply(features));
+          break;
+        }
+      case "source#nearest":
+        {
+          final GeoJsonFeatureStore featureStore =
+              addedFeaturesByLayer.get(call.<String>argument("sourceId"));
+          if (featureStore == null) {
+            result.error("SOURCE_NOT_FOUND", "No GeoJSON source with this id", null);
+            break;
+          }
+          final Integer limit = call.argument("limit");
+          final Double maxDistance = call.argument("maxDistance");
+          final List<Feature> features =
+              featureStore
+                  .spatialIndex()
+                  .nearest(
+                      Convert.toDouble(call.argument("lng")),
+                      Convert.toDouble(call.argument("lat")),
+                      limit != null ? limit : 1,
+                      maxDistance != null ? maxDistance : Double.POSITIVE_INFINITY);
+          result.success(featuresReply(features));
           break;
         }
       case "symbolLayer#add":
@@ -1377,7 +1703,11 @@ final class TrackAsiaMapController
                 "The style is null. Has onStyleLoaded() already been invoked?",
                 null);
           }
-          style.removeSource((String) call.argument("sourceId"));
+          final String sourceId = call.argument("sourceId");
+          style.removeSource(sourceId);
+          geoJsonUpdateQueue.cancel(sourceId);
+          addedFeaturesByLayer.remove(sourceId);
+          pendingGeoJsonUploads.remove(sourceId);
           result.success(null);
           break;
         }
@@ -1437,7 +1767,7 @@ final class TrackAsiaMapController
           }
           String layerId = call.argument("layerId");
           style.removeLayer(layerId);
-          interactiveFeatureLayerIds.remove(layerId);
+          interactiveLayers.remove(layerId);
 
           result.success(null);
           break;
@@ -1475,9 +1805,7 @@ final class TrackAsiaMapController
 
           Layer layer = style.getLayer(layerId);
 
-          JsonParser parser = new JsonParser();
-          JsonElement jsonElement = parser.parse(filter);
-          Expression expression = Expression.Converter.convert(jsonElement);
+          Expression expression = ExpressionCache.get(filter).expression;
 
           if (layer instanceof CircleLayer) {
             ((CircleLayer) layer).setFilter(expression);
@@ -1645,6 +1973,8 @@ final class TrackAsiaMapController
       case "navigation#resume":
       case "navigation#isActive":
       case "navigation#getProgress":
+      case "navigation#prefetchRoute":
+      case "navigation#getPrefetchStatus":
       // NavigationMapRoute methods - delegate to GlobalMethodHandler
       case "navigationMapRoute#addRoute":
       case "navigationMapRoute#addRoutes":
@@ -1666,6 +1996,7 @@ final class TrackAsiaMapController
 
   @Override
   public void onCameraMoveStarted(int reason) {
+    ViewportRequestCanceller.onCameraMoveStarted(id);
     final Map<String, Object> arguments = new HashMap<>(2);
     boolean isGesture = reason == TrackAsiaMap.OnCameraMoveStartedListener.REASON_API_GESTURE;
     arguments.put("isGesture", isGesture);
@@ -1677,17 +2008,21 @@ final class TrackAsiaMapController
     if (!trackCameraPosition) {
       return;
     }
-    final Map<String, Object> arguments = new HashMap<>(2);
-    arguments.put("position", Convert.toJson(trackAsiaMap.getCameraPosition()));
-    methodChannel.invokeMethod("camera#onMove", arguments);
+    cameraMoveThrottler.onCameraMove();
   }
 
   @Override
   public void onCameraIdle() {
     final Map<String, Object> arguments = new HashMap<>(2);
     if (trackCameraPosition) {
-      arguments.put("position", Convert.toJson(trackAsiaMap.getCameraPosition()));
-    }
+      final CameraPosition position = trackAsiaMap.getCameraPosition();
+      cameraMoveThrottler.onCameraIdle(position);
+      arguments.put("position", Convert.toJson(position));
+    }
+    final LatLngBounds visibleBounds =
+        trackAsiaMap.getProjection().getVisibleRegion().latLngBounds;
+    OfflineCacheManager.onCameraIdle(context, visibleBounds);
+    ViewportRequestCanceller.onCameraIdle(context, id, visibleBounds);
     methodChannel.invokeMethod("camera#onIdle", arguments);
   }
 
@@ -1728,6 +2063,7 @@ final class TrackAsiaMapController
 
   @Override
   public boolean onMapClick(@NonNull LatLng point) {
+    final long start = SystemClock.elapsedRealtimeNanos();
     PointF pointf = trackAsiaMap.getProjection().toScreenLocation(point);
     RectF rectF = new RectF(pointf.x - 10, pointf.y - 10, pointf.x + 10, pointf.y + 10);
     Pair<Feature, String> featureLayerPair = firstFeatureOnLayers(rectF);
@@ -1743,6 +2079,7 @@ final class TrackAsiaMapController
     } else {
       methodChannel.invokeMethod("map#onMapClick", arguments);
     }
+    interactiveLayers.recordCallback(start);
     return true;
   }
 
@@ -1765,6 +2102,12 @@ final class TrackAsiaMapController
     }
     disposed = true;
     methodChannel.setMethodCallHandler(null);
+    geoJsonUpdateQueue.close();
+    Choreographer.getInstance().removeFrameCallback(geoJsonUploadCallback);
+    cameraMoveThrottler.cancel();
+    userLocationStream.dispose();
+    ViewportRequestCanceller.onMapDisposed(id);
+    pendingGeoJsonUploads.clear();
     destroyMapViewIfNecessary();
     Lifecycle lifecycle = lifecycleProvider.getLifecycle();
     if (lifecycle != null) {
@@ -2291,6 +2634,60 @@ final class TrackAsiaMapController
     dragPrevious = null;
   }
 
+  /** Collects the results of the commands of one batch#execute call. */
+  private static final class BatchResult {
+    private final Object[] results;
+    private final MethodChannel.Result result;
+    private int pending;
+
+    BatchResult(int commandCount, MethodChannel.Result result) {
+      this.results = new Object[commandCount];
+      this.result = result;
+      this.pending = commandCount;
+      if (commandCount == 0) {
+        result.success(new ArrayList<>());
+      }
+    }
+
+    MethodChannel.Result resultFor(int index) {
+      return new MethodChannel.Result() {
+        private boolean completed = false;
+
+        @Override
+        public void success(Object value) {
+          final Map<String, Object> entry = new HashMap<>(1);
+          entry.put("result", value);
+          complete(entry);
+        }
+
+        @Override
+        public void error(String errorCode, String errorMessage, Object errorDetails) {
+          final Map<String, Object> entry = new HashMap<>(3);
+          entry.put("error", errorCode);
+          entry.put("message", errorMessage);
+          entry.put("details", errorDetails);
+          complete(entry);
+        }
+
+        @Override
+        public void notImplemented() {
+          error("NOT_IMPLEMENTED", "Method is not implemented in batches", null);
+        }
+
+        private void complete(Map<String, Object> entry) {
+          if (completed) {
+            return;
+          }
+          completed = true;
+          results[index] = entry;
+          if (--pending == 0) {
+            result.success(Arrays.asList(results));
+          }
+        }
+      };
+    }
+  }
+
   /** Simple Listener to listen for the status of camera movements. */
   public class OnCameraMoveFinishedListener implements TrackAsiaMap.CancelableCallback {
     @Override
@@ -0,0 +1,130 @@
+package com.trackasia.trackasiagl;
+
+import android.location.Location;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.EventChannel;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Streams user location fixes to Dart in batches.
+ *
+ * <p>Each event is a {@code double[]} holding {@link #FIELDS} values per fix: latitude, longitude,
+ * altitude, bearing, speed, horizontal accuracy, vertical accuracy ({@code NaN} if unknown) and the
+ * fix time in milliseconds since the epoch. A batch is sent once it holds {@code maxBatchSize}
+ * fixes or its first fix is {@code maxBatchDelayMillis} old. Fixes closer than {@code
+ * minDisplacementMeters} to the last accepted fix are dropped.
+ */
+final class UserLocationStreamHandler implements EventChannel.StreamHandler {
+  static final int FIELDS = 8;
+
+  private final EventChannel eventChannel;
+  private final Handler handler = new Handler(Looper.getMainLooper());
+  private final Runnable flushRunnable = this::flush;
+  private final float[] distance = new float[1];
+
+  private EventChannel.EventSink sink;
+  private int maxBatchSize = 1;
+  private long maxBatchDelayMillis = 0;
+  private double minDisplacementMeters = 0;
+
+  private double[] batch = new double[FIELDS];
+  private int batchCount = 0;
+  private Location lastAccepted;
+
+  UserLocationStreamHandler(BinaryMessenger messenger, String channelName) {
+    eventChannel = new EventChannel(messenger, channelName);
+    eventChannel.setStreamHandler(this);
+  }
+
+  @Override
+  public void onListen(Object arguments, EventChannel.EventSink events) {
+    sink = events;
+    maxBatchSize = 1;
+    maxBatchDelayMillis = 0;
+    minDisplacementMeters = 0;
+    if (arguments instanceof Map) {
+      final Map<?, ?> options = (Map<?, ?>) arguments;
+      if (options.get("maxBatchSize") != null) {
+        maxBatchSize = Math.max(1, Convert.toInt(options.get("maxBatchSize")));
+      }
+      if (options.get("maxBatchDelayMillis") != null) {
+        maxBatchDelayMillis = Math.max(0, Convert.toInt(options.get("maxBatchDelayMillis")));
+      }
+      if (options.get("minDisplacementMeters") != null) {
+        minDisplacementMeters = Convert.toDouble(options.get("minDisplacementMeters"));
+      }
+    }
+    batch = new double[maxBatchSize * FIELDS];
+    batchCount = 0;
+    lastAccepted = null;
+  }
+
+  @Override
+  public void onCancel(Object arguments) {
+    sink = null;
+    handler.removeCallbacks(flushRunnable);
+    batchCount = 0;
+  }
+
+  /** Whether a Dart listener is attached, in which case fixes should only be sent here. */
+  boolean isListening() {
+    return sink != null;
+  }
+
+  void onLocation(Location location) {
+    if (sink == null || location == null) {
+      return;
+    }
+    if (lastAccepted != null && minDisplacementMeters > 0) {
+      Location.distanceBetween(
+          lastAccepted.getLatitude(),
+          lastAccepted.getLongitude(),
+          location.getLatitude(),
+          location.getLongitude(),
+          distance);
+      if (distance[0] < minDisplacementMeters) {
+        return;
+      }
+    }
+    lastAccepted = location;
+
+    final int offset = batchCount * FIELDS;
+    batch[offset] = location.getLatitude();
+    batch[offset + 1] = location.getLongitude();
+    batch[offset + 2] = location.getAltitude();
+    batch[offset + 3] = location.getBearing();
+    batch[offset + 4] = location.getSpeed();
+    batch[offset + 5] = location.getAccuracy();
+    batch[offset + 6] =
+        Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && location.hasVerticalAccuracy()
+            ? location.getVerticalAccuracyMeters()
+            : Double.NaN;
+    batch[offset + 7] = location.getTime();
+    batchCount++;
+
+    if (batchCount >= maxBatchSize) {
+      flush();
+    } else if (batchCount == 1 && maxBatchDelayMillis > 0) {
+      handler.postDelayed(flushRunnable, maxBatchDelayMillis);
+    }
+  }
+
+  void dispose() {
+    onCancel(null);
+    eventChannel.setStreamHandler(null);
+  }
+
+  private void flush() {
+    handler.removeCallbacks(flushRunnable);
+    if (sink == null || batchCount == 0) {
+      return;
+    }
+    final int length = batchCount * FIELDS;
+    batchCount = 0;
+    sink.success(Arrays.copyOf(batch, length));
+  }
+}
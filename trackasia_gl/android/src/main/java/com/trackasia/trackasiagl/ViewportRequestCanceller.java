@@ -0,0 +1,149 @@
+package com.trackasia.trackasiagl;
+
+import android.content.Context;
+import com.trackasia.android.geometry.LatLngBounds;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import okhttp3.Call;
+import okhttp3.Dispatcher;
+
+/**
+ * Cancels the tile requests of the shared HTTP client that no map needs anymore.
+ *
+ * <p>When a map's camera comes to rest, tile requests, recognized by a {@code z/x/y} URL path,
+ * are canceled if the tile is outside the visible region of every map, widened by {@link
+ * #MARGIN_TILES} tiles of its zoom level. Requests do not tell which map made them, so nothing is
+ * canceled while the camera of any map is moving, or before it first came to rest: its requests
+ * are for a region not known yet. Tiles within the bounds of an offline region are never
+ * canceled, as they may belong to a download. The map SDK already drops the requests of tiles it
+ * stops needing; this catches the ones still queued for other reasons, e.g. of maps that were
+ * moved quickly.
+ */
+abstract class ViewportRequestCanceller {
+  private static final int MARGIN_TILES = 2;
+  private static final Pattern TILE =
+      Pattern.compile(".*/(\\d+)/(\\d+)/(\\d+)(@\\d+x)?(\\.\\w+)?$");
+  private static final AtomicLong canceled = new AtomicLong();
+
+  private static final Map<Integer, LatLngBounds> visibleRegions = new ConcurrentHashMap<>();
+  private static final Set<Integer> movingMaps =
+      Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+  /** Returns the number of tile requests canceled since the last reset. */
+  static long canceledCount() {
+    return canceled.get();
+  }
+
+  static void resetCount() {
+    canceled.set(0);
+  }
+
+  static void onCameraMoveStarted(int mapId) {
+    movingMaps.add(mapId);
+  }
+
+  static void onCameraIdle(Context context, int mapId, LatLngBounds visibleBounds) {
+    visibleRegions.put(mapId, visibleBounds);
+    movingMaps.remove(mapId);
+    if (!movingMaps.isEmpty()) {
+      return;
+    }
+    OfflineRegionCatalog.load(
+        context,
+        new OfflineRegionCatalog.Callback() {
+          @Override
+          public void onLoaded() {
+            if (!movingMaps.isEmpty()) {
+              return;
+            }
+            final List<LatLngBounds> offlineBounds = new ArrayList<>();
+            for (OfflineRegionCatalog.Entry entry : OfflineRegionCatalog.all()) {
+              offlineBounds.add(entry.region.getDefinition().getBounds());
+            }
+            cancelOutside(context, new ArrayList<>(visibleRegions.values()), offlineBounds);
+          }
+
+          @Override
+          public void onError(String error) {}
+        });
+  }
+
+  static void onMapDisposed(int mapId) {
+    visibleRegions.remove(mapId);
+    movingMaps.remove(mapId);
+  }
+
+  private static void cancelOutside(
+      Context context, List<LatLngBounds> visible, List<LatLngBounds> offline) {
+    final Dispatcher dispatcher = TrackAsiaHttpClientFactory.client(context).dispatcher();
+    final List<Call> calls = new ArrayList<>(dispatcher.queuedCalls());
+    calls.addAll(dispatcher.runningCalls());
+    for (Call call : calls) {
+      if (call.isCanceled() || !"GET".equals(call.request().method())) {
+        continue;
+      }
+      final Matcher matcher = TILE.matcher(call.request().url().encodedPath());
+      if (!matcher.matches()) {
+        continue;
+      }
+      final int zoom;
+      final long x;
+      final long y;
+      try {
+        zoom = Integer.parseInt(matcher.group(1));
+        x = Long.parseLong(matcher.group(2));
+        y = Long.parseLong(matcher.group(3));
+      } catch (NumberFormatException e) {
+        continue;
+      }
+      if (zoom > 30
+          || contains(offline, zoom, x, y, 0)
+          || contains(offline, zoom, x, (1L << zoom) - 1 - y, 0)) {
+        continue;
+      }
+      // The y of TMS tile sources counts from the south, so both readings must be off screen.
+      final long tmsY = (1L << zoom) - 1 - y;
+      if (!contains(visible, zoom, x, y, MARGIN_TILES)
+          && !contains(visible, zoom, x, tmsY, MARGIN_TILES)) {
+        call.cancel();
+        canceled.incrementAndGet();
+      }
+    }
+  }
+
+  /** Returns whether tile {@code zoom/x/y} is within {@code margin} tiles of any of the bounds. */
+  static boolean contains(
+      List<LatLngBounds> bounds, int zoom, long x, long y, int margin) {
+    final long tiles = 1L << zoom;
+    for (LatLngBounds b : bounds) {
+      final long minY = (long) Math.floor(OfflineTileCover.projectY(b.getLatNorth(), zoom));
+      final long maxY = (long) Math.floor(OfflineTileCover.projectY(b.getLatSouth(), zoom));
+      if (y < minY - margin || y > maxY + margin) {
+        continue;
+      }
+      final long minX = (long) Math.floor(OfflineTileCover.projectX(b.getLonWest(), zoom));
+      final long maxX = (long) Math.floor(OfflineTileCover.projectX(b.getLonEast(), zoom));
+      if (maxX - minX + 1 + 2 * margin >= tiles || minX > maxX) {
+        return true; // Spans the world or the antimeridian.
+      }
+      // Tiles wrap around the antimeridian.
+      final long from = wrap(minX - margin, tiles);
+      final long to = wrap(maxX + margin, tiles);
+      if (from <= to ? x >= from && x <= to : x >= from || x <= to) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static long wrap(long x, long tiles) {
+    return ((x % tiles) + tiles) % tiles;
+  }
+}
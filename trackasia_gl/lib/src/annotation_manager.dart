@@ -24,6 +24,9 @@ abstract class AnnotationManager<T extends Annotation> {
   /// This can be replaced by layer filters a soon as they are implemented
   final int Function(T)? selectLayer;
 
+  /// Completes once the sources and layers of the manager have been added.
+  late final Future<void> _layersAdded;
+
   /// get the an annotation by its id
   T? byId(String id) => _idToAnnotation[id];
 
@@ -32,12 +35,7 @@ abstract class AnnotationManager<T extends Annotation> {
   AnnotationManager(this.controller,
       {this.onTap, this.selectLayer, required this.enableInteraction})
       : id = getRandomString() {
-    for (var i = 0; i < allLayerProperties.length; i++) {
-      final layerId = _makeLayerId(i);
-      controller.addGeoJsonSource(layerId, buildFeatureCollection([]),
-          promoteId: "id");
-      controller.addLayer(layerId, layerId, allLayerProperties[i]);
-    }
+    _layersAdded = _addLayers();
 
     if (onTap != null) {
       controller.onFeatureTapped.add(_onFeatureTapped);
@@ -45,9 +43,24 @@ abstract class AnnotationManager<T extends Annotation> {
     controller.onFeatureDrag.add(_onDrag);
   }
 
+  /// Adds the layers once their sources exist, as sources may be added
+  /// asynchronously on the platform side.
+  Future<void> _addLayers() async {
+    await Future.wait([
+      for (var i = 0; i < allLayerProperties.length; i++)
+        controller.addGeoJsonSource(_makeLayerId(i), buildFeatureCollection([]),
+            promoteId: "id")
+    ]);
+    for (var i = 0; i < allLayerProperties.length; i++) {
+      final layerId = _makeLayerId(i);
+      await controller.addLayer(layerId, layerId, allLayerProperties[i]);
+    }
+  }
+
   /// This function can be used to rebuild all layers after their properties
   /// changed
   Future<void> _rebuildLayers() async {
+    await _layersAdded;
     for (var i = 0; i < allLayerProperties.length; i++) {
       final layerId = _makeLayerId(i);
       await controller.removeLayer(layerId);
@@ -130,6 +143,7 @@ abstract class AnnotationManager<T extends Annotation> {
   Future<void> dispose() async {
     _idToAnnotation.clear();
     await _setAll();
+    await _layersAdded;
     for (var i = 0; i < allLayerProperties.length; i++) {
       await controller.removeLayer(_makeLayerId(i));
       await controller.removeSource(_makeLayerId(i));
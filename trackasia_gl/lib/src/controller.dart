@@ -349,6 +349,70 @@ class TrackAsiaMapController extends ChangeNotifier {
         sourceId, geojsonFeature);
   }
 
+  /// Adds, updates and removes features of an existing geojson source by
+  /// feature id without resending the whole collection.
+  ///
+  /// Features in [add] replace features with the same id or are appended,
+  /// features in [update] only replace existing features, and [remove] lists
+  /// the ids of features to drop. Diffs for the same source that arrive within
+  /// one frame are uploaded to the renderer together.
+  ///
+  /// This only works as expected if the source has been created with
+  /// [addGeoJsonSource] before.
+  ///
+  /// The returned [Future] completes after the diff has been applied on the
+  /// platform side. Not available on iOS.
+  Future<void> applyGeoJsonDiff(String sourceId,
+      {List<Map<String, dynamic>> add = const [],
+      List<Map<String, dynamic>> update = const [],
+      List<Object> remove = const []}) async {
+    await _trackasiaPlatform.applyGeoJsonDiff(sourceId,
+        add: add, update: update, remove: remove);
+  }
+
+  /// Returns the features of a geojson source whose bounding box intersects
+  /// [bounds], at most [limit] if given.
+  ///
+  /// Unlike [queryRenderedFeaturesInRect] this looks the features up in a
+  /// spatial index of the data last sent to the source, so it also finds
+  /// features that are not rendered. [bounds] whose southwest longitude is
+  /// east of its northeast longitude cross the antimeridian. Only works for
+  /// sources created with [addGeoJsonSource] and only available on Android.
+  Future<List> querySourceBBox(String sourceId, LatLngBounds bounds,
+      {int? limit}) async {
+    return _trackasiaPlatform.querySourceBBox(sourceId, bounds, limit: limit);
+  }
+
+  /// Returns up to [limit] features of a geojson source closest to [latLng],
+  /// nearest first, ignoring features further away than [maxDistance] meters.
+  ///
+  /// Like [querySourceBBox] this is answered from a spatial index of the data
+  /// last sent to the source. Only available on Android.
+  Future<List> querySourceNearest(String sourceId, LatLng latLng,
+      {int limit = 1, double? maxDistance}) async {
+    return _trackasiaPlatform.querySourceNearest(sourceId, latLng,
+        limit: limit, maxDistance: maxDistance);
+  }
+
+  /// Runs the style commands issued by [commands] as one batch.
+  ///
+  /// Instead of one platform channel round trip per call, the layer, source,
+  /// filter, visibility and property calls made on this controller while
+  /// [commands] runs are recorded and executed together on the platform side,
+  /// in order. The futures returned by the recorded calls complete immediately
+  /// with null; the returned list holds the result of each recorded command,
+  /// or a [PlatformException] for commands that failed.
+  ///
+  /// Only calls made from [commands] itself are recorded, other calls on this
+  /// controller meanwhile are sent as usual. Calls that read a value back from
+  /// the map (like [getLayerIds]) must not be made inside [commands].
+  ///
+  /// Only batched on Android. On iOS and web the commands are executed directly
+  /// and the returned list is empty.
+  Future<List<Object?>> batch(Future<void> Function() commands) async {
+    return _trackasiaPlatform.executeBatch(commands);
+  }
+
   /// Add a symbol layer to the map with the given properties
   ///
   /// Consider using [addLayer] for an unified layer api.
@@ -721,6 +785,77 @@ class TrackAsiaMapController extends ChangeNotifier {
     return _trackasiaPlatform.getTelemetryEnabled();
   }
 
+  /// Returns a stream of the user locations reported while
+  /// [TrackAsiaMap.myLocationEnabled] is true, delivered in batches.
+  ///
+  /// A batch is emitted once it holds [maxBatchSize] locations or its oldest
+  /// location is [maxBatchDelay] old. Locations closer than
+  /// [minDisplacementMeters] to the last emitted location are skipped.
+  ///
+  /// Every call returns the same broadcast stream, whose options are fixed by
+  /// the first call; calling again with other options throws a [StateError].
+  /// While the stream has a listener, [onUserLocationUpdated] is not called.
+  /// Heading is not included.
+  ///
+  /// Only available on Android.
+  Stream<List<UserLocation>> userLocationUpdates({
+    int maxBatchSize = 1,
+    Duration maxBatchDelay = Duration.zero,
+    double minDisplacementMeters = 0,
+  }) {
+    return _trackasiaPlatform.userLocationUpdates(
+      maxBatchSize: maxBatchSize,
+      maxBatchDelay: maxBatchDelay,
+      minDisplacementMeters: minDisplacementMeters,
+    );
+  }
+
+  /// Configures which camera moves are reported while
+  /// [TrackAsiaMap.trackCameraPosition] is enabled.
+  ///
+  /// At most [maxEventsPerSecond] moves are reported, 0 means no limit. A move
+  /// is only reported once the zoom changed by [minZoomDelta], the bearing by
+  /// [minBearingDelta] degrees or the target by [minTargetDeltaPixels] since the
+  /// last reported move; tilt changes are always reported. With
+  /// [coalesceToFrame] all moves of a frame are reported at most once. The
+  /// final camera position is always reported by [onCameraIdle].
+  ///
+  /// Only available on Android.
+  Future<void> setCameraMoveEventOptions({
+    int maxEventsPerSecond = 0,
+    double minZoomDelta = 0,
+    double minBearingDelta = 0,
+    double minTargetDeltaPixels = 0,
+    bool coalesceToFrame = true,
+  }) async {
+    return _trackasiaPlatform.setCameraMoveEventOptions(
+      maxEventsPerSecond: maxEventsPerSecond,
+      minZoomDelta: minZoomDelta,
+      minBearingDelta: minBearingDelta,
+      minTargetDeltaPixels: minTargetDeltaPixels,
+      coalesceToFrame: coalesceToFrame,
+    );
+  }
+
+  /// Retrieves the number of camera moves that were reported (`sent`) and
+  /// filtered out (`dropped`) according to [setCameraMoveEventOptions].
+  ///
+  /// If [reset] is true the counters are set back to 0 afterwards. Only
+  /// available on Android.
+  Future<Map<String, int>> getCameraMoveStats({bool reset = false}) async {
+    return _trackasiaPlatform.getCameraMoveStats(reset: reset);
+  }
+
+  /// Retrieves counters of the feature hit tests run for taps and drags.
+  ///
+  /// Contains the number of interactive layers, the number of hit tests and
+  /// hits, and the average and maximum time in microseconds spent in a hit
+  /// test and between a tap and the dispatch of its callback. Only available
+  /// on Android.
+  Future<Map<String, int>> getHitTestStats() async {
+    return _trackasiaPlatform.getHitTestStats();
+  }
+
   /// Adds a symbol to the map, configured using the specified custom [options].
   ///
   /// Change listeners are notified once the symbol has been added on the
@@ -4,10 +4,73 @@ abstract class DownloadRegionStatus {}
 
 class Success extends DownloadRegionStatus {}
 
+/// The download waits in the queue of [enqueueOfflineRegion].
+class Queued extends DownloadRegionStatus {}
+
+/// The download was paused with [pauseOfflineRegionDownload].
+class Paused extends DownloadRegionStatus {}
+
+/// The download was cancelled with [cancelOfflineRegionDownload].
+class Cancelled extends DownloadRegionStatus {}
+
 class InProgress extends DownloadRegionStatus {
+  /// The share of the required resources that has been downloaded, from 0 to
+  /// 100.
   final double progress;
 
-  InProgress(this.progress);
+  /// The number of resources that have been downloaded.
+  final int? completedResourceCount;
+
+  /// The number of resources the region needs. Grows while the download
+  /// discovers resources unless [requiredResourceCountIsPrecise] is true.
+  final int? requiredResourceCount;
+
+  final bool? requiredResourceCountIsPrecise;
+
+  /// The number of bytes that have been downloaded.
+  final int? completedResourceSize;
+
+  /// The number of tiles that have been downloaded.
+  final int? completedTileCount;
+
+  /// The number of bytes of tiles that have been downloaded.
+  final int? completedTileSize;
+
+  /// The download rate, averaged over the recent updates.
+  final double? bytesPerSecond;
+
+  /// The estimated time until the download completes, null if unknown.
+  final Duration? eta;
+
+  InProgress(
+    this.progress, {
+    this.completedResourceCount,
+    this.requiredResourceCount,
+    this.requiredResourceCountIsPrecise,
+    this.completedResourceSize,
+    this.completedTileCount,
+    this.completedTileSize,
+    this.bytesPerSecond,
+    this.eta,
+  });
+
+  factory InProgress._fromEvent(Map<dynamic, dynamic> event) {
+    final etaMillis = event['etaMillis'] as int?;
+    return InProgress(
+      (event['progress']! as num).toDouble(),
+      completedResourceCount: event['completedResourceCount'] as int?,
+      requiredResourceCount: event['requiredResourceCount'] as int?,
+      requiredResourceCountIsPrecise:
+          event['requiredResourceCountIsPrecise'] as bool?,
+      completedResourceSize: event['completedResourceSize'] as int?,
+      completedTileCount: event['completedTileCount'] as int?,
+      completedTileSize: event['completedTileSize'] as int?,
+      bytesPerSecond: (event['bytesPerSecond'] as num?)?.toDouble(),
+      eta: etaMillis == null || etaMillis < 0
+          ? null
+          : Duration(milliseconds: etaMillis),
+    );
+  }
 
   @override
   String toString() =>
@@ -23,3 +86,17 @@ class Error extends DownloadRegionStatus {
   String toString() =>
       "Instance of 'DownloadRegionStatus.Error', cause = $cause";
 }
+
+/// A status change of one of the downloads queued with [enqueueOfflineRegion].
+class OfflineDownloadEvent {
+  /// The id of the [OfflineRegion] the event belongs to.
+  final int regionId;
+
+  final DownloadRegionStatus status;
+
+  OfflineDownloadEvent(this.regionId, this.status);
+
+  @override
+  String toString() =>
+      "Instance of 'OfflineDownloadEvent', regionId = $regionId, status = $status";
+}
@@ -8,15 +8,52 @@ const _globalChannel = MethodChannel('plugins.flutter.io/trackasia_gl');
 
 /// Copy tiles db file passed in to the tiles cache directory (sideloaded) to
 /// make tiles available offline.
-Future<void> installOfflineMapTiles(String tilesDb) async {
+///
+/// On Android the copy runs in the background, is reported on
+/// [offlineTilesInstallProgress] and replaces the offline database only once
+/// it is complete. If [sha256] is given, the copy must have that checksum
+/// (hex encoded), otherwise the install fails with `CHECKSUM_MISMATCH` and the
+/// previous database is kept.
+Future<void> installOfflineMapTiles(String tilesDb, {String? sha256}) async {
   await _globalChannel.invokeMethod(
     'installOfflineMapTiles',
     <String, dynamic>{
       'tilesdb': tilesDb,
+      'sha256': sha256,
     },
   );
 }
 
+const _offlineInstallChannel =
+    EventChannel('plugins.flutter.io/trackasia_gl_offline_install');
+
+/// Progress of an [installOfflineMapTiles] copy.
+class OfflineTilesInstallProgress {
+  const OfflineTilesInstallProgress(
+      this.path, this.copiedBytes, this.totalBytes);
+
+  /// The tiles database being installed, as passed to [installOfflineMapTiles].
+  final String path;
+  final int copiedBytes;
+
+  /// Size of the database, or -1 for compressed assets whose size is not
+  /// known up front.
+  final int totalBytes;
+}
+
+/// The progress of [installOfflineMapTiles].
+///
+/// Only available on Android.
+final Stream<OfflineTilesInstallProgress> offlineTilesInstallProgress =
+    _offlineInstallChannel.receiveBroadcastStream().map((data) {
+  final event = data as Map<dynamic, dynamic>;
+  return OfflineTilesInstallProgress(
+    event['path'] as String,
+    event['copiedBytes'] as int,
+    event['totalBytes'] as int,
+  );
+});
+
 enum DragEventType { start, drag, end }
 
 Future<dynamic> setOffline(bool offline) => _globalChannel.invokeMethod(
@@ -26,15 +63,234 @@ Future<dynamic> setOffline(bool offline) => _globalChannel.invokeMethod(
       },
     );
 
-Future<void> setHttpHeaders(Map<String, String> headers) {
+/// Sets [headers] on the map requests to every host.
+///
+/// [hostHeaders] are set on the requests to matching hosts only, keyed by
+/// host name or by `*.example.com` for all subdomains of `example.com`, so
+/// credentials are not sent to third-party tile servers. They are merged over
+/// [headers]; an empty value removes a header. Per-host headers are only
+/// available on Android.
+Future<void> setHttpHeaders(
+  Map<String, String> headers, {
+  Map<String, Map<String, String>>? hostHeaders,
+}) {
   return _globalChannel.invokeMethod(
     'setHttpHeaders',
     <String, dynamic>{
       'headers': headers,
+      'hostHeaders': hostHeaders,
+    },
+  );
+}
+
+/// Deletes the remote styles cached on disk.
+///
+/// Maps show a cached copy of an `http(s)` style at once and reload the style
+/// only if a background revalidation finds that it changed on the server.
+/// Only available on Android.
+Future<void> clearStyleCache() {
+  return _globalChannel.invokeMethod('styleCache#clear');
+}
+
+/// Configures the HTTP client shared by the maps, navigation and offline
+/// requests of the plugin.
+///
+/// [maxIdleConnections] idle connections are kept alive for reuse, at most
+/// [maxRequests] requests run at once, [maxRequestsPerHost] of them to the
+/// same host. With [http2] requests to servers supporting it are multiplexed
+/// over a single connection. Styles fetched by the plugin are cached on disk
+/// up to [cacheSize] bytes, 0 disables the cache. Calls in flight complete on
+/// the previous client.
+///
+/// Only available on Android.
+Future<void> setHttpClientOptions({
+  int maxIdleConnections = 8,
+  int maxRequests = 64,
+  int maxRequestsPerHost = 20,
+  bool http2 = true,
+  int cacheSize = 20 * 1024 * 1024,
+}) {
+  return _globalChannel.invokeMethod(
+    'http#configureClient',
+    <String, dynamic>{
+      'maxIdleConnections': maxIdleConnections,
+      'maxRequests': maxRequests,
+      'maxRequestsPerHost': maxRequestsPerHost,
+      'http2': http2,
+      'cacheSize': cacheSize,
+    },
+  );
+}
+
+/// Latency histogram of one phase of the HTTP calls, see [NetworkStats].
+class NetworkLatencyHistogram {
+  const NetworkLatencyHistogram({
+    required this.buckets,
+    required this.count,
+    required this.sumMillis,
+    required this.maxMillis,
+    required this.p50Millis,
+    required this.p95Millis,
+  });
+
+  /// Number of samples per bucket of [NetworkStats.bucketBoundsMillis], the
+  /// last bucket holding the samples above the last bound.
+  final List<int> buckets;
+  final int count;
+  final double sumMillis;
+  final double maxMillis;
+
+  /// Upper bound of the bucket containing the median.
+  final double p50Millis;
+
+  /// Upper bound of the bucket containing the 95th percentile.
+  final double p95Millis;
+
+  factory NetworkLatencyHistogram.fromMap(Map<dynamic, dynamic> map) {
+    final List<dynamic> buckets = map['buckets'];
+    return NetworkLatencyHistogram(
+      buckets: buckets.cast<int>(),
+      count: map['count'],
+      sumMillis: map['sumMillis'],
+      maxMillis: map['maxMillis'],
+      p50Millis: map['p50Millis'],
+      p95Millis: map['p95Millis'],
+    );
+  }
+}
+
+/// Request counters of a host or resource class, see [NetworkStats].
+class NetworkTrafficStats {
+  const NetworkTrafficStats({
+    required this.requests,
+    required this.bytes,
+    required this.cacheHits,
+    required this.errors,
+    required this.canceled,
+  });
+
+  final int requests;
+
+  /// Response body bytes received from the network.
+  final int bytes;
+
+  /// Responses served or revalidated from the HTTP cache of the plugin.
+  final int cacheHits;
+
+  /// Failed calls and responses with a status code of 400 or more.
+  final int errors;
+  final int canceled;
+
+  factory NetworkTrafficStats.fromMap(Map<dynamic, dynamic> map) {
+    return NetworkTrafficStats(
+      requests: map['requests'],
+      bytes: map['bytes'],
+      cacheHits: map['cacheHits'],
+      errors: map['errors'],
+      canceled: map['canceled'],
+    );
+  }
+}
+
+/// Metrics of the HTTP requests of the maps, navigation and offline code, see
+/// [getNetworkStats].
+class NetworkStats {
+  const NetworkStats({
+    required this.bucketBoundsMillis,
+    required this.latency,
+    required this.hosts,
+    required this.resources,
+    required this.coalescedRequests,
+    required this.viewportCanceledRequests,
+  });
+
+  /// Upper bounds of the latency histogram buckets.
+  final List<int> bucketBoundsMillis;
+
+  /// Latency histograms keyed by phase: `dns`, `connect`, `tls`, `ttfb` and
+  /// `total`.
+  final Map<String, NetworkLatencyHistogram> latency;
+
+  /// Counters keyed by host.
+  final Map<String, NetworkTrafficStats> hosts;
+
+  /// Counters keyed by resource class: `tiles`, `style`, `glyphs`, `sprites`,
+  /// `directions` and `other`.
+  final Map<String, NetworkTrafficStats> resources;
+
+  /// Map requests answered with the response of an identical request that was
+  /// already in flight.
+  final int coalescedRequests;
+
+  /// Tile requests canceled because no map showed the tile when its camera
+  /// came to rest.
+  final int viewportCanceledRequests;
+
+  factory NetworkStats.fromMap(Map<dynamic, dynamic> map) {
+    final List<dynamic> bounds = map['bucketBoundsMillis'];
+    final Map<dynamic, dynamic> latency = map['latency'];
+    final Map<dynamic, dynamic> hosts = map['hosts'];
+    final Map<dynamic, dynamic> resources = map['resources'];
+    return NetworkStats(
+      bucketBoundsMillis: bounds.cast<int>(),
+      latency: latency.map((phase, histogram) => MapEntry(
+          phase as String, NetworkLatencyHistogram.fromMap(histogram))),
+      hosts: hosts.map((host, traffic) =>
+          MapEntry(host as String, NetworkTrafficStats.fromMap(traffic))),
+      resources: resources.map((resource, traffic) =>
+          MapEntry(resource as String, NetworkTrafficStats.fromMap(traffic))),
+      coalescedRequests: map['coalescedRequests'],
+      viewportCanceledRequests: map['viewportCanceledRequests'],
+    );
+  }
+}
+
+/// Returns the metrics of the HTTP requests made since the start of the app
+/// or the last reset, and resets them if [reset] is set.
+///
+/// Resources the map serves from its ambient cache are not requested and not
+/// counted. Only available on Android.
+Future<NetworkStats> getNetworkStats({bool reset = false}) async {
+  final Map<dynamic, dynamic> stats = await _globalChannel.invokeMethod(
+    'debug#getNetworkStats',
+    <String, dynamic>{
+      'reset': reset,
     },
   );
+  return NetworkStats.fromMap(stats);
+}
+
+const _networkStatsChannel =
+    EventChannel('plugins.flutter.io/trackasia_gl_network_stats');
+
+/// Emits a [NetworkStats] snapshot every [interval], see [getNetworkStats].
+///
+/// Only one interval is active at a time. Only available on Android.
+Stream<NetworkStats> networkStatsUpdates({
+  Duration interval = const Duration(seconds: 1),
+}) {
+  return _networkStatsChannel.receiveBroadcastStream(<String, dynamic>{
+    'intervalMillis': interval.inMilliseconds,
+  }).map((data) => NetworkStats.fromMap(data as Map<dynamic, dynamic>));
 }
 
+/// Returns the hit and miss counters, the current size and the capacity of the
+/// cache of parsed layer property and filter expressions shared by all maps.
+///
+/// Only available on Android.
+Future<Map<String, int>> getExpressionCacheStats() async {
+  final Map<dynamic, dynamic> stats =
+      await _globalChannel.invokeMethod('expressionCache#getStats');
+  return stats.map((key, value) => MapEntry(key as String, value as int));
+}
+
+/// Empties the cache of parsed layer property and filter expressions and
+/// resets its counters.
+///
+/// Only available on Android.
+Future<void> clearExpressionCache() =>
+    _globalChannel.invokeMethod('expressionCache#clear');
+
 Future<List<OfflineRegion>> mergeOfflineRegions(String path) async {
   final String regionsJson = await _globalChannel.invokeMethod(
     'mergeOfflineRegions',
@@ -55,6 +311,58 @@ Future<List<OfflineRegion>> getListOfRegions() async {
   return regions.map((region) => OfflineRegion.fromMap(region)).toList();
 }
 
+/// Estimates the number of tiles and the download size of [definition]
+/// without downloading it.
+///
+/// The tile count is exact for the zoom ranges declared by the style sources.
+/// The size is extrapolated from the regions downloaded on this device so far.
+///
+/// Only available on Android.
+Future<OfflineRegionEstimate> estimateOfflineRegion(
+    OfflineRegionDefinition definition) async {
+  final Map<dynamic, dynamic> estimate = await _globalChannel.invokeMethod(
+    'offline#estimateRegion',
+    <String, dynamic>{
+      'definition': definition.toMap(),
+    },
+  );
+  return OfflineRegionEstimate.fromMap(estimate);
+}
+
+/// Returns the offline regions in ascending id order, skipping [offset]
+/// regions and returning at most [limit].
+///
+/// With [metadataFilter] only regions whose metadata contains all of its
+/// entries are returned, e.g. `{'name': 'Hanoi'}`.
+///
+/// Only available on Android.
+Future<OfflineRegionPage> listOfflineRegions({
+  int offset = 0,
+  int? limit,
+  Map<String, dynamic>? metadataFilter,
+}) async {
+  final String pageJson = await _globalChannel.invokeMethod(
+    'offline#listRegions',
+    <String, dynamic>{
+      'offset': offset,
+      'limit': limit,
+      'metadataFilter': metadataFilter,
+    },
+  );
+  return OfflineRegionPage.fromMap(json.decode(pageJson));
+}
+
+/// Returns the storage statistics of the offline database: the size and
+/// tile counts of each region, the size of the database and an estimate of
+/// the ambient cache usage.
+///
+/// Only available on Android.
+Future<OfflineStorageStats> getOfflineStorageStats() async {
+  final Map<dynamic, dynamic> stats =
+      await _globalChannel.invokeMethod('offline#getStats');
+  return OfflineStorageStats.fromMap(stats);
+}
+
 Future<OfflineRegion> updateOfflineRegionMetadata(
     int id, Map<String, dynamic> metadata) async {
   final regionJson = await _globalChannel.invokeMethod(
@@ -76,6 +384,34 @@ Future<dynamic> setOfflineTileCountLimit(int limit) =>
       },
     );
 
+/// Sets the maximum size of the ambient cache to [maximumAmbientCacheSize]
+/// bytes, if given, and the [storageBudget] in bytes of the offline regions,
+/// or removes the budget if it is null.
+///
+/// Once the completed sizes of the offline regions add up to more than the
+/// budget, the least recently used regions are deleted until they fit again.
+/// The ambient cache is not counted against the budget, as deleting regions
+/// cannot shrink it. A region is used when a map's camera comes to rest over
+/// its bounds or when its download completes. Regions that are downloading,
+/// waiting in the download queue or prefetched for the current route are never
+/// deleted. The budget is checked now and after every completed download.
+/// Returns the ids of the regions deleted now.
+///
+/// Only available on Android.
+Future<List<int>> setOfflineCacheBudget({
+  int? maximumAmbientCacheSize,
+  int? storageBudget,
+}) async {
+  final List<dynamic> evicted = await _globalChannel.invokeMethod(
+    'offline#setCacheBudget',
+    <String, dynamic>{
+      'maximumAmbientCacheSize': maximumAmbientCacheSize,
+      'storageBudget': storageBudget,
+    },
+  );
+  return evicted.cast<int>();
+}
+
 Future<dynamic> deleteOfflineRegion(int id) => _globalChannel.invokeMethod(
       'deleteOfflineRegion',
       <String, dynamic>{
@@ -97,31 +433,7 @@ Future<OfflineRegion> downloadOfflineRegion(
   });
 
   if (onEvent != null) {
-    EventChannel(channelName).receiveBroadcastStream().handleError((error) {
-      if (error is PlatformException) {
-        onEvent(Error(error));
-        return Error(error);
-      }
-      final unknownError = Error(
-        PlatformException(
-          code: 'UnknowException',
-          message:
-              'This error is unhandled by plugin. Please contact us if needed.',
-          details: error,
-        ),
-      );
-      onEvent(unknownError);
-      return unknownError;
-    }).listen((data) {
-      final Map<String, Object?> jsonData = json.decode(data);
-      final status = switch (jsonData['status']) {
-        'start' => InProgress(0.0),
-        'progress' => InProgress((jsonData['progress']! as num).toDouble()),
-        'success' => Success(),
-        _ => throw Exception('Invalid event status ${jsonData['status']}'),
-      };
-      onEvent(status);
-    });
+    _listenToOfflineRegionEvents(channelName, onEvent);
   }
 
   final result = await _globalChannel
@@ -132,3 +444,209 @@ Future<OfflineRegion> downloadOfflineRegion(
 
   return OfflineRegion.fromMap(json.decode(result));
 }
+
+void _listenToOfflineRegionEvents(
+    String channelName, Function(DownloadRegionStatus event) onEvent) {
+  EventChannel(channelName).receiveBroadcastStream().handleError((error) {
+    if (error is PlatformException) {
+      onEvent(Error(error));
+      return Error(error);
+    }
+    final unknownError = Error(
+      PlatformException(
+        code: 'UnknowException',
+        message:
+            'This error is unhandled by plugin. Please contact us if needed.',
+        details: error,
+      ),
+    );
+    onEvent(unknownError);
+    return unknownError;
+  }).listen((data) {
+    // iOS still sends the events as JSON strings.
+    final Map<dynamic, dynamic> event =
+        data is String ? json.decode(data) : data as Map<dynamic, dynamic>;
+    final status = switch (event['status']) {
+      'start' => InProgress(0.0),
+      'progress' => InProgress._fromEvent(event),
+      'success' => Success(),
+      _ => throw Exception('Invalid event status ${event['status']}'),
+    };
+    onEvent(status);
+  });
+}
+
+/// Result of [refreshOfflineRegion].
+class OfflineRegionRefresh {
+  const OfflineRegionRefresh({
+    required this.resourceCount,
+    required this.reusedResourceCount,
+    required this.refetchedResourceCount,
+    required this.networkBytes,
+    required this.regionSize,
+  });
+
+  final int resourceCount;
+
+  /// Resources that were still up to date, counted from the 304 Not Modified
+  /// responses, see [refreshOfflineRegion].
+  final int reusedResourceCount;
+
+  /// Resources that were downloaded again, counted from the 2xx responses, see
+  /// [refreshOfflineRegion].
+  final int refetchedResourceCount;
+
+  /// Bytes received by the app during the refresh, including its other
+  /// traffic, or -1 if unknown.
+  final int networkBytes;
+  final int regionSize;
+}
+
+/// Re-downloads the resources of the region with [id] that changed on the
+/// server.
+///
+/// All resources of the region are marked as expired and revalidated, so only
+/// changed resources are transferred again. The reused and re-fetched
+/// resources are counted from the responses to the revalidations: tiles
+/// within the region and the style resources. Revalidations the maps make of
+/// the same resources during the refresh are counted too.
+///
+/// Only available on Android.
+Future<OfflineRegionRefresh> refreshOfflineRegion(
+  int id, {
+  Function(DownloadRegionStatus event)? onEvent,
+}) async {
+  final channelName =
+      'refreshOfflineRegion_${DateTime.now().microsecondsSinceEpoch}';
+
+  await _globalChannel
+      .invokeMethod('downloadOfflineRegion#setup', <String, dynamic>{
+    'channelName': channelName,
+  });
+
+  if (onEvent != null) {
+    _listenToOfflineRegionEvents(channelName, onEvent);
+  }
+
+  final Map<dynamic, dynamic> result = await _globalChannel
+      .invokeMethod('offline#refreshRegion', <String, dynamic>{'id': id});
+  return OfflineRegionRefresh(
+    resourceCount: result['resourceCount'],
+    reusedResourceCount: result['reusedResourceCount'],
+    refetchedResourceCount: result['refetchedResourceCount'],
+    networkBytes: result['networkBytes'],
+    regionSize: result['regionSize'],
+  );
+}
+
+const _offlineDownloadsChannel =
+    EventChannel('plugins.flutter.io/trackasia_gl_offline_downloads');
+
+/// The status changes of all downloads queued with [enqueueOfflineRegion].
+///
+/// Only available on Android.
+final Stream<OfflineDownloadEvent> offlineDownloadEvents =
+    _offlineDownloadsChannel.receiveBroadcastStream().map((data) {
+  final event = data as Map<dynamic, dynamic>;
+  final status = switch (event['status']) {
+    'queued' => Queued(),
+    'start' => InProgress(0.0),
+    'progress' => InProgress._fromEvent(event),
+    'paused' => Paused(),
+    'cancelled' => Cancelled(),
+    'success' => Success(),
+    'error' => Error(PlatformException(
+        code: event['code'] as String,
+        message: event['message'] as String?,
+        details: event['reason'],
+      )),
+    _ => throw Exception('Invalid event status ${event['status']}'),
+  };
+  return OfflineDownloadEvent(event['regionId'] as int, status);
+});
+
+/// Creates an offline region and queues its download.
+///
+/// At most [setMaxConcurrentOfflineDownloads] regions download at the same
+/// time. Queued regions start by descending [priority], and in the order they
+/// were queued within the same priority. Progress of all queued regions is
+/// reported by [offlineDownloadEvents].
+///
+/// Only available on Android.
+Future<OfflineRegion> enqueueOfflineRegion(
+  OfflineRegionDefinition definition, {
+  Map<String, dynamic> metadata = const {},
+  int priority = 0,
+}) async {
+  final result = await _globalChannel
+      .invokeMethod('offline#enqueueRegion', <String, dynamic>{
+    'definition': definition.toMap(),
+    'metadata': metadata,
+    'priority': priority,
+  });
+  return OfflineRegion.fromMap(json.decode(result));
+}
+
+/// Limits how often download progress is reported: a progress event is only
+/// sent once [interval] passed or the progress advanced by [percentStep]
+/// percent since the previous one. Defaults to 250 ms and 1 %.
+///
+/// Applies to [downloadOfflineRegion] and [enqueueOfflineRegion]. Only
+/// available on Android.
+Future<void> setOfflineProgressThrottle({
+  Duration interval = const Duration(milliseconds: 250),
+  double percentStep = 1.0,
+}) =>
+    _globalChannel.invokeMethod(
+      'offline#setProgressThrottle',
+      <String, dynamic>{
+        'intervalMillis': interval.inMilliseconds,
+        'percentStep': percentStep,
+      },
+    );
+
+/// Sets how many queued offline regions download at the same time, 2 by
+/// default. Only available on Android.
+Future<void> setMaxConcurrentOfflineDownloads(int count) =>
+    _globalChannel.invokeMethod(
+      'offline#setMaxConcurrentDownloads',
+      <String, dynamic>{'count': count},
+    );
+
+/// Pauses the queued download of the region with [id], letting the next
+/// queued region start. Only available on Android.
+Future<void> pauseOfflineRegionDownload(int id) => _globalChannel
+    .invokeMethod('offline#pauseDownload', <String, dynamic>{'id': id});
+
+/// Puts a paused download back into the queue. Only available on Android.
+Future<void> resumeOfflineRegionDownload(int id) => _globalChannel
+    .invokeMethod('offline#resumeDownload', <String, dynamic>{'id': id});
+
+/// Changes the priority of a queued download. Only available on Android.
+Future<void> setOfflineRegionDownloadPriority(int id, int priority) =>
+    _globalChannel.invokeMethod(
+      'offline#setDownloadPriority',
+      <String, dynamic>{'id': id, 'priority': priority},
+    );
+
+/// Stops and forgets the queued download of the region with [id]. Unless
+/// [deleteRegion] is false the partially downloaded region is deleted too.
+///
+/// Only available on Android.
+Future<void> cancelOfflineRegionDownload(int id, {bool deleteRegion = true}) =>
+    _globalChannel.invokeMethod(
+      'offline#cancelDownload',
+      <String, dynamic>{'id': id, 'delete': deleteRegion},
+    );
+
+/// Returns the `id`, `state` (`queued`, `active` or `paused`), `priority` and
+/// `progress` of every queued download that has not finished yet.
+///
+/// Only available on Android.
+Future<List<Map<String, dynamic>>> getOfflineDownloadQueue() async {
+  final List<dynamic> queue =
+      await _globalChannel.invokeMethod('offline#getDownloadQueue');
+  return queue
+      .map((entry) => Map<String, dynamic>.from(entry as Map))
+      .toList();
+}
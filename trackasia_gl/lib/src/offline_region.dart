@@ -9,14 +9,49 @@ class OfflineRegionDefinition {
     required this.minZoom,
     required this.maxZoom,
     this.includeIdeographs = false,
+    this.geometry,
+    this.bufferMeters = 0,
   });
 
+  /// Region covering a GeoJSON [geometry] instead of its bounding box.
+  ///
+  /// Polygon and MultiPolygon geometries are downloaded as they are.
+  /// LineString and MultiLineString geometries are downloaded as a corridor of
+  /// [bufferMeters] around the lines, which must be positive.
+  ///
+  /// Only Android downloads just the geometry, other platforms download its
+  /// bounds.
+  factory OfflineRegionDefinition.fromGeometry({
+    required Map<String, dynamic> geometry,
+    required String mapStyleUrl,
+    required double minZoom,
+    required double maxZoom,
+    double bufferMeters = 0,
+    bool includeIdeographs = false,
+  }) {
+    return OfflineRegionDefinition(
+      bounds: _geometryBounds(geometry, bufferMeters),
+      mapStyleUrl: mapStyleUrl,
+      minZoom: minZoom,
+      maxZoom: maxZoom,
+      includeIdeographs: includeIdeographs,
+      geometry: geometry,
+      bufferMeters: bufferMeters,
+    );
+  }
+
   final LatLngBounds bounds;
   final String mapStyleUrl;
   final double minZoom;
   final double maxZoom;
   final bool includeIdeographs;
 
+  /// GeoJSON geometry of the region, see [OfflineRegionDefinition.fromGeometry].
+  final Map<String, dynamic>? geometry;
+
+  /// Corridor width around line geometries, in meters.
+  final double bufferMeters;
+
   @override
   String toString() =>
       "OfflineRegionDefinition, bounds = $bounds, mapStyleUrl = $mapStyleUrl, minZoom = $minZoom, maxZoom = $maxZoom";
@@ -28,6 +63,10 @@ class OfflineRegionDefinition {
     data['minZoom'] = minZoom;
     data['maxZoom'] = maxZoom;
     data['includeIdeographs'] = includeIdeographs;
+    if (geometry != null) {
+      data['geometry'] = geometry;
+      data['bufferMeters'] = bufferMeters;
+    }
     return data;
   }
 
@@ -39,6 +78,39 @@ class OfflineRegionDefinition {
       minZoom: map['minZoom'].toDouble(),
       maxZoom: map['maxZoom'].toDouble(),
       includeIdeographs: map['includeIdeographs'] ?? false,
+      geometry: map['geometry'],
+    );
+  }
+
+  static LatLngBounds _geometryBounds(
+      Map<String, dynamic> geometry, double bufferMeters) {
+    var south = 90.0, west = 180.0, north = -90.0, east = -180.0;
+    void visit(List<dynamic> coordinates) {
+      if (coordinates.isNotEmpty && coordinates.first is num) {
+        final double lng = coordinates[0].toDouble();
+        final double lat = coordinates[1].toDouble();
+        west = math.min(west, lng);
+        east = math.max(east, lng);
+        south = math.min(south, lat);
+        north = math.max(north, lat);
+      } else {
+        for (final child in coordinates) {
+          visit(child);
+        }
+      }
+    }
+
+    visit(geometry['coordinates']);
+    // Degrees of latitude are about 111 km, degrees of longitude shrink with
+    // the cosine of the latitude.
+    final dLat = bufferMeters / 111320;
+    final maxLat = math.min(89.0, math.max(north.abs(), south.abs()));
+    final dLng = dLat / math.cos(maxLat * math.pi / 180);
+    return LatLngBounds(
+      southwest:
+          LatLng(math.max(-90.0, south - dLat), math.max(-180.0, west - dLng)),
+      northeast:
+          LatLng(math.min(90.0, north + dLat), math.min(180.0, east + dLng)),
     );
   }
 
@@ -74,3 +146,173 @@ class OfflineRegion {
   String toString() =>
       "OfflineRegion, id = $id, definition = $definition, metadata = $metadata";
 }
+
+/// One page of offline regions and the number of regions matching the query.
+class OfflineRegionPage {
+  const OfflineRegionPage({required this.total, required this.regions});
+
+  /// Number of regions matching the filter, independent of offset and limit.
+  final int total;
+  final List<OfflineRegion> regions;
+
+  factory OfflineRegionPage.fromMap(Map<String, dynamic> json) {
+    final Iterable regions = json['regions'];
+    return OfflineRegionPage(
+      total: json['total'],
+      regions: regions.map((region) => OfflineRegion.fromMap(region)).toList(),
+    );
+  }
+
+  @override
+  String toString() => "OfflineRegionPage, total = $total, regions = $regions";
+}
+
+/// Tile count and size estimate of an [OfflineRegionDefinition], see
+/// [estimateOfflineRegion].
+class OfflineRegionEstimate {
+  const OfflineRegionEstimate({
+    required this.tileCount,
+    required this.tileCountPerZoom,
+    required this.sourceCount,
+    required this.tileSourceCount,
+    required this.estimatedSize,
+    required this.pixelRatio,
+    required this.tileCountLimit,
+  });
+
+  /// Number of tiles of all tile sources of the style. If the style could not
+  /// be loaded, the number of tiles of a single vector source.
+  final int tileCount;
+
+  /// Number of tiles per zoom level of a single vector source.
+  final Map<int, int> tileCountPerZoom;
+
+  /// Number of sources of the style, or -1 if the style could not be loaded.
+  final int sourceCount;
+
+  /// Number of vector and raster sources of the style, or -1 if the style
+  /// could not be loaded.
+  final int tileSourceCount;
+
+  /// Estimated download size in bytes based on the completed downloads, or -1
+  /// if no download completed yet.
+  final int estimatedSize;
+
+  final double pixelRatio;
+
+  /// Tile count limit of the offline database, see [setOfflineTileCountLimit].
+  final int tileCountLimit;
+
+  factory OfflineRegionEstimate.fromMap(Map<dynamic, dynamic> map) {
+    final Map<dynamic, dynamic> perZoom = map['tileCountPerZoom'];
+    return OfflineRegionEstimate(
+      tileCount: map['tileCount'],
+      tileCountPerZoom: perZoom
+          .map((zoom, count) => MapEntry(zoom as int, count as int)),
+      sourceCount: map['sourceCount'],
+      tileSourceCount: map['tileSourceCount'],
+      estimatedSize: map['estimatedSize'],
+      pixelRatio: map['pixelRatio'],
+      tileCountLimit: map['tileCountLimit'],
+    );
+  }
+
+  @override
+  String toString() =>
+      "OfflineRegionEstimate, tileCount = $tileCount, sourceCount = $sourceCount, estimatedSize = $estimatedSize";
+}
+
+/// Storage statistics of one offline region, see [getOfflineStorageStats].
+class OfflineRegionStats {
+  const OfflineRegionStats({
+    required this.id,
+    required this.sharedTileEstimate,
+    this.complete,
+    this.completedResourceCount,
+    this.completedResourceSize,
+    this.completedTileCount,
+    this.completedTileSize,
+    this.requiredResourceCount,
+  });
+
+  final int id;
+
+  /// Estimated number of tiles of a single vector source the region has in
+  /// common with other regions, from the overlap of their tiles, covering
+  /// the geometry of geometry regions and the bounds of the others, and of
+  /// their zoom ranges.
+  final int sharedTileEstimate;
+
+  /// Status of the region, null if it could not be read.
+  final bool? complete;
+  final int? completedResourceCount;
+
+  /// Size in bytes of the downloaded resources, including shared ones.
+  final int? completedResourceSize;
+  final int? completedTileCount;
+  final int? completedTileSize;
+  final int? requiredResourceCount;
+
+  factory OfflineRegionStats.fromMap(Map<dynamic, dynamic> map) {
+    return OfflineRegionStats(
+      id: map['id'],
+      sharedTileEstimate: map['sharedTileEstimate'],
+      complete: map['complete'],
+      completedResourceCount: map['completedResourceCount'],
+      completedResourceSize: map['completedResourceSize'],
+      completedTileCount: map['completedTileCount'],
+      completedTileSize: map['completedTileSize'],
+      requiredResourceCount: map['requiredResourceCount'],
+    );
+  }
+
+  @override
+  String toString() =>
+      "OfflineRegionStats, id = $id, completedResourceSize = $completedResourceSize, sharedTileEstimate = $sharedTileEstimate";
+}
+
+/// Storage statistics of the offline database, see [getOfflineStorageStats].
+class OfflineStorageStats {
+  const OfflineStorageStats({
+    required this.regions,
+    required this.regionsSize,
+    required this.databaseSize,
+    required this.ambientCacheSizeEstimate,
+    required this.timeSinceLastDownload,
+  });
+
+  final List<OfflineRegionStats> regions;
+
+  /// Sum of the completed sizes of the regions in bytes.
+  final int regionsSize;
+
+  /// Size of the offline database files in bytes.
+  final int databaseSize;
+
+  /// Part of the database not used by regions in bytes. As resources shared
+  /// by regions are counted once per region, this is a lower bound.
+  final int ambientCacheSizeEstimate;
+
+  /// Time since the last completed download or refresh of a region, null if
+  /// none completed yet.
+  final Duration? timeSinceLastDownload;
+
+  factory OfflineStorageStats.fromMap(Map<dynamic, dynamic> map) {
+    final Iterable regions = map['regions'];
+    final int millisSinceLastDownload = map['millisSinceLastDownload'];
+    return OfflineStorageStats(
+      regions:
+          regions.map((region) => OfflineRegionStats.fromMap(region)).toList(),
+      regionsSize: map['regionsSize'],
+      databaseSize: map['databaseSize'],
+      ambientCacheSizeEstimate: map['ambientCacheSizeEstimate'],
+      timeSinceLastDownload: millisSinceLastDownload >= 0
+          ? Duration(milliseconds: millisSinceLastDownload)
+          : null,
+    );
+  }
+
+  @override
+  String toString() =>
+      "OfflineStorageStats, regions = ${regions.length}, databaseSize = $databaseSize, ambientCacheSizeEstimate = $ambientCacheSizeEstimate";
+}
@@ -161,6 +161,39 @@ class TrackAsiaNavigation {
   Future<RouteProgress?> getCurrentRouteProgress() async {
     return _platform.getCurrentRouteProgress();
   }
+
+  /// Download the tiles around the calculated route for offline use
+  ///
+  /// The route line is buffered by [bufferMeters] and covered with tiles from
+  /// [minZoom] to [maxZoom]. The tiles are queued as an offline region with
+  /// [priority], so progress is reported on [offlineDownloadEvents]. A new
+  /// prefetch replaces the region of the previous one. [mapStyleUrl] defaults
+  /// to the style URL the map was given, and is required if the map was given
+  /// a style JSON.
+  ///
+  /// Only available on Android.
+  Future<RoutePrefetchStatus> prefetchRoute({
+    double bufferMeters = 500,
+    double minZoom = 12,
+    double maxZoom = 16,
+    int priority = -1,
+    String? mapStyleUrl,
+  }) async {
+    return _platform.prefetchRoute(
+      bufferMeters: bufferMeters,
+      minZoom: minZoom,
+      maxZoom: maxZoom,
+      priority: priority,
+      mapStyleUrl: mapStyleUrl,
+    );
+  }
+
+  /// Get the coverage of the last route prefetch
+  ///
+  /// Returns null if no route was prefetched
+  Future<RoutePrefetchStatus?> getRoutePrefetchStatus() async {
+    return _platform.getRoutePrefetchStatus();
+  }
 }
 
 /// Extension methods for TrackAsiaMapController to add navigation functionality
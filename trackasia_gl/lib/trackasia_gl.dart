@@ -83,6 +83,7 @@ export 'package:trackasia_gl_platform_interface/trackasia_gl_platform_interface.
         OnPlatformViewCreatedCallback,
         RasterDemSourceProperties,
         RasterSourceProperties,
+        RoutePrefetchStatus,
         RouteProgress,
         SourceProperties,
         Symbol,
@@ -0,0 +1,158 @@
+part of '../trackasia_gl_platform_interface.dart';
+
+/// Geometry type tags used by [encodeGeoJsonBinary]. They must stay in sync
+/// with `GeoJsonBinaryDecoder` on Android.
+const _binaryGeometryNone = 0;
+const _binaryGeometryPoint = 1;
+const _binaryGeometryLineString = 2;
+const _binaryGeometryPolygon = 3;
+const _binaryGeometryMultiPoint = 4;
+const _binaryGeometryMultiLineString = 5;
+const _binaryGeometryMultiPolygon = 6;
+
+/// Encodes a GeoJSON FeatureCollection into a compact columnar layout that can
+/// be sent over the platform channel without a JSON round trip.
+///
+/// The result contains:
+/// * `types`: one geometry type tag per feature
+/// * `structure`: ring, line and polygon counts needed to rebuild the nesting
+/// * `coordinates`: all positions as flattened longitude/latitude pairs
+/// * `ids`: the feature ids
+/// * `keys`: the dictionary of property keys used by all features
+/// * `properties`: per feature a flat list of key index and value pairs
+///
+/// Returns null if [geojson] cannot be represented in this layout (for example
+/// a GeometryCollection or positions with an altitude). Callers should fall
+/// back to sending the JSON string in that case.
+Map<String, Object>? encodeGeoJsonBinary(Map<String, dynamic> geojson) {
+  final List<dynamic>? features;
+  switch (geojson['type']) {
+    case 'FeatureCollection':
+      features = geojson['features'] as List<dynamic>?;
+    case 'Feature':
+      features = [geojson];
+    default:
+      return null;
+  }
+  if (features == null) {
+    return null;
+  }
+
+  final encoder = _GeoJsonBinaryEncoder(features.length);
+  for (final feature in features) {
+    if (feature is! Map || !encoder.addFeature(feature)) {
+      return null;
+    }
+  }
+  return encoder.build();
+}
+
+class _GeoJsonBinaryEncoder {
+  _GeoJsonBinaryEncoder(int featureCount)
+      : types = Uint8List(featureCount),
+        ids = List<Object?>.filled(featureCount, null),
+        properties = List<List<Object?>>.filled(featureCount, const []);
+
+  final Uint8List types;
+  final List<Object?> ids;
+  final List<List<Object?>> properties;
+  final structure = <int>[];
+  final coordinates = <double>[];
+  final keys = <String>[];
+  final keyIndices = <String, int>{};
+  var featureIndex = 0;
+
+  bool addFeature(Map feature) {
+    final geometry = feature['geometry'];
+    final int type;
+    if (geometry == null) {
+      type = _binaryGeometryNone;
+    } else {
+      final coords = geometry['coordinates'];
+      switch (geometry['type']) {
+        case 'Point':
+          type = _binaryGeometryPoint;
+          if (!_addPosition(coords)) return false;
+        case 'LineString':
+          type = _binaryGeometryLineString;
+          if (!_addPositions(coords)) return false;
+        case 'MultiPoint':
+          type = _binaryGeometryMultiPoint;
+          if (!_addPositions(coords)) return false;
+        case 'Polygon':
+          type = _binaryGeometryPolygon;
+          if (!_addRings(coords)) return false;
+        case 'MultiLineString':
+          type = _binaryGeometryMultiLineString;
+          if (!_addRings(coords)) return false;
+        case 'MultiPolygon':
+          type = _binaryGeometryMultiPolygon;
+          if (coords is! List) return false;
+          structure.add(coords.length);
+          for (final polygon in coords) {
+            if (!_addRings(polygon)) return false;
+          }
+        default:
+          return false;
+      }
+    }
+
+    final id = feature['id'];
+    final props = feature['properties'];
+    types[featureIndex] = type;
+    ids[featureIndex] = id is num ? id.toString() : id;
+    if (props is Map && props.isNotEmpty) {
+      final flat = List<Object?>.filled(props.length * 2, null);
+      var i = 0;
+      props.forEach((key, value) {
+        flat[i++] = keyIndices.putIfAbsent(key as String, () {
+          keys.add(key);
+          return keys.length - 1;
+        });
+        flat[i++] = value;
+      });
+      properties[featureIndex] = flat;
+    }
+    featureIndex++;
+    return true;
+  }
+
+  bool _addPosition(dynamic position) {
+    if (position is! List || position.length != 2) {
+      return false;
+    }
+    coordinates
+      ..add((position[0] as num).toDouble())
+      ..add((position[1] as num).toDouble());
+    return true;
+  }
+
+  bool _addPositions(dynamic positions) {
+    if (positions is! List) return false;
+    structure.add(positions.length);
+    for (final position in positions) {
+      if (!_addPosition(position)) return false;
+    }
+    return true;
+  }
+
+  bool _addRings(dynamic rings) {
+    if (rings is! List) return false;
+    structure.add(rings.length);
+    for (final ring in rings) {
+      if (!_addPositions(ring)) return false;
+    }
+    return true;
+  }
+
+  Map<String, Object> build() {
+    return <String, Object>{
+      'types': types,
+      'structure': Int32List.fromList(structure),
+      'coordinates': Float64List.fromList(coordinates),
+      'ids': ids,
+      'keys': keys,
+      'properties': properties,
+    };
+  }
+}
@@ -2,8 +2,13 @@ part of '../trackasia_gl_platform_interface.dart';
 
 class TrackAsiaMethodChannel extends TrackAsiaPlatform {
   late MethodChannel _channel;
+  late EventChannel _userLocationChannel;
   static bool useHybridComposition = false;
 
+  /// Whether GeoJSON sources are sent to Android in the columnar binary layout
+  /// produced by [encodeGeoJsonBinary] instead of as a JSON string.
+  static bool useBinaryGeoJson = true;
+
   Future<dynamic> _handleMethodCall(MethodCall call) async {
     switch (call.method) {
       case 'infoWindow#onTap':
@@ -45,7 +50,16 @@ class TrackAsiaMethodChannel extends TrackAsiaPlatform {
       case 'camera#onMoveStarted':
         onCameraMoveStartedPlatform(null);
       case 'camera#onMove':
-        final cameraPosition = CameraPosition.fromMap(call.arguments['position'])!;
+        final arguments = call.arguments;
+        // Android sends [lat, lng, zoom, bearing, tilt] as a Float64List.
+        final cameraPosition = arguments is Float64List
+            ? CameraPosition(
+                target: LatLng(arguments[0], arguments[1]),
+                zoom: arguments[2],
+                bearing: arguments[3],
+                tilt: arguments[4],
+              )
+            : CameraPosition.fromMap(arguments['position'])!;
         onCameraMovePlatform(cameraPosition);
       case 'camera#onIdle':
         final cameraPosition = CameraPosition.fromMap(call.arguments['position']);
@@ -113,10 +127,68 @@ class TrackAsiaMethodChannel extends TrackAsiaPlatform {
     }
   }
 
+  /// Key of the zone value holding the [_RecordedBatch] of this controller.
+  ///
+  /// The batch is bound to the zone running the commands of [executeBatch],
+  /// so calls made on this controller from elsewhere meanwhile are still sent
+  /// on their own.
+  final Object _batchZoneKey = Object();
+
+  /// Sends a command to the platform, or records it if called from the
+  /// commands of [executeBatch].
+  Future<T?> _invokeMethod<T>(String method, [dynamic arguments]) {
+    final batch = Zone.current[_batchZoneKey] as _RecordedBatch?;
+    if (batch != null && !batch.sent) {
+      batch.commands.add(<String, dynamic>{
+        'method': method,
+        'arguments': arguments,
+      });
+      return Future<T?>.value();
+    }
+    return _channel.invokeMethod<T>(method, arguments);
+  }
+
+  @override
+  Future<List<Object?>> executeBatch(Future<void> Function() commands) async {
+    if (defaultTargetPlatform != TargetPlatform.android) {
+      // Only Android executes batches, elsewhere the commands are sent one by one.
+      await commands();
+      return [];
+    }
+    final outer = Zone.current[_batchZoneKey] as _RecordedBatch?;
+    if (outer != null && !outer.sent) {
+      throw StateError('executeBatch cannot be nested');
+    }
+    final batch = _RecordedBatch();
+    try {
+      await runZoned(commands, zoneValues: {_batchZoneKey: batch});
+    } finally {
+      batch.sent = true;
+    }
+    final batchCommands = batch.commands;
+    if (batchCommands.isEmpty) {
+      return [];
+    }
+    final List<dynamic> replies = await _channel.invokeMethod('batch#execute', <String, dynamic>{
+      'commands': batchCommands,
+    });
+    return replies.map<Object?>((reply) {
+      if (reply['error'] != null) {
+        return PlatformException(
+          code: reply['error'],
+          message: reply['message'],
+          details: reply['details'],
+        );
+      }
+      return reply['result'];
+    }).toList();
+  }
+
   @override
   Future<void> initPlatform(int id) async {
     _channel = MethodChannel('plugins.flutter.io/trackasia_gl_$id');
     _channel.setMethodCallHandler(_handleMethodCall);
+    _userLocationChannel = EventChannel('plugins.flutter.io/trackasia_gl_location_$id');
     await _channel.invokeMethod('map#waitForMap');
   }
 
@@ -248,6 +320,92 @@ class TrackAsiaMethodChannel extends TrackAsiaPlatform {
     return await _channel.invokeMethod('map#getTelemetryEnabled');
   }
 
+  /// The stream of [userLocationUpdates] and its options. The platform side
+  /// has a single listener, so every caller shares this stream.
+  Stream<List<UserLocation>>? _userLocationStream;
+  Map<String, dynamic>? _userLocationOptions;
+
+  @override
+  Stream<List<UserLocation>> userLocationUpdates({
+    int maxBatchSize = 1,
+    Duration maxBatchDelay = Duration.zero,
+    double minDisplacementMeters = 0,
+  }) {
+    final options = <String, dynamic>{
+      'maxBatchSize': maxBatchSize,
+      'maxBatchDelayMillis': maxBatchDelay.inMilliseconds,
+      'minDisplacementMeters': minDisplacementMeters,
+    };
+    final stream = _userLocationStream;
+    if (stream != null) {
+      if (!mapEquals(options, _userLocationOptions)) {
+        throw StateError('userLocationUpdates was already requested with '
+            'other options: $_userLocationOptions');
+      }
+      return stream;
+    }
+    _userLocationOptions = options;
+    return _userLocationStream = _userLocationChannel
+        .receiveBroadcastStream(options)
+        .map((event) => _decodeUserLocations(event as Float64List));
+  }
+
+  /// Decodes a batch of fixes sent as 8 doubles per fix: latitude, longitude,
+  /// altitude, bearing, speed, horizontal and vertical accuracy, and the fix
+  /// time in milliseconds since the epoch.
+  static List<UserLocation> _decodeUserLocations(Float64List data) {
+    const fields = 8;
+    final locations = <UserLocation>[];
+    for (var i = 0; i + fields <= data.length; i += fields) {
+      final verticalAccuracy = data[i + 6];
+      locations.add(UserLocation(
+        position: LatLng(data[i], data[i + 1]),
+        altitude: data[i + 2],
+        bearing: data[i + 3],
+        speed: data[i + 4],
+        horizontalAccuracy: data[i + 5],
+        verticalAccuracy: verticalAccuracy.isNaN ? null : verticalAccuracy,
+        timestamp: DateTime.fromMillisecondsSinceEpoch(data[i + 7].toInt()),
+        heading: null,
+      ));
+    }
+    return locations;
+  }
+
+  @override
+  Future<void> setCameraMoveEventOptions({
+    int maxEventsPerSecond = 0,
+    double minZoomDelta = 0,
+    double minBearingDelta = 0,
+    double minTargetDeltaPixels = 0,
+    bool coalesceToFrame = true,
+  }) async {
+    await _channel.invokeMethod('camera#setMoveEventOptions', <String, dynamic>{
+      'maxEventsPerSecond': maxEventsPerSecond,
+      'minZoomDelta': minZoomDelta,
+      'minBearingDelta': minBearingDelta,
+      'minTargetDeltaPixels': minTargetDeltaPixels,
+      'coalesceToFrame': coalesceToFrame,
+    });
+  }
+
+  @override
+  Future<Map<String, int>> getCameraMoveStats({bool reset = false}) async {
+    final Map<dynamic, dynamic> stats =
+        await _channel.invokeMethod('debug#getCameraMoveStats');
+    if (reset) {
+      await _channel.invokeMethod('debug#resetCameraMoveStats');
+    }
+    return stats.map((key, value) => MapEntry(key as String, value as int));
+  }
+
+  @override
+  Future<Map<String, int>> getHitTestStats() async {
+    final Map<dynamic, dynamic> stats =
+        await _channel.invokeMethod('debug#getHitTestStats');
+    return stats.map((key, value) => MapEntry(key as String, value as int));
+  }
+
   @override
   Future<List> queryRenderedFeatures(Point<double> point, List<String> layerIds, List<Object>? filter) async {
     try {
@@ -365,7 +523,7 @@ class TrackAsiaMethodChannel extends TrackAsiaPlatform {
   @override
   Future<void> addImage(String name, Uint8List bytes, [bool sdf = false]) async {
     try {
-      return await _channel.invokeMethod('style#addImage', <String, Object>{'name': name, 'bytes': bytes, 'length': bytes.length, 'sdf': sdf});
+      return await _invokeMethod('style#addImage', <String, Object>{'name': name, 'bytes': bytes, 'length': bytes.length, 'sdf': sdf});
     } on PlatformException catch (e) {
       return Future.error(e);
     }
@@ -374,7 +532,7 @@ class TrackAsiaMethodChannel extends TrackAsiaPlatform {
   @override
   Future<void> addImageSource(String imageSourceId, Uint8List bytes, LatLngQuad coordinates) async {
     try {
-      return await _channel.invokeMethod('style#addImageSource', <String, Object>{'imageSourceId': imageSourceId, 'bytes': bytes, 'length': bytes.length, 'coordinates': coordinates.toList()});
+      return await _invokeMethod('style#addImageSource', <String, Object>{'imageSourceId': imageSourceId, 'bytes': bytes, 'length': bytes.length, 'coordinates': coordinates.toList()});
     } on PlatformException catch (e) {
       return Future.error(e);
     }
@@ -383,7 +541,7 @@ class TrackAsiaMethodChannel extends TrackAsiaPlatform {
   @override
   Future<void> updateImageSource(String imageSourceId, Uint8List? bytes, LatLngQuad? coordinates) async {
     try {
-      return await _channel.invokeMethod('style#updateImageSource', <String, Object?>{'imageSourceId': imageSourceId, 'bytes': bytes, 'length': bytes?.length, 'coordinates': coordinates?.toList()});
+      return await _invokeMethod('style#updateImageSource', <String, Object?>{'imageSourceId': imageSourceId, 'bytes': bytes, 'length': bytes?.length, 'coordinates': coordinates?.toList()});
     } on PlatformException catch (e) {
       return Future.error(e);
     }
@@ -422,7 +580,7 @@ class TrackAsiaMethodChannel extends TrackAsiaPlatform {
   @override
   Future<void> removeSource(String sourceId) async {
     try {
-      return await _channel.invokeMethod(
+      return await _invokeMethod(
         'style#removeSource',
         <String, Object>{'sourceId': sourceId},
       );
@@ -434,7 +592,7 @@ class TrackAsiaMethodChannel extends TrackAsiaPlatform {
   @override
   Future<void> addLayer(String imageLayerId, String imageSourceId, double? minzoom, double? maxzoom) async {
     try {
-      return await _channel.invokeMethod('style#addLayer', <String, dynamic>{'imageLayerId': imageLayerId, 'imageSourceId': imageSourceId, 'minzoom': minzoom, 'maxzoom': maxzoom});
+      return await _invokeMethod('style#addLayer', <String, dynamic>{'imageLayerId': imageLayerId, 'imageSourceId': imageSourceId, 'minzoom': minzoom, 'maxzoom': maxzoom});
     } on PlatformException catch (e) {
       return Future.error(e);
     }
@@ -443,8 +601,7 @@ class TrackAsiaMethodChannel extends TrackAsiaPlatform {
   @override
   Future<void> addLayerBelow(String imageLayerId, String imageSourceId, String belowLayerId, double? minzoom, double? maxzoom) async {
     try {
-      return await _channel
-          .invokeMethod('style#addLayerBelow', <String, dynamic>{'imageLayerId': imageLayerId, 'imageSourceId': imageSourceId, 'belowLayerId': belowLayerId, 'minzoom': minzoom, 'maxzoom': maxzoom});
+      return await _invokeMethod('style#addLayerBelow', <String, dynamic>{'imageLayerId': imageLayerId, 'imageSourceId': imageSourceId, 'belowLayerId': belowLayerId, 'minzoom': minzoom, 'maxzoom': maxzoom});
     } on PlatformException catch (e) {
       return Future.error(e);
     }
@@ -453,7 +610,7 @@ class TrackAsiaMethodChannel extends TrackAsiaPlatform {
   @override
   Future<void> removeLayer(String imageLayerId) async {
     try {
-      return await _channel.invokeMethod('style#removeLayer', <String, Object>{'layerId': imageLayerId});
+      return await _invokeMethod('style#removeLayer', <String, Object>{'layerId': imageLayerId});
     } on PlatformException catch (e) {
       return Future.error(e);
     }
@@ -462,7 +619,7 @@ class TrackAsiaMethodChannel extends TrackAsiaPlatform {
   @override
   Future<void> setFilter(String layerId, dynamic filter) async {
     try {
-      return await _channel.invokeMethod('style#setFilter', <String, Object>{'layerId': layerId, 'filter': jsonEncode(filter)});
+      return await _invokeMethod('style#setFilter', <String, Object>{'layerId': layerId, 'filter': jsonEncode(filter)});
     } on PlatformException catch (e) {
       return Future.error(e);
     }
@@ -508,18 +665,74 @@ class TrackAsiaMethodChannel extends TrackAsiaPlatform {
 
   @override
   Future<void> addGeoJsonSource(String sourceId, Map<String, dynamic> geojson, {String? promoteId}) async {
-    await _channel.invokeMethod('source#addGeoJson', <String, dynamic>{
-      'sourceId': sourceId,
-      'geojson': jsonEncode(geojson),
-    });
+    await _invokeMethod('source#addGeoJson', _geoJsonArguments(sourceId, geojson));
   }
 
   @override
   Future<void> setGeoJsonSource(String sourceId, Map<String, dynamic> geojson) async {
-    await _channel.invokeMethod('source#setGeoJson', <String, dynamic>{
+    await _invokeMethod('source#setGeoJson', _geoJsonArguments(sourceId, geojson));
+  }
+
+  Map<String, dynamic> _geoJsonArguments(String sourceId, Map<String, dynamic> geojson) {
+    return _putGeoJson(<String, dynamic>{'sourceId': sourceId}, 'geojson', geojson);
+  }
+
+  /// Stores [geojson] under [key] as a JSON string, or under `${key}Binary` in
+  /// the binary layout when that is supported by the platform.
+  Map<String, dynamic> _putGeoJson(Map<String, dynamic> arguments, String key, Map<String, dynamic> geojson) {
+    if (useBinaryGeoJson && defaultTargetPlatform == TargetPlatform.android) {
+      final binary = encodeGeoJsonBinary(geojson);
+      if (binary != null) {
+        arguments['${key}Binary'] = binary;
+        return arguments;
+      }
+    }
+    arguments[key] = jsonEncode(geojson);
+    return arguments;
+  }
+
+  @override
+  Future<void> applyGeoJsonDiff(String sourceId,
+      {List<Map<String, dynamic>> add = const [], List<Map<String, dynamic>> update = const [], List<Object> remove = const []}) async {
+    final arguments = <String, dynamic>{
       'sourceId': sourceId,
-      'geojson': jsonEncode(geojson),
-    });
+      'remove': remove.map((id) => id.toString()).toList(),
+    };
+    if (add.isNotEmpty) {
+      _putGeoJson(arguments, 'add', {'type': 'FeatureCollection', 'features': add});
+    }
+    if (update.isNotEmpty) {
+      _putGeoJson(arguments, 'update', {'type': 'FeatureCollection', 'features': update});
+    }
+    await _invokeMethod('source#applyDiff', arguments);
+  }
+
+  @override
+  Future<List> querySourceBBox(String sourceId, LatLngBounds bounds, {int? limit}) async {
+    final Map<dynamic, dynamic> reply = await _channel.invokeMethod(
+      'source#queryBBox',
+      <String, dynamic>{
+        'sourceId': sourceId,
+        'bounds': bounds.toList(),
+        'limit': limit,
+      },
+    );
+    return reply['features'].map((feature) => jsonDecode(feature)).toList();
+  }
+
+  @override
+  Future<List> querySourceNearest(String sourceId, LatLng latLng, {int limit = 1, double? maxDistance}) async {
+    final Map<dynamic, dynamic> reply = await _channel.invokeMethod(
+      'source#nearest',
+      <String, dynamic>{
+        'sourceId': sourceId,
+        'lat': latLng.latitude,
+        'lng': latLng.longitude,
+        'limit': limit,
+        'maxDistance': maxDistance,
+      },
+    );
+    return reply['features'].map((feature) => jsonDecode(feature)).toList();
   }
 
   @override
@@ -546,7 +759,7 @@ class TrackAsiaMethodChannel extends TrackAsiaPlatform {
   @override
   Future<void> addSymbolLayer(String sourceId, String layerId, Map<String, dynamic> properties,
       {String? belowLayerId, String? sourceLayer, double? minzoom, double? maxzoom, dynamic filter, required bool enableInteraction}) async {
-    await _channel.invokeMethod('symbolLayer#add', <String, dynamic>{
+    await _invokeMethod('symbolLayer#add', <String, dynamic>{
       'sourceId': sourceId,
       'layerId': layerId,
       'belowLayerId': belowLayerId,
@@ -562,7 +775,7 @@ class TrackAsiaMethodChannel extends TrackAsiaPlatform {
   @override
   Future<void> addLineLayer(String sourceId, String layerId, Map<String, dynamic> properties,
       {String? belowLayerId, String? sourceLayer, double? minzoom, double? maxzoom, dynamic filter, required bool enableInteraction}) async {
-    await _channel.invokeMethod('lineLayer#add', <String, dynamic>{
+    await _invokeMethod('lineLayer#add', <String, dynamic>{
       'sourceId': sourceId,
       'layerId': layerId,
       'belowLayerId': belowLayerId,
@@ -577,13 +790,13 @@ class TrackAsiaMethodChannel extends TrackAsiaPlatform {
 
   @override
   Future<void> setLayerProperties(String layerId, Map<String, dynamic> properties) async {
-    await _channel.invokeMethod('layer#setProperties', <String, dynamic>{'layerId': layerId, 'properties': properties.map((key, value) => MapEntry<String, String>(key, jsonEncode(value)))});
+    await _invokeMethod('layer#setProperties', <String, dynamic>{'layerId': layerId, 'properties': properties.map((key, value) => MapEntry<String, String>(key, jsonEncode(value)))});
   }
 
   @override
   Future<void> addCircleLayer(String sourceId, String layerId, Map<String, dynamic> properties,
       {String? belowLayerId, String? sourceLayer, double? minzoom, double? maxzoom, dynamic filter, required bool enableInteraction}) async {
-    await _channel.invokeMethod('circleLayer#add', <String, dynamic>{
+    await _invokeMethod('circleLayer#add', <String, dynamic>{
       'sourceId': sourceId,
       'layerId': layerId,
       'belowLayerId': belowLayerId,
@@ -599,7 +812,7 @@ class TrackAsiaMethodChannel extends TrackAsiaPlatform {
   @override
   Future<void> addFillLayer(String sourceId, String layerId, Map<String, dynamic> properties,
       {String? belowLayerId, String? sourceLayer, double? minzoom, double? maxzoom, dynamic filter, required bool enableInteraction}) async {
-    await _channel.invokeMethod('fillLayer#add', <String, dynamic>{
+    await _invokeMethod('fillLayer#add', <String, dynamic>{
       'sourceId': sourceId,
       'layerId': layerId,
       'belowLayerId': belowLayerId,
@@ -615,7 +828,7 @@ class TrackAsiaMethodChannel extends TrackAsiaPlatform {
   @override
   Future<void> addFillExtrusionLayer(String sourceId, String layerId, Map<String, dynamic> properties,
       {String? belowLayerId, String? sourceLayer, double? minzoom, double? maxzoom, dynamic filter, required bool enableInteraction}) async {
-    await _channel.invokeMethod('fillExtrusionLayer#add', <String, dynamic>{
+    await _invokeMethod('fillExtrusionLayer#add', <String, dynamic>{
       'sourceId': sourceId,
       'layerId': layerId,
       'belowLayerId': belowLayerId,
@@ -636,7 +849,7 @@ class TrackAsiaMethodChannel extends TrackAsiaPlatform {
 
   @override
   Future<void> addSource(String sourceId, SourceProperties properties) async {
-    await _channel.invokeMethod('style#addSource', <String, dynamic>{
+    await _invokeMethod('style#addSource', <String, dynamic>{
       'sourceId': sourceId,
       'properties': properties.toJson(),
     });
@@ -644,7 +857,7 @@ class TrackAsiaMethodChannel extends TrackAsiaPlatform {
 
   @override
   Future<void> addRasterLayer(String sourceId, String layerId, Map<String, dynamic> properties, {String? belowLayerId, String? sourceLayer, double? minzoom, double? maxzoom}) async {
-    await _channel.invokeMethod('rasterLayer#add', <String, dynamic>{
+    await _invokeMethod('rasterLayer#add', <String, dynamic>{
       'sourceId': sourceId,
       'layerId': layerId,
       'belowLayerId': belowLayerId,
@@ -656,7 +869,7 @@ class TrackAsiaMethodChannel extends TrackAsiaPlatform {
 
   @override
   Future<void> addHillshadeLayer(String sourceId, String layerId, Map<String, dynamic> properties, {String? belowLayerId, String? sourceLayer, double? minzoom, double? maxzoom}) async {
-    await _channel.invokeMethod('hillshadeLayer#add', <String, dynamic>{
+    await _invokeMethod('hillshadeLayer#add', <String, dynamic>{
       'sourceId': sourceId,
       'layerId': layerId,
       'belowLayerId': belowLayerId,
@@ -668,7 +881,7 @@ class TrackAsiaMethodChannel extends TrackAsiaPlatform {
 
   @override
   Future<void> addHeatmapLayer(String sourceId, String layerId, Map<String, dynamic> properties, {String? belowLayerId, String? sourceLayer, double? minzoom, double? maxzoom}) async {
-    await _channel.invokeMethod('heatmapLayer#add', <String, dynamic>{
+    await _invokeMethod('heatmapLayer#add', <String, dynamic>{
       'sourceId': sourceId,
       'layerId': layerId,
       'belowLayerId': belowLayerId,
@@ -680,12 +893,12 @@ class TrackAsiaMethodChannel extends TrackAsiaPlatform {
 
   @override
   Future<void> setFeatureForGeoJsonSource(String sourceId, Map<String, dynamic> geojsonFeature) async {
-    await _channel.invokeMethod('source#setFeature', <String, dynamic>{'sourceId': sourceId, 'geojsonFeature': jsonEncode(geojsonFeature)});
+    await _invokeMethod('source#setFeature', <String, dynamic>{'sourceId': sourceId, 'geojsonFeature': jsonEncode(geojsonFeature)});
   }
 
   @override
   Future<void> setLayerVisibility(String layerId, bool visible) async {
-    await _channel.invokeMethod('layer#setVisibility', <String, dynamic>{
+    await _invokeMethod('layer#setVisibility', <String, dynamic>{
       'layerId': layerId,
       'visible': visible,
     });
@@ -797,6 +1010,41 @@ class TrackAsiaMethodChannel extends TrackAsiaPlatform {
     }
   }
 
+  @override
+  Future<RoutePrefetchStatus> prefetchRoute({
+    double bufferMeters = 500,
+    double minZoom = 12,
+    double maxZoom = 16,
+    int priority = -1,
+    String? mapStyleUrl,
+  }) async {
+    try {
+      final Map<dynamic, dynamic> reply = await _channel.invokeMethod(
+        'navigation#prefetchRoute',
+        <String, dynamic>{
+          'bufferMeters': bufferMeters,
+          'minZoom': minZoom,
+          'maxZoom': maxZoom,
+          'priority': priority,
+          'mapStyleUrl': mapStyleUrl,
+        },
+      );
+      return RoutePrefetchStatus.fromMap(Map<String, dynamic>.from(reply));
+    } on PlatformException catch (e) {
+      return Future.error(e);
+    }
+  }
+
+  @override
+  Future<RoutePrefetchStatus?> getRoutePrefetchStatus() async {
+    try {
+      final Map<dynamic, dynamic>? reply = await _channel.invokeMethod('navigation#getPrefetchStatus');
+      return reply != null ? RoutePrefetchStatus.fromMap(Map<String, dynamic>.from(reply)) : null;
+    } on PlatformException catch (e) {
+      return Future.error(e);
+    }
+  }
+
   @override
   Future<List> getSourceIds() async {
     try {
@@ -807,3 +1055,12 @@ class TrackAsiaMethodChannel extends TrackAsiaPlatform {
     }
   }
 }
+
+/// Commands recorded by [TrackAsiaMethodChannel.executeBatch].
+class _RecordedBatch {
+  final List<Map<String, dynamic>> commands = [];
+
+  /// Whether the batch has been collected, after which calls from its zone,
+  /// e.g. of timers started by the commands, are sent on their own.
+  bool sent = false;
+}
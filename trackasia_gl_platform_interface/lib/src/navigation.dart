@@ -366,3 +366,35 @@ typedef NavigationEventCallback = void Function(NavigationEvent event);
 typedef RouteProgressCallback = void Function(RouteProgress progress);
 typedef VoiceInstructionCallback = void Function(VoiceInstruction instruction);
 typedef BannerInstructionCallback = void Function(BannerInstruction instruction);
+
+/// State of the offline prefetch of the tiles around the current route.
+class RoutePrefetchStatus {
+  /// Id of the offline region holding the prefetched tiles
+  final int regionId;
+
+  /// Number of tiles of the route corridor for one vector source
+  final int tileCount;
+
+  /// Percentage (0 to 100) of the resources of the corridor that are available
+  /// offline. Stays 0 until the download has started.
+  final double coverage;
+
+  /// Whether all resources of the corridor are available offline
+  final bool complete;
+
+  const RoutePrefetchStatus({
+    required this.regionId,
+    required this.tileCount,
+    required this.coverage,
+    required this.complete,
+  });
+
+  factory RoutePrefetchStatus.fromMap(Map<String, dynamic> map) {
+    return RoutePrefetchStatus(
+      regionId: map['regionId'],
+      tileCount: map['tileCount'] ?? 0,
+      coverage: (map['coverage'] ?? 0.0).toDouble(),
+      complete: map['complete'] ?? false,
+    );
+  }
+}
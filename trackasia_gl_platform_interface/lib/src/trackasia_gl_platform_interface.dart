@@ -71,6 +71,20 @@ abstract class TrackAsiaPlatform {
   Future<void> setTelemetryEnabled(bool enabled);
 
   Future<bool> getTelemetryEnabled();
+  Future<Map<String, int>> getHitTestStats();
+  Stream<List<UserLocation>> userLocationUpdates({
+    int maxBatchSize = 1,
+    Duration maxBatchDelay = Duration.zero,
+    double minDisplacementMeters = 0,
+  });
+  Future<void> setCameraMoveEventOptions({
+    int maxEventsPerSecond = 0,
+    double minZoomDelta = 0,
+    double minBearingDelta = 0,
+    double minTargetDeltaPixels = 0,
+    bool coalesceToFrame = true,
+  });
+  Future<Map<String, int>> getCameraMoveStats({bool reset = false});
   Future<List> queryRenderedFeatures(
       Point<double> point, List<String> layerIds, List<Object>? filter);
 
@@ -133,6 +147,17 @@ abstract class TrackAsiaPlatform {
   Future<void> setFeatureForGeoJsonSource(
       String sourceId, Map<String, dynamic> geojsonFeature);
 
+  Future<void> applyGeoJsonDiff(String sourceId,
+      {List<Map<String, dynamic>> add = const [],
+      List<Map<String, dynamic>> update = const [],
+      List<Object> remove = const []});
+
+  Future<List> querySourceBBox(String sourceId, LatLngBounds bounds,
+      {int? limit});
+
+  Future<List> querySourceNearest(String sourceId, LatLng latLng,
+      {int limit = 1, double? maxDistance});
+
   Future<void> removeSource(String sourceId);
 
   Future<void> addSymbolLayer(
@@ -208,6 +233,8 @@ abstract class TrackAsiaPlatform {
 
   Future<void> setLayerVisibility(String layerId, bool visible);
 
+  Future<List<Object?>> executeBatch(Future<void> Function() commands);
+
   // Navigation methods
   Future<NavigationRoute?> calculateRoute({
     required List<LatLng> waypoints,
@@ -229,6 +256,16 @@ abstract class TrackAsiaPlatform {
   
   Future<RouteProgress?> getCurrentRouteProgress();
 
+  Future<RoutePrefetchStatus> prefetchRoute({
+    double bufferMeters = 500,
+    double minZoom = 12,
+    double maxZoom = 16,
+    int priority = -1,
+    String? mapStyleUrl,
+  });
+
+  Future<RoutePrefetchStatus?> getRoutePrefetchStatus();
+
   @mustCallSuper
   void dispose() {
     // clear all callbacks to avoid cyclic refs
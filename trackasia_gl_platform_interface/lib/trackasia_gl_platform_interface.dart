@@ -24,3 +24,4 @@ part 'src/ui.dart';
 part 'src/trackasia_gl_platform_interface.dart';
 part 'src/source_properties.dart';
 part 'src/location_engine_properties.dart';
+part 'src/geojson_binary.dart';
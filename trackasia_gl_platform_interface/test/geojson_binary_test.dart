@@ -0,0 +1,73 @@
+import 'dart:typed_data';
+
+import 'package:flutter_test/flutter_test.dart';
+import 'package:trackasia_gl_platform_interface/trackasia_gl_platform_interface.dart';
+
+void main() {
+  group('encodeGeoJsonBinary', () {
+    test('flattens geometries and shares property keys', () {
+      final encoded = encodeGeoJsonBinary({
+        'type': 'FeatureCollection',
+        'features': [
+          {
+            'type': 'Feature',
+            'id': 'a',
+            'properties': {'name': 'first', 'speed': 12},
+            'geometry': {
+              'type': 'Point',
+              'coordinates': [106.7, 10.8],
+            },
+          },
+          {
+            'type': 'Feature',
+            'id': 7,
+            'properties': {'speed': 3},
+            'geometry': {
+              'type': 'Polygon',
+              'coordinates': [
+                [
+                  [0, 0],
+                  [1, 0],
+                  [1, 1],
+                  [0, 0],
+                ],
+              ],
+            },
+          },
+        ],
+      })!;
+
+      expect(encoded['types'], Uint8List.fromList([1, 3]));
+      expect(encoded['structure'], Int32List.fromList([1, 4]));
+      expect((encoded['coordinates']! as Float64List).length, 10);
+      expect(encoded['ids'], ['a', '7']);
+      expect(encoded['keys'], ['name', 'speed']);
+      expect(encoded['properties'], [
+        [0, 'first', 1, 12],
+        [1, 3],
+      ]);
+    });
+
+    test('returns null for layouts it cannot represent', () {
+      expect(
+        encodeGeoJsonBinary({
+          'type': 'FeatureCollection',
+          'features': [
+            {
+              'type': 'Feature',
+              'geometry': {
+                'type': 'Point',
+                'coordinates': [1, 2, 3],
+              },
+            },
+          ],
+        }),
+        isNull,
+      );
+      expect(
+        encodeGeoJsonBinary({'type': 'GeometryCollection', 'geometries': []}),
+        isNull,
+      );
+    });
+  });
+}
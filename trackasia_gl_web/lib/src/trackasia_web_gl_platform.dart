@@ -256,6 +256,46 @@ class TrackAsiaMapController extends TrackAsiaPlatform implements TrackAsiaMapOp
     return false;
   }
 
+  @override
+  Stream<List<UserLocation>> userLocationUpdates({
+    int maxBatchSize = 1,
+    Duration maxBatchDelay = Duration.zero,
+    double minDisplacementMeters = 0,
+  }) {
+    throw UnimplementedError();
+  }
+
+  @override
+  Future<List> querySourceBBox(String sourceId, LatLngBounds bounds, {int? limit}) async {
+    throw UnimplementedError();
+  }
+
+  @override
+  Future<List> querySourceNearest(String sourceId, LatLng latLng, {int limit = 1, double? maxDistance}) async {
+    throw UnimplementedError();
+  }
+
+  @override
+  Future<void> setCameraMoveEventOptions({
+    int maxEventsPerSecond = 0,
+    double minZoomDelta = 0,
+    double minBearingDelta = 0,
+    double minTargetDeltaPixels = 0,
+    bool coalesceToFrame = true,
+  }) async {
+    print('Camera move event options not available in web');
+  }
+
+  @override
+  Future<Map<String, int>> getCameraMoveStats({bool reset = false}) async {
+    throw UnimplementedError();
+  }
+
+  @override
+  Future<Map<String, int>> getHitTestStats() async {
+    throw UnimplementedError();
+  }
+
   @override
   Future<List> queryRenderedFeatures(Point<double> point, List<String> layerIds, List<Object>? filter) async {
     final options = <String, dynamic>{};
@@ -989,6 +1029,45 @@ class TrackAsiaMapController extends TrackAsiaPlatform implements TrackAsiaMapOp
     }
   }
 
+  @override
+  Future<void> applyGeoJsonDiff(String sourceId,
+      {List<Map<String, dynamic>> add = const [], List<Map<String, dynamic>> update = const [], List<Object> remove = const []}) async {
+    final source = _map.getSource(sourceId) as GeoJsonSource?;
+    final data = _addedFeaturesByLayer[sourceId];
+
+    if (source != null && data != null) {
+      final removedIds = remove.map((id) => id.toString()).toSet();
+      final features = data.features.where((f) => !removedIds.contains(f.id?.toString())).toList();
+      for (final geojsonFeature in update) {
+        final feature = _makeFeature(geojsonFeature);
+        final index = features.indexWhere((f) => f.id == feature.id);
+        if (index >= 0) {
+          features[index] = feature;
+        }
+      }
+      for (final geojsonFeature in add) {
+        final feature = _makeFeature(geojsonFeature);
+        final index = features.indexWhere((f) => f.id == feature.id);
+        if (index >= 0) {
+          features[index] = feature;
+        } else {
+          features.add(feature);
+        }
+      }
+      final newData = FeatureCollection(features: features);
+      _addedFeaturesByLayer[sourceId] = newData;
+
+      source.setData(newData);
+    }
+  }
+
+  @override
+  Future<List<Object?>> executeBatch(Future<void> Function() commands) async {
+    // There is no channel round trip to save on web, so the commands run directly.
+    await commands();
+    return [];
+  }
+
   @override
   void resizeWebMap() {
     _onMapResize();
@@ -1067,4 +1146,20 @@ class TrackAsiaMapController extends TrackAsiaPlatform implements TrackAsiaMapOp
     // Web platform navigation not implemented yet
     return null;
   }
+
+  @override
+  Future<RoutePrefetchStatus> prefetchRoute({
+    double bufferMeters = 500,
+    double minZoom = 12,
+    double maxZoom = 16,
+    int priority = -1,
+    String? mapStyleUrl,
+  }) async {
+    throw UnimplementedError('Navigation is not supported on web platform');
+  }
+
+  @override
+  Future<RoutePrefetchStatus?> getRoutePrefetchStatus() async {
+    return null;
+  }
 }